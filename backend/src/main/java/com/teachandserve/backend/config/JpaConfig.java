@@ -0,0 +1,36 @@
+package com.teachandserve.backend.config;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Hibernate JDBC batching configuration.
+ *
+ * The entities that are inserted in bulk (participants, conversations, matches) use
+ * pooled sequence generators, so their INSERTs can be deferred to flush and sent as
+ * JDBC batches. Messages stay on IDENTITY: they are inserted one per transaction, and
+ * history pages, read watermarks and the conversation summary rely on message ids
+ * increasing in insert order. Ordering inserts and updates groups statements per table so a
+ * flush of mixed entities still forms full batches.
+ *
+ * For PostgreSQL, add {@code reWriteBatchedInserts=true} to the JDBC URL so the driver
+ * rewrites each batch into multi-row INSERT statements.
+ */
+@Configuration
+public class JpaConfig {
+
+    @Value("${jpa.jdbc.batch-size:50}")
+    private int batchSize;
+
+    @Bean
+    public HibernatePropertiesCustomizer jdbcBatchingCustomizer() {
+        return properties -> {
+            properties.putIfAbsent(AvailableSettings.STATEMENT_BATCH_SIZE, batchSize);
+            properties.putIfAbsent(AvailableSettings.ORDER_INSERTS, true);
+            properties.putIfAbsent(AvailableSettings.ORDER_UPDATES, true);
+        };
+    }
+}
@@ -11,6 +11,8 @@ import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 
+import java.util.concurrent.Executors;
+
 /**
  * Redis configuration for caching and Pub/Sub messaging.
  *
@@ -51,13 +53,21 @@ public class RedisConfig {
     }
 
     /**
-     * Redis message listener container for Pub/Sub
+     * Redis message listener container for Pub/Sub.
+     * Messages are dispatched on one thread in the order Redis delivered them (the
+     * default executor starts a thread per message), so relayed publications keep
+     * their order.
      */
     @Bean
     public RedisMessageListenerContainer redisMessageListenerContainer(
             RedisConnectionFactory connectionFactory) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redis-listener");
+            thread.setDaemon(true);
+            return thread;
+        }));
         return container;
     }
 }
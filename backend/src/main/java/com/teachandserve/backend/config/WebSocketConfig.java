@@ -1,53 +1,105 @@
 package com.teachandserve.backend.config;
 
+import com.teachandserve.backend.security.StompAuthChannelInterceptor;
+import com.teachandserve.backend.service.OutboundFlowControl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 /**
  * WebSocket configuration for real-time messaging using STOMP protocol.
  *
  * Supports both single-instance and distributed deployment:
  * - Single instance: In-memory broker (development)
- * - Multi-instance: Redis Pub/Sub broker (production)
+ * - Multi-instance: In-memory broker per instance, with publications relayed between
+ *   instances over Redis Pub/Sub by ClusterBroker (messaging.cluster.transport=redis)
  *
  * Endpoints:
  * - /ws: WebSocket handshake endpoint with SockJS fallback
  *
  * Message destinations:
- * - /app: Prefix for application-level messages
+ * - /app: Prefix for application-level messages (MessagingController)
+ * - /user/topic/errors: Per-session replies to failed /app requests
  * - /topic: Prefix for broker destinations (subscriptions)
  *
  * Topics:
  * - /topic/conversations.{conversationId}.messages: Message broadcasts for a conversation
  * - /topic/users.{userId}.conversations: Conversation updates for a user
  * - /topic/users.{userId}.read-receipts: Read receipt notifications for a user
+ * - /topic/conversations.{conversationId}.presence: Presence and typing of participants
+ *
+ * Sessions authenticate with a JWT in the CONNECT frame (StompAuthChannelInterceptor).
+ * The broker exchanges heartbeats with clients every messaging.websocket.heartbeat-ms,
+ * and every inbound frame renews the session's presence lease (PresenceService).
+ *
+ * Outbound flow control:
+ * - Messages to clients are written on a pool of messaging.websocket.outbound-concurrency
+ *   virtual threads with a queue of messaging.websocket.outbound-queue-capacity tasks;
+ *   a full queue rejects sends rather than blocking the publishing thread
+ * - Publish order is preserved per session, so each session receives frames one at a
+ *   time in the order they were published
+ * - OutboundFlowControl buffers each session's frames up to
+ *   messaging.websocket.send-buffer-size-limit bytes, with a single write taking at most
+ *   messaging.websocket.send-time-limit-ms, and drops frames for, or disconnects,
+ *   sessions that lag behind
  */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final StompAuthChannelInterceptor stompAuthChannelInterceptor;
+    private final OutboundFlowControl outboundFlowControl;
+
+    private TaskScheduler messageBrokerTaskScheduler;
+
+    @Value("${messaging.websocket.outbound-concurrency:256}")
+    private int outboundConcurrency;
+
+    @Value("${messaging.websocket.outbound-queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    @Value("${messaging.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+
+    @Value("${messaging.websocket.send-buffer-size-limit:262144}")
+    private int sendBufferSizeLimit;
+
+    @Value("${messaging.websocket.heartbeat-ms:10000}")
+    private long heartbeatMillis;
+
+    public WebSocketConfig(StompAuthChannelInterceptor stompAuthChannelInterceptor,
+                           OutboundFlowControl outboundFlowControl) {
+        this.stompAuthChannelInterceptor = stompAuthChannelInterceptor;
+        this.outboundFlowControl = outboundFlowControl;
+    }
+
+    // The broker's own scheduler, which is created after this configurer
+    @Autowired
+    public void setMessageBrokerTaskScheduler(@Lazy @Qualifier("messageBrokerTaskScheduler") TaskScheduler taskScheduler) {
+        this.messageBrokerTaskScheduler = taskScheduler;
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        // Enable simple in-memory broker for development
-        // For production with multi-instance, use STOMP broker relay
-        registry.enableSimpleBroker("/topic");
-
-        // Production: Use external broker relay for Redis Pub/Sub
-        // Uncomment below for multi-instance deployments
-        /*
-        registry.enableStompBrokerRelay("/topic")
-                .setRelayHost("localhost")
-                .setRelayPort(61613)
-                .setVirtualHost("/")
-                .setAutoStartup(true)
-                .setClientPasscode("")
-                .setClientLogin("")
-                .setSystemPasscode("")
-                .setSystemLogin("");
-        */
+        // Simple in-memory broker for this instance's sessions; ClusterBroker relays
+        // /topic publications to the other instances
+        // Frames for one session leave in the order they were published (inbox delta
+        // sequence numbers rely on it); different sessions are still sent in parallel
+        registry.setPreservePublishOrder(true);
+
+        registry.enableSimpleBroker("/topic")
+                .setHeartbeatValue(new long[] {heartbeatMillis, heartbeatMillis})
+                .setTaskScheduler(messageBrokerTaskScheduler);
 
         // Prefix for messages bound for @MessageMapping methods
         registry.setApplicationDestinationPrefixes("/app");
@@ -57,6 +109,31 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.setUserDestinationPrefix("/user");
     }
 
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(stompAuthChannelInterceptor);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Fixed pool of virtual threads with a bounded queue; a full queue rejects the
+        // send (logged by the broker) instead of blocking the broker or publisher thread
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("ws-outbound-");
+        executor.setVirtualThreads(true);
+        executor.setCorePoolSize(outboundConcurrency);
+        executor.setMaxPoolSize(outboundConcurrency);
+        executor.setQueueCapacity(outboundQueueCapacity);
+        registration.executor(executor);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .addDecoratorFactory(outboundFlowControl);
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // Register the "/ws" endpoint for WebSocket handshake
@@ -3,9 +3,14 @@ package com.teachandserve.backend.controller;
 import com.teachandserve.backend.dto.*;
 import com.teachandserve.backend.model.Conversation;
 import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.service.ConversationListCache;
 import com.teachandserve.backend.service.ConversationService;
+import com.teachandserve.backend.service.InboxEventPublisher;
 import com.teachandserve.backend.service.MessageService;
+import com.teachandserve.backend.service.UnreadCounterService;
 import jakarta.validation.Valid;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
@@ -20,6 +25,7 @@ import java.util.Map;
  * Endpoints:
  * - POST /api/conversations: Create or get a 1:1 conversation
  * - GET /api/conversations: List user's conversations
+ * - GET /api/conversations/unread: Total unread messages (badge)
  * - GET /api/conversations/{id}: Get conversation details with messages
  * - POST /api/conversations/{id}/messages: Send a message
  * - POST /api/conversations/{id}/read: Mark messages as read
@@ -29,13 +35,24 @@ import java.util.Map;
 @CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3001"})
 public class ConversationController {
 
+    static final String INBOX_SEQ_HEADER = "X-Inbox-Seq";
+
     private final ConversationService conversationService;
     private final MessageService messageService;
+    private final UnreadCounterService unreadCounterService;
+    private final ConversationListCache conversationListCache;
+    private final InboxEventPublisher inboxEventPublisher;
 
     public ConversationController(ConversationService conversationService,
-                                 MessageService messageService) {
+                                 MessageService messageService,
+                                 UnreadCounterService unreadCounterService,
+                                 ConversationListCache conversationListCache,
+                                 InboxEventPublisher inboxEventPublisher) {
         this.conversationService = conversationService;
         this.messageService = messageService;
+        this.unreadCounterService = unreadCounterService;
+        this.conversationListCache = conversationListCache;
+        this.inboxEventPublisher = inboxEventPublisher;
     }
 
     /**
@@ -66,33 +83,76 @@ public class ConversationController {
      * Get all conversations for the authenticated user.
      * Returns conversations ordered by most recently updated first.
      * Includes participants, last message, and unread count.
+     * Served from {@link ConversationListCache} with a strong ETag; a matching
+     * If-None-Match returns 304 without a body.
+     * The X-Inbox-Seq header holds the sequence number of the last inbox delta the list
+     * reflects; clients apply deltas on /topic/users.{id}.conversations from there.
      *
-     * @param user Authenticated user
-     * @return List of conversations
+     * @param ifNoneMatch Optional entity tags from a previous response
+     * @param user        Authenticated user
+     * @return List of conversations, or 304 if unchanged
      */
     @GetMapping
     public ResponseEntity<List<ConversationResponse>> getUserConversations(
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
             @AuthenticationPrincipal User user) {
-        List<ConversationResponse> conversations =
-                conversationService.getUserConversations(user.getId());
-        return ResponseEntity.ok(conversations);
+        // Read the sequence first: deltas up to it were applied (and the cache invalidated)
+        // before the list is loaded, later ones may be replayed on top of it
+        Long seq = inboxEventPublisher.getCurrentSeq(user.getId());
+        ConversationListSnapshot snapshot = conversationListCache.getConversations(user.getId());
+
+        boolean notModified = etagMatches(ifNoneMatch, snapshot.getEtag());
+        ResponseEntity.BodyBuilder response = notModified
+                ? ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                : ResponseEntity.ok();
+
+        // The list is per user, so shared caches must not store it and browsers must revalidate
+        response.eTag(snapshot.getEtag()).cacheControl(CacheControl.noCache().cachePrivate());
+        if (seq != null) {
+            response.header(INBOX_SEQ_HEADER, seq.toString());
+        }
+        return notModified ? response.build() : response.body(snapshot.getConversations());
+    }
+
+    /**
+     * Get the authenticated user's total unread message count for the unread badge.
+     * Served from a Redis counter, so it stays cheap to poll.
+     *
+     * @param user Authenticated user
+     * @return Map containing the total unread count
+     */
+    @GetMapping("/unread")
+    public ResponseEntity<Map<String, Long>> getUnreadCount(@AuthenticationPrincipal User user) {
+        return ResponseEntity.ok(Map.of("total", unreadCounterService.getTotalUnread(user.getId())));
     }
 
     /**
      * Get conversation details with paginated messages.
+     * Pass the returned {@code nextCursor} back as {@code cursor} to load older messages;
+     * {@code hasMore} is false once the start of the conversation is reached.
      *
      * @param id     Conversation ID
-     * @param before Optional message ID for pagination (get messages before this ID)
+     * @param cursor Optional opaque cursor from a previous page
+     * @param before Optional message ID for pagination (get messages before this ID), used if no cursor is given
      * @param limit  Number of messages to retrieve (default 50, max 100)
      * @param user   Authenticated user
-     * @return Map containing conversation details and messages
+     * @return Map containing conversation details, messages, nextCursor and hasMore
      */
     @GetMapping("/{id}")
     public ResponseEntity<?> getConversation(
             @PathVariable Long id,
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false) Long before,
             @RequestParam(defaultValue = "50") int limit,
             @AuthenticationPrincipal User user) {
+        if (cursor != null) {
+            try {
+                before = MessageCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            }
+        }
+
         try {
             // Validate limit
             if (limit > 100) {
@@ -100,14 +160,15 @@ public class ConversationController {
             }
 
             Conversation conversation = conversationService.getConversation(id, user.getId());
-            List<MessageResponse> messages = messageService.getMessages(
-                    id, user.getId(), before, limit);
+            MessagePage page = messageService.getMessages(id, user.getId(), before, limit);
 
             Map<String, Object> response = new HashMap<>();
             response.put("id", conversation.getId());
             response.put("createdAt", conversation.getCreatedAt());
             response.put("updatedAt", conversation.getUpdatedAt());
-            response.put("messages", messages);
+            response.put("messages", page.getMessages());
+            response.put("nextCursor", page.getNextCursor());
+            response.put("hasMore", page.isHasMore());
 
             return ResponseEntity.ok(response);
         } catch (IllegalArgumentException e) {
@@ -129,7 +190,7 @@ public class ConversationController {
             @Valid @RequestBody SendMessageRequest request,
             @AuthenticationPrincipal User user) {
         try {
-            MessageResponse message = messageService.sendMessage(id, user.getId(), request.getBody());
+            MessageResponse message = messageService.sendMessage(id, user, request.getBody());
             return ResponseEntity.ok(message);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(403).body(Map.of("error", e.getMessage()));
@@ -157,4 +218,23 @@ public class ConversationController {
             return ResponseEntity.status(403).body(Map.of("error", e.getMessage()));
         }
     }
+
+    /**
+     * Weak comparison of an If-None-Match header against the current entity tag.
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,128 @@
+package com.teachandserve.backend.controller;
+
+import com.teachandserve.backend.dto.MarkAsReadRequest;
+import com.teachandserve.backend.dto.MessageResponse;
+import com.teachandserve.backend.dto.PresenceRequest;
+import com.teachandserve.backend.dto.SendMessageRequest;
+import com.teachandserve.backend.dto.TypingRequest;
+import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.service.MessageService;
+import com.teachandserve.backend.service.PresenceDirectory;
+import com.teachandserve.backend.service.PresenceService;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.handler.annotation.support.MethodArgumentNotValidException;
+import org.springframework.messaging.simp.annotation.SendToUser;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Controller;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * STOMP controller for sending messages, read receipts, presence and typing over an
+ * open WebSocket.
+ *
+ * Sessions are authenticated once at CONNECT (see StompAuthChannelInterceptor), so a
+ * send is a single SEND frame without a token check or user lookup. Handlers share
+ * {@link MessageService} with the REST endpoints.
+ *
+ * Destinations:
+ * - /app/conversations.{id}.send: Send a message ({@link SendMessageRequest})
+ * - /app/conversations.{id}.read: Mark messages as read ({@link MarkAsReadRequest})
+ * - /app/conversations.{id}.typing: Start or stop typing ({@link TypingRequest})
+ * - /app/presence: Report the session online or away ({@link PresenceRequest})
+ *
+ * A frame with a {@code receipt} header is acknowledged with a RECEIPT frame once it has
+ * been processed; for sends, the RECEIPT carries the new message's ID in a
+ * {@code message-id} header. Failures are sent to the session's
+ * /user/topic/errors destination with the frame's receipt ID instead.
+ */
+@Controller
+public class MessagingController {
+
+    private final MessageService messageService;
+    private final PresenceService presenceService;
+    private final MessageChannel clientOutboundChannel;
+
+    public MessagingController(MessageService messageService,
+                               PresenceService presenceService,
+                               @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel) {
+        this.messageService = messageService;
+        this.presenceService = presenceService;
+        this.clientOutboundChannel = clientOutboundChannel;
+    }
+
+    @MessageMapping("/conversations.{id}.send")
+    public void sendMessage(@DestinationVariable Long id,
+                            @Valid @Payload SendMessageRequest request,
+                            Principal principal,
+                            StompHeaderAccessor accessor) {
+        MessageResponse message = messageService.sendMessage(id, toUser(principal), request.getBody());
+        sendReceipt(accessor, message.getId());
+    }
+
+    @MessageMapping("/conversations.{id}.read")
+    public void markAsRead(@DestinationVariable Long id,
+                           @Valid @Payload MarkAsReadRequest request,
+                           Principal principal,
+                           StompHeaderAccessor accessor) {
+        messageService.markMessagesAsRead(id, toUser(principal).getId(), request.getLastMessageId());
+        sendReceipt(accessor, null);
+    }
+
+    @MessageMapping("/conversations.{id}.typing")
+    public void typing(@DestinationVariable Long id,
+                       @Valid @Payload TypingRequest request,
+                       StompHeaderAccessor accessor) {
+        presenceService.setTyping(accessor.getSessionId(), id, request.getTyping());
+        sendReceipt(accessor, null);
+    }
+
+    @MessageMapping("/presence")
+    public void updatePresence(@Valid @Payload PresenceRequest request,
+                               StompHeaderAccessor accessor) {
+        presenceService.setAway(accessor.getSessionId(), PresenceDirectory.AWAY.equals(request.getStatus()));
+        sendReceipt(accessor, null);
+    }
+
+    @MessageExceptionHandler({IllegalArgumentException.class, MethodArgumentNotValidException.class})
+    @SendToUser(destinations = "/topic/errors", broadcast = false)
+    public Map<String, Object> handleError(Exception e, StompHeaderAccessor accessor) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("receipt", accessor.getReceipt());
+        error.put("destination", accessor.getDestination());
+        error.put("error", e instanceof MethodArgumentNotValidException ? "Invalid request" : e.getMessage());
+        return error;
+    }
+
+    private void sendReceipt(StompHeaderAccessor request, Long messageId) {
+        String receipt = request.getReceipt();
+        if (receipt == null) {
+            return;
+        }
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        accessor.setSessionId(request.getSessionId());
+        accessor.setReceiptId(receipt);
+        if (messageId != null) {
+            accessor.setNativeHeader("message-id", messageId.toString());
+        }
+        clientOutboundChannel.send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private static User toUser(Principal principal) {
+        if (principal instanceof Authentication authentication && authentication.getPrincipal() instanceof User user) {
+            return user;
+        }
+        throw new IllegalArgumentException("Not authenticated");
+    }
+}
@@ -0,0 +1,72 @@
+package com.teachandserve.backend.controller;
+
+import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.security.JwtUtil;
+import com.teachandserve.backend.service.NotificationStreamService;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+
+/**
+ * REST controller for Server-Sent Events notification streams.
+ *
+ * Endpoints:
+ * - GET /api/notifications/stream: The user's /topic/users.{userId}.* notifications as SSE
+ * - POST /api/notifications/stream-token: Short-lived token for opening a stream with
+ *   ?token= instead of an Authorization header (EventSource can't send headers)
+ */
+@RestController
+@RequestMapping("/api/notifications")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3001"})
+public class NotificationStreamController {
+
+    private final NotificationStreamService notificationStreamService;
+    private final JwtUtil jwtUtil;
+
+    public NotificationStreamController(NotificationStreamService notificationStreamService, JwtUtil jwtUtil) {
+        this.notificationStreamService = notificationStreamService;
+        this.jwtUtil = jwtUtil;
+    }
+
+    /**
+     * Stream the authenticated user's notifications. Events are named after the topic
+     * (conversations, read-receipts) and carry its JSON payload; every stream starts
+     * with a ready event, or reset if the missed events could not be replayed.
+     *
+     * @param lastEventId Last event id received, sent by EventSource when reconnecting
+     * @param resumeFrom  The same as a query parameter, for clients that can't set headers
+     * @param user        Authenticated user (Authorization header, or a stream token in ?token=)
+     * @param response    Response, to disable caching and proxy buffering
+     * @return The event stream
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(value = "lastEventId", required = false) String resumeFrom,
+            @AuthenticationPrincipal User user,
+            HttpServletResponse response) {
+        response.setHeader("Cache-Control", "no-store");
+        response.setHeader("X-Accel-Buffering", "no");
+        return notificationStreamService.open(user.getId(), lastEventId != null ? lastEventId : resumeFrom);
+    }
+
+    /**
+     * Issue a token that authenticates GET /api/notifications/stream?token= for
+     * jwt.stream-token.expiration ms. It is only checked when a stream opens, so the
+     * client fetches a new one for every (re)connect; it isn't accepted anywhere else.
+     *
+     * @param user Authenticated user
+     * @return The token and its lifetime in seconds
+     */
+    @PostMapping("/stream-token")
+    public ResponseEntity<Map<String, Object>> streamToken(@AuthenticationPrincipal User user) {
+        return ResponseEntity.ok(Map.of(
+                "token", jwtUtil.generateStreamToken(user),
+                "expiresIn", jwtUtil.getStreamTokenExpiration() / 1000));
+    }
+}
@@ -0,0 +1,60 @@
+package com.teachandserve.backend.controller;
+
+import com.teachandserve.backend.dto.SyncCursor;
+import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.service.SyncService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * REST controller for reconnect delta sync.
+ *
+ * Endpoints:
+ * - GET /api/sync: Messages, read-state changes and new conversations since a cursor
+ */
+@RestController
+@RequestMapping("/api/sync")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3001"})
+public class SyncController {
+
+    private final SyncService syncService;
+
+    public SyncController(SyncService syncService) {
+        this.syncService = syncService;
+    }
+
+    /**
+     * Get everything that changed for the authenticated user since a cursor, so a
+     * reconnecting client catches up in one request.
+     * Without {@code since}, returns no changes and a cursor to sync from later; clients
+     * fetch it before loading their initial state. While {@code hasMore} is true, call
+     * again with the returned cursor for the next page of messages.
+     *
+     * @param since Optional opaque cursor from a previous sync
+     * @param limit Maximum number of messages to return (default 200, capped at messaging.sync.max-messages)
+     * @param user  Authenticated user
+     * @return Messages, read states, new conversations, the next cursor and hasMore
+     */
+    @GetMapping
+    public ResponseEntity<?> sync(
+            @RequestParam(required = false) String since,
+            @RequestParam(defaultValue = "200") int limit,
+            @AuthenticationPrincipal User user) {
+        SyncCursor cursor = null;
+        if (since != null) {
+            try {
+                cursor = SyncCursor.decode(since);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            }
+        }
+
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(syncService.sync(user.getId(), cursor, limit));
+    }
+}
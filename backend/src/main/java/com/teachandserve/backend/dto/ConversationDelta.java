@@ -0,0 +1,146 @@
+package com.teachandserve.backend.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDateTime;
+
+/**
+ * Incremental inbox update pushed to /topic/users.{userId}.conversations.
+ *
+ * Each delta carries what the inbox needs to patch itself without a refetch, and a
+ * per-user sequence number. A client that sees anything but its last sequence + 1
+ * (or no sequence, if the counter was unavailable) missed an update and should
+ * reload the list; GET /api/conversations returns the current sequence in the
+ * X-Inbox-Seq header.
+ */
+public abstract class ConversationDelta {
+
+    private Long seq;
+    private Long conversationId;
+
+    protected ConversationDelta(Long conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public abstract String getType();
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    /**
+     * A message was sent in one of the user's conversations.
+     * {@code unreadCount} is the recipient's new unread count for the conversation;
+     * it is omitted for the sender, and for recipients whose count isn't known, in which
+     * case the client adds one to its own count.
+     */
+    public static class MessageAdded extends ConversationDelta {
+
+        private final Long messageId;
+        private final Long senderId;
+        private final String senderName;
+        private final String preview;
+        private final LocalDateTime createdAt;
+        private final Long unreadCount;
+
+        public MessageAdded(Long conversationId, Long messageId, Long senderId, String senderName,
+                            String preview, LocalDateTime createdAt, Long unreadCount) {
+            super(conversationId);
+            this.messageId = messageId;
+            this.senderId = senderId;
+            this.senderName = senderName;
+            this.preview = preview;
+            this.createdAt = createdAt;
+            this.unreadCount = unreadCount;
+        }
+
+        @Override
+        public String getType() {
+            return "messageAdded";
+        }
+
+        public Long getMessageId() {
+            return messageId;
+        }
+
+        public Long getSenderId() {
+            return senderId;
+        }
+
+        public String getSenderName() {
+            return senderName;
+        }
+
+        public String getPreview() {
+            return preview;
+        }
+
+        public LocalDateTime getCreatedAt() {
+            return createdAt;
+        }
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Long getUnreadCount() {
+            return unreadCount;
+        }
+    }
+
+    /**
+     * The user's read watermark in a conversation moved forward (possibly from another tab or device).
+     */
+    public static class ReadStateChanged extends ConversationDelta {
+
+        private final Long lastReadMessageId;
+        private final long unreadCount;
+
+        public ReadStateChanged(Long conversationId, Long lastReadMessageId, long unreadCount) {
+            super(conversationId);
+            this.lastReadMessageId = lastReadMessageId;
+            this.unreadCount = unreadCount;
+        }
+
+        @Override
+        public String getType() {
+            return "readStateChanged";
+        }
+
+        public Long getLastReadMessageId() {
+            return lastReadMessageId;
+        }
+
+        public long getUnreadCount() {
+            return unreadCount;
+        }
+    }
+
+    /**
+     * A new conversation including the user was created.
+     */
+    public static class ConversationCreated extends ConversationDelta {
+
+        private final ConversationResponse conversation;
+
+        public ConversationCreated(ConversationResponse conversation) {
+            super(conversation.getId());
+            this.conversation = conversation;
+        }
+
+        @Override
+        public String getType() {
+            return "conversationCreated";
+        }
+
+        public ConversationResponse getConversation() {
+            return conversation;
+        }
+    }
+}
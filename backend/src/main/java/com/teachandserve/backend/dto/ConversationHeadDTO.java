@@ -0,0 +1,9 @@
+package com.teachandserve.backend.dto;
+
+/**
+ * Projection of the newest message id in one conversation, from the conversation summary.
+ */
+public interface ConversationHeadDTO {
+    Long getConversationId();
+    Long getLastMessageId();
+}
@@ -11,12 +11,16 @@ public interface ConversationListDTO {
     String getParticipantEmail();
     String getParticipantFirstName();
     Long getLastMessageId();
-    String getLastMessageBody();
+    Long getLastMessageSenderId();
+    byte[] getLastMessagePreview(); // encrypted, see EncryptionService#decryptPreview
     LocalDateTime getLastMessageCreatedAt();
     String getLastMessageSenderEmail();
     long getUnreadCount();
 
-    default ConversationResponse toResponse() {
+    /**
+     * @param lastMessagePreview Decrypted preview of the last message
+     */
+    default ConversationResponse toResponse(String lastMessagePreview) {
         ParticipantDto participant = new ParticipantDto(
             getParticipantUserId(),
             getParticipantFirstName() != null ? getParticipantFirstName() : getParticipantEmail(),
@@ -29,9 +33,9 @@ public interface ConversationListDTO {
             lastMessage = new MessageResponse(
                 getLastMessageId(),
                 getConversationId(),
-                null, // senderId not strictly needed for preview
+                getLastMessageSenderId(),
                 getLastMessageSenderEmail(),
-                getLastMessageBody(),
+                lastMessagePreview,
                 getLastMessageCreatedAt(),
                 null,
                 null,
@@ -49,4 +53,3 @@ public interface ConversationListDTO {
         );
     }
 }
-
@@ -0,0 +1,28 @@
+package com.teachandserve.backend.dto;
+
+import java.util.List;
+
+/**
+ * A user's conversation list together with its strong ETag (a hash of the serialized list).
+ */
+public class ConversationListSnapshot {
+
+    private final List<ConversationResponse> conversations;
+    private final String etag;
+
+    public ConversationListSnapshot(List<ConversationResponse> conversations, String etag) {
+        this.conversations = conversations;
+        this.etag = etag;
+    }
+
+    public List<ConversationResponse> getConversations() {
+        return conversations;
+    }
+
+    /**
+     * @return Quoted entity tag, ready for the ETag header
+     */
+    public String getEtag() {
+        return etag;
+    }
+}
@@ -0,0 +1,38 @@
+package com.teachandserve.backend.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque cursor for paging back through a conversation's message history.
+ * Wraps the id of the oldest message on the previous page; clients should
+ * pass it back unchanged rather than relying on its contents.
+ */
+public final class MessageCursor {
+
+    private static final String PREFIX = "m:";
+
+    private MessageCursor() {}
+
+    public static String encode(Long messageId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + messageId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the message id the cursor points before
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static Long decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!decoded.startsWith(PREFIX)) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return Long.parseLong(decoded.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            // Also covers Base64 and NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
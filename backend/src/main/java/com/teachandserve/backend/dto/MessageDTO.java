@@ -8,7 +8,8 @@ public interface MessageDTO {
     Long getSenderId();
     String getSenderEmail();
     String getSenderFirstName();
-    String getBody();
+    byte[] getBody();
+    boolean isLegacyBody();
     LocalDateTime getCreatedAt();
     LocalDateTime getEditedAt();
     LocalDateTime getDeletedAt();
@@ -0,0 +1,45 @@
+package com.teachandserve.backend.dto;
+
+import java.util.List;
+
+/**
+ * One page of message history, newest first, with the cursor for the next (older) page.
+ */
+public class MessagePage {
+
+    private List<MessageResponse> messages;
+    private String nextCursor;
+    private boolean hasMore;
+
+    public MessagePage() {}
+
+    public MessagePage(List<MessageResponse> messages, String nextCursor, boolean hasMore) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<MessageResponse> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<MessageResponse> messages) {
+        this.messages = messages;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+}
@@ -0,0 +1,25 @@
+package com.teachandserve.backend.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+
+public class PresenceRequest {
+
+    @NotNull(message = "Status is required")
+    @Pattern(regexp = "online|away", message = "Status must be online or away")
+    private String status;
+
+    public PresenceRequest() {}
+
+    public PresenceRequest(String status) {
+        this.status = status;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,55 @@
+package com.teachandserve.backend.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Presence or typing change of a participant, published on
+ * /topic/conversations.{conversationId}.presence:
+ * - {@code presence}: {@code status} is online, away or offline
+ * - {@code typing}: {@code typing} is whether the user is typing in the conversation
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PresenceUpdate {
+
+    private final String type;
+    private final Long conversationId;
+    private final Long userId;
+    private final String status;
+    private final Boolean typing;
+
+    private PresenceUpdate(String type, Long conversationId, Long userId, String status, Boolean typing) {
+        this.type = type;
+        this.conversationId = conversationId;
+        this.userId = userId;
+        this.status = status;
+        this.typing = typing;
+    }
+
+    public static PresenceUpdate presence(Long conversationId, Long userId, String status) {
+        return new PresenceUpdate("presence", conversationId, userId, status, null);
+    }
+
+    public static PresenceUpdate typing(Long conversationId, Long userId, boolean typing) {
+        return new PresenceUpdate("typing", conversationId, userId, null, typing);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Boolean getTyping() {
+        return typing;
+    }
+}
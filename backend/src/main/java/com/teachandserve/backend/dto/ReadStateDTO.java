@@ -0,0 +1,10 @@
+package com.teachandserve.backend.dto;
+
+/**
+ * Projection of a participant's read watermark in one conversation.
+ */
+public interface ReadStateDTO {
+    Long getConversationId();
+    Long getUserId();
+    Long getLastReadMessageId();
+}
@@ -0,0 +1,125 @@
+package com.teachandserve.backend.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Opaque cursor for reconnect delta sync (GET /api/sync).
+ *
+ * Holds, for every conversation of the user, the id of the newest message already
+ * returned (a watermark), plus the time the sync started for read states. Either a
+ * resume point, when everything up to the watermarks was returned, or a continuation
+ * while a sync is paged. Clients should pass it back unchanged rather than relying on
+ * its contents.
+ */
+public final class SyncCursor {
+
+    private static final String RESUME = "s";
+    private static final String CONTINUATION = "c";
+
+    // Ids are written in base 36 to keep cursors of users in many conversations short
+    private static final int RADIX = Character.MAX_RADIX;
+
+    private final boolean continuation;
+    private final LocalDateTime startedAt;
+    private final SortedMap<Long, Long> watermarks;
+
+    private SyncCursor(boolean continuation, LocalDateTime startedAt, Map<Long, Long> watermarks) {
+        this.continuation = continuation;
+        this.startedAt = startedAt;
+        this.watermarks = Collections.unmodifiableSortedMap(new TreeMap<>(watermarks));
+    }
+
+    public static SyncCursor resume(LocalDateTime startedAt, Map<Long, Long> watermarks) {
+        return new SyncCursor(false, startedAt, watermarks);
+    }
+
+    public static SyncCursor continuation(LocalDateTime startedAt, Map<Long, Long> watermarks) {
+        return new SyncCursor(true, startedAt, watermarks);
+    }
+
+    public boolean isContinuation() {
+        return continuation;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return Newest message id returned per conversation id; conversations the user
+     *         joined after the cursor was taken are absent
+     */
+    public SortedMap<Long, Long> getWatermarks() {
+        return watermarks;
+    }
+
+    public String encode() {
+        StringBuilder value = new StringBuilder()
+                .append(continuation ? CONTINUATION : RESUME)
+                .append(':').append(toMicros(startedAt))
+                .append(':');
+        watermarks.forEach((conversationId, messageId) -> {
+            if (value.charAt(value.length() - 1) != ':') {
+                value.append(',');
+            }
+            value.append(Long.toString(conversationId, RADIX)).append('.').append(Long.toString(messageId, RADIX));
+        });
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static SyncCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", -1);
+            if (parts.length != 3 || !(parts[0].equals(RESUME) || parts[0].equals(CONTINUATION))) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+
+            Map<Long, Long> watermarks = new TreeMap<>();
+            if (!parts[2].isEmpty()) {
+                for (String entry : parts[2].split(",", -1)) {
+                    String[] ids = entry.split("\\.", -1);
+                    if (ids.length != 2) {
+                        throw new IllegalArgumentException("Invalid cursor");
+                    }
+                    long conversationId = parseId(ids[0]);
+                    if (watermarks.put(conversationId, parseId(ids[1])) != null) {
+                        throw new IllegalArgumentException("Invalid cursor");
+                    }
+                }
+            }
+            return new SyncCursor(parts[0].equals(CONTINUATION), fromMicros(Long.parseLong(parts[1])), watermarks);
+        } catch (IllegalArgumentException e) {
+            // Also covers Base64 and NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    private static long parseId(String value) {
+        long id = Long.parseLong(value, RADIX);
+        if (id < 0) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return id;
+    }
+
+    // Microseconds, the precision of stored timestamps, so times round-trip exactly
+    private static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+
+    private static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+}
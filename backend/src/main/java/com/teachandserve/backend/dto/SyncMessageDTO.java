@@ -0,0 +1,8 @@
+package com.teachandserve.backend.dto;
+
+/**
+ * Projection of a message for delta sync, which spans conversations.
+ */
+public interface SyncMessageDTO extends MessageDTO {
+    Long getConversationId();
+}
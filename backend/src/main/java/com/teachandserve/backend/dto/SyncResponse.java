@@ -0,0 +1,70 @@
+package com.teachandserve.backend.dto;
+
+import java.util.List;
+
+/**
+ * Everything that changed for a user since a sync cursor: new messages (grouped by
+ * conversation, oldest first within each), read watermarks that moved and conversations
+ * the user joined.
+ * While {@code hasMore} is true, pass {@code cursor} back to fetch the next page of
+ * messages; the last page's cursor is the one to keep for the next sync.
+ */
+public class SyncResponse {
+
+    private List<MessageResponse> messages;
+    private List<ReadStateDTO> readStates;
+    private List<ConversationResponse> conversations;
+    private String cursor;
+    private boolean hasMore;
+
+    public SyncResponse() {}
+
+    public SyncResponse(List<MessageResponse> messages, List<ReadStateDTO> readStates,
+                        List<ConversationResponse> conversations, String cursor, boolean hasMore) {
+        this.messages = messages;
+        this.readStates = readStates;
+        this.conversations = conversations;
+        this.cursor = cursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<MessageResponse> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<MessageResponse> messages) {
+        this.messages = messages;
+    }
+
+    public List<ReadStateDTO> getReadStates() {
+        return readStates;
+    }
+
+    public void setReadStates(List<ReadStateDTO> readStates) {
+        this.readStates = readStates;
+    }
+
+    public List<ConversationResponse> getConversations() {
+        return conversations;
+    }
+
+    public void setConversations(List<ConversationResponse> conversations) {
+        this.conversations = conversations;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+}
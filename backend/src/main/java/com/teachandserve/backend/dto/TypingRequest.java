@@ -0,0 +1,23 @@
+package com.teachandserve.backend.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+public class TypingRequest {
+
+    @NotNull(message = "Typing flag is required")
+    private Boolean typing;
+
+    public TypingRequest() {}
+
+    public TypingRequest(Boolean typing) {
+        this.typing = typing;
+    }
+
+    public Boolean getTyping() {
+        return typing;
+    }
+
+    public void setTyping(Boolean typing) {
+        this.typing = typing;
+    }
+}
@@ -0,0 +1,9 @@
+package com.teachandserve.backend.dto;
+
+/**
+ * Projection of a user's unread message count in one conversation.
+ */
+public interface UnreadCountDTO {
+    Long getConversationId();
+    long getUnreadCount();
+}
@@ -0,0 +1,36 @@
+package com.teachandserve.backend.events;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+/**
+ * Published when a new conversation and its participants are created.
+ */
+public class ConversationCreatedEvent extends ApplicationEvent {
+
+    private final Long conversationId;
+    private final Set<Long> participantIds;
+    private final LocalDateTime createdAt;
+
+    public ConversationCreatedEvent(Object source, Long conversationId, Set<Long> participantIds,
+                                    LocalDateTime createdAt) {
+        super(source);
+        this.conversationId = conversationId;
+        this.participantIds = participantIds;
+        this.createdAt = createdAt;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public Set<Long> getParticipantIds() {
+        return participantIds;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,51 @@
+package com.teachandserve.backend.events;
+
+import com.teachandserve.backend.dto.MessageResponse;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Set;
+
+/**
+ * Published when a message is sent. Listeners that touch shared state should run
+ * after commit, so they never act on a message that is rolled back.
+ */
+public class MessageSentEvent extends ApplicationEvent {
+
+    private final Long conversationId;
+    private final Long messageId;
+    private final Long senderId;
+    private final Set<Long> participantIds;
+    private final MessageResponse message;
+
+    public MessageSentEvent(Object source, MessageResponse message, Set<Long> participantIds) {
+        super(source);
+        this.conversationId = message.getConversationId();
+        this.messageId = message.getId();
+        this.senderId = message.getSenderId();
+        this.participantIds = participantIds;
+        this.message = message;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public Long getMessageId() {
+        return messageId;
+    }
+
+    public Long getSenderId() {
+        return senderId;
+    }
+
+    public Set<Long> getParticipantIds() {
+        return participantIds;
+    }
+
+    /**
+     * @return The sent message with its sanitized plaintext body
+     */
+    public MessageResponse getMessage() {
+        return message;
+    }
+}
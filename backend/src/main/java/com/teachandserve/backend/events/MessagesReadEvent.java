@@ -0,0 +1,51 @@
+package com.teachandserve.backend.events;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when a participant's read watermark moves forward.
+ */
+public class MessagesReadEvent extends ApplicationEvent {
+
+    private final Long conversationId;
+    private final Long userId;
+    private final Long previousReadMessageId;
+    private final Long lastReadMessageId;
+    private final long unreadCount;
+
+    public MessagesReadEvent(Object source, Long conversationId, Long userId, Long previousReadMessageId,
+                             Long lastReadMessageId, long unreadCount) {
+        super(source);
+        this.conversationId = conversationId;
+        this.userId = userId;
+        this.previousReadMessageId = previousReadMessageId;
+        this.lastReadMessageId = lastReadMessageId;
+        this.unreadCount = unreadCount;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return Watermark before this read; messages above it and up to the new watermark became read
+     */
+    public Long getPreviousReadMessageId() {
+        return previousReadMessageId;
+    }
+
+    public Long getLastReadMessageId() {
+        return lastReadMessageId;
+    }
+
+    /**
+     * @return Messages in the conversation still unread by the user
+     */
+    public long getUnreadCount() {
+        return unreadCount;
+    }
+}
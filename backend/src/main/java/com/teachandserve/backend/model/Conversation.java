@@ -10,7 +10,8 @@ import java.util.List;
 public class Conversation {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "conversations_id_seq")
+    @SequenceGenerator(name = "conversations_id_seq", sequenceName = "conversations_id_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "created_at", nullable = false)
@@ -19,6 +20,22 @@ public class Conversation {
     @Column(name = "updated_at", nullable = false)
     private LocalDateTime updatedAt;
 
+    // Summary of the latest message, maintained on send so the inbox never scans messages
+    @Column(name = "last_message_id")
+    private Long lastMessageId;
+
+    @Column(name = "last_message_sender_id")
+    private Long lastMessageSenderId;
+
+    @Column(name = "last_message_at")
+    private LocalDateTime lastMessageAt;
+
+    /**
+     * Encrypted preview of the latest message (see EncryptionService#encryptPreview).
+     */
+    @Column(name = "last_message_preview", columnDefinition = "bytea")
+    private byte[] lastMessagePreview;
+
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private List<ConversationParticipant> participants = new ArrayList<>();
 
@@ -64,6 +81,38 @@ public class Conversation {
         this.updatedAt = updatedAt;
     }
 
+    public Long getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public void setLastMessageId(Long lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+
+    public Long getLastMessageSenderId() {
+        return lastMessageSenderId;
+    }
+
+    public void setLastMessageSenderId(Long lastMessageSenderId) {
+        this.lastMessageSenderId = lastMessageSenderId;
+    }
+
+    public LocalDateTime getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    public void setLastMessageAt(LocalDateTime lastMessageAt) {
+        this.lastMessageAt = lastMessageAt;
+    }
+
+    public byte[] getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+
+    public void setLastMessagePreview(byte[] lastMessagePreview) {
+        this.lastMessagePreview = lastMessagePreview;
+    }
+
     public List<ConversationParticipant> getParticipants() {
         return participants;
     }
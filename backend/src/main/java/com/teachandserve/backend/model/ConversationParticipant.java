@@ -9,7 +9,8 @@ import java.time.LocalDateTime;
 public class ConversationParticipant {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "conversation_participants_id_seq")
+    @SequenceGenerator(name = "conversation_participants_id_seq", sequenceName = "conversation_participants_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -23,6 +24,20 @@ public class ConversationParticipant {
     @Column(name = "joined_at", nullable = false)
     private LocalDateTime joinedAt;
 
+    /**
+     * Read watermark: every message in the conversation with an id up to and including
+     * this one counts as read by this participant (0 = nothing read yet).
+     */
+    @Column(name = "last_read_message_id", nullable = false)
+    private Long lastReadMessageId = 0L;
+
+    /**
+     * When the read watermark last moved (null = never); delta sync returns watermarks
+     * that moved after the client's cursor.
+     */
+    @Column(name = "last_read_at")
+    private LocalDateTime lastReadAt;
+
     @PrePersist
     protected void onCreate() {
         joinedAt = LocalDateTime.now();
@@ -68,4 +83,25 @@ public class ConversationParticipant {
     public void setJoinedAt(LocalDateTime joinedAt) {
         this.joinedAt = joinedAt;
     }
+
+    public Long getLastReadMessageId() {
+        return lastReadMessageId;
+    }
+
+    public void setLastReadMessageId(Long lastReadMessageId) {
+        this.lastReadMessageId = lastReadMessageId;
+    }
+
+    public LocalDateTime getLastReadAt() {
+        return lastReadAt;
+    }
+
+    public void setLastReadAt(LocalDateTime lastReadAt) {
+        this.lastReadAt = lastReadAt;
+    }
+
+    // Helper methods
+    public boolean hasRead(Long messageId) {
+        return lastReadMessageId != null && messageId != null && messageId <= lastReadMessageId;
+    }
 }
@@ -0,0 +1,133 @@
+package com.teachandserve.backend.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Progress of re-encrypting stored messages under one master key id.
+ * One row per target key id; the lease columns ensure only one instance
+ * runs the rotation at a time.
+ */
+@Entity
+@Table(name = "encryption_key_rotations")
+public class KeyRotationCheckpoint {
+
+    @Id
+    @Column(name = "key_id")
+    private Integer keyId;
+
+    @Column(name = "last_conversation_id", nullable = false)
+    private Long lastConversationId = 0L;
+
+    @Column(name = "last_message_id", nullable = false)
+    private Long lastMessageId = 0L;
+
+    @Column(name = "rows_re_encrypted", nullable = false)
+    private Long rowsReEncrypted = 0L;
+
+    @Column(name = "lease_owner")
+    private String leaseOwner;
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    @Column(name = "started_at", nullable = false)
+    private LocalDateTime startedAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        startedAt = LocalDateTime.now();
+        updatedAt = startedAt;
+    }
+
+    // Constructors
+    public KeyRotationCheckpoint() {}
+
+    public KeyRotationCheckpoint(Integer keyId) {
+        this.keyId = keyId;
+    }
+
+    // Getters and Setters
+    public Integer getKeyId() {
+        return keyId;
+    }
+
+    public void setKeyId(Integer keyId) {
+        this.keyId = keyId;
+    }
+
+    public Long getLastConversationId() {
+        return lastConversationId;
+    }
+
+    public void setLastConversationId(Long lastConversationId) {
+        this.lastConversationId = lastConversationId;
+    }
+
+    public Long getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public void setLastMessageId(Long lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+
+    public Long getRowsReEncrypted() {
+        return rowsReEncrypted;
+    }
+
+    public void setRowsReEncrypted(Long rowsReEncrypted) {
+        this.rowsReEncrypted = rowsReEncrypted;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public LocalDateTime getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    public void setLeaseExpiresAt(LocalDateTime leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(LocalDateTime startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    // Helper methods
+    public boolean isCompleted() {
+        return completedAt != null;
+    }
+}
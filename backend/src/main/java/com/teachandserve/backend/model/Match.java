@@ -8,7 +8,8 @@ import java.time.LocalDateTime;
 public class Match {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "matches_id_seq")
+    @SequenceGenerator(name = "matches_id_seq", sequenceName = "matches_id_seq", allocationSize = 50)
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
@@ -1,16 +1,15 @@
 package com.teachandserve.backend.model;
 
 import jakarta.persistence.*;
-import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
 
 @Entity
 @Table(name = "messages", indexes = {
     @Index(name = "idx_messages_conversation_created", columnList = "conversation_id DESC, created_at DESC"),
     @Index(name = "idx_messages_conversation_sender", columnList = "conversation_id, sender_id"),
+    @Index(name = "idx_messages_conversation_id_id", columnList = "conversation_id, id"),
     @Index(name = "idx_messages_created_at", columnList = "created_at DESC")
 })
 public class Message {
@@ -27,10 +26,21 @@ public class Message {
     @JoinColumn(name = "sender_id", nullable = false)
     private User sender;
 
-    @Column(name = "body", nullable = false, columnDefinition = "TEXT")
-    @NotBlank(message = "Message body cannot be empty")
-    @Size(max = 5000, message = "Message body cannot exceed 5000 characters")
-    private String body;
+    /**
+     * Encrypted message body (see EncryptionService for the envelope format).
+     * 5000 UTF-16 chars encode to at most 15000 UTF-8 bytes plus envelope overhead.
+     */
+    @Column(name = "body", nullable = false, columnDefinition = "bytea")
+    @NotNull(message = "Message body cannot be empty")
+    @Size(max = 16384, message = "Encrypted message body cannot exceed 16384 bytes")
+    private byte[] body;
+
+    /**
+     * Whether the body may be a legacy AES/ECB ciphertext (set by V009 for rows written
+     * before the envelope format, cleared when they are re-encrypted).
+     */
+    @Column(name = "legacy_body", nullable = false)
+    private boolean legacyBody;
 
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
@@ -41,9 +51,6 @@ public class Message {
     @Column(name = "deleted_at")
     private LocalDateTime deletedAt;
 
-    @OneToMany(mappedBy = "message", cascade = CascadeType.ALL, orphanRemoval = true)
-    private List<MessageReadReceipt> readReceipts = new ArrayList<>();
-
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -52,7 +59,7 @@ public class Message {
     // Constructors
     public Message() {}
 
-    public Message(Conversation conversation, User sender, String body) {
+    public Message(Conversation conversation, User sender, byte[] body) {
         this.conversation = conversation;
         this.sender = sender;
         this.body = body;
@@ -83,14 +90,22 @@ public class Message {
         this.sender = sender;
     }
 
-    public String getBody() {
+    public byte[] getBody() {
         return body;
     }
 
-    public void setBody(String body) {
+    public void setBody(byte[] body) {
         this.body = body;
     }
 
+    public boolean isLegacyBody() {
+        return legacyBody;
+    }
+
+    public void setLegacyBody(boolean legacyBody) {
+        this.legacyBody = legacyBody;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -115,14 +130,6 @@ public class Message {
         this.deletedAt = deletedAt;
     }
 
-    public List<MessageReadReceipt> getReadReceipts() {
-        return readReceipts;
-    }
-
-    public void setReadReceipts(List<MessageReadReceipt> readReceipts) {
-        this.readReceipts = readReceipts;
-    }
-
     // Helper methods
     public boolean isDeleted() {
         return deletedAt != null;
@@ -132,8 +139,9 @@ public class Message {
         this.deletedAt = LocalDateTime.now();
     }
 
-    public void edit(String newBody) {
+    public void edit(byte[] newBody) {
         this.body = newBody;
+        this.legacyBody = false;
         this.editedAt = LocalDateTime.now();
     }
 }
@@ -1,71 +0,0 @@
-package com.teachandserve.backend.model;
-
-import jakarta.persistence.*;
-import java.time.LocalDateTime;
-
-@Entity
-@Table(name = "message_read_receipts",
-       uniqueConstraints = @UniqueConstraint(columnNames = {"message_id", "user_id"}))
-public class MessageReadReceipt {
-
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id;
-
-    @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "message_id", nullable = false)
-    private Message message;
-
-    @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "user_id", nullable = false)
-    private User user;
-
-    @Column(name = "read_at", nullable = false)
-    private LocalDateTime readAt;
-
-    @PrePersist
-    protected void onCreate() {
-        readAt = LocalDateTime.now();
-    }
-
-    // Constructors
-    public MessageReadReceipt() {}
-
-    public MessageReadReceipt(Message message, User user) {
-        this.message = message;
-        this.user = user;
-    }
-
-    // Getters and Setters
-    public Long getId() {
-        return id;
-    }
-
-    public void setId(Long id) {
-        this.id = id;
-    }
-
-    public Message getMessage() {
-        return message;
-    }
-
-    public void setMessage(Message message) {
-        this.message = message;
-    }
-
-    public User getUser() {
-        return user;
-    }
-
-    public void setUser(User user) {
-        this.user = user;
-    }
-
-    public LocalDateTime getReadAt() {
-        return readAt;
-    }
-
-    public void setReadAt(LocalDateTime readAt) {
-        this.readAt = readAt;
-    }
-}
@@ -0,0 +1,75 @@
+package com.teachandserve.backend.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A WebSocket publication written in the same transaction as the change it announces.
+ * Rows are locked, sent and deleted in one transaction by {@code MessagingPublisher}'s relay.
+ */
+@Entity
+@Table(name = "messaging_outbox")
+public class OutboxMessage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "destination", nullable = false)
+    private String destination;
+
+    /**
+     * Payload serialized as JSON.
+     */
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+
+    // Constructors
+    public OutboxMessage() {}
+
+    public OutboxMessage(String destination, String payload) {
+        this.destination = destination;
+        this.payload = payload;
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -1,9 +1,81 @@
 package com.teachandserve.backend.repository;
 
+import com.teachandserve.backend.dto.ReadStateDTO;
+import com.teachandserve.backend.dto.UnreadCountDTO;
 import com.teachandserve.backend.model.ConversationParticipant;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ConversationParticipantRepository extends JpaRepository<ConversationParticipant, Long> {
+
+    /**
+     * Get a participant's read watermark.
+     */
+    @Query("SELECT p.lastReadMessageId FROM ConversationParticipant p " +
+           "WHERE p.conversation.id = :conversationId " +
+           "AND p.user.id = :userId")
+    Optional<Long> findLastReadMessageId(@Param("conversationId") Long conversationId,
+                                         @Param("userId") Long userId);
+
+    /**
+     * Move a participant's read watermark forward to a message of the conversation.
+     * The watermark never moves backwards, and ids that are not messages of this
+     * conversation are ignored. Records when it moved, for delta sync.
+     *
+     * @return 1 if the watermark advanced, 0 otherwise
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE ConversationParticipant p " +
+           "SET p.lastReadMessageId = :messageId, p.lastReadAt = :readAt " +
+           "WHERE p.conversation.id = :conversationId " +
+           "AND p.user.id = :userId " +
+           "AND p.lastReadMessageId < :messageId " +
+           "AND EXISTS (SELECT 1 FROM Message m " +
+           "            WHERE m.id = :messageId AND m.conversation.id = :conversationId)")
+    int advanceReadWatermark(@Param("conversationId") Long conversationId,
+                             @Param("userId") Long userId,
+                             @Param("messageId") Long messageId,
+                             @Param("readAt") LocalDateTime readAt);
+
+    /**
+     * Read watermarks that moved after a point in time, in any conversation of a user:
+     * the user's own (e.g. read on another device) and the other participants'.
+     */
+    @Query("SELECT p.conversation.id as conversationId, " +
+           "p.user.id as userId, " +
+           "p.lastReadMessageId as lastReadMessageId " +
+           "FROM ConversationParticipant p " +
+           "WHERE p.lastReadAt > :since " +
+           "AND p.conversation.id IN (SELECT own.conversation.id FROM ConversationParticipant own " +
+           "                          WHERE own.user.id = :userId)")
+    List<ReadStateDTO> findReadStatesChangedSince(@Param("userId") Long userId,
+                                                  @Param("since") LocalDateTime since);
+
+    /**
+     * Unread message counts for every conversation of a user, computed from the read watermarks.
+     * Used to rebuild the Redis unread counters.
+     */
+    @Query(nativeQuery = true, value = """
+        SELECT
+            cp.conversation_id as conversationId,
+            (SELECT COUNT(*)
+             FROM messages m
+             WHERE m.conversation_id = cp.conversation_id
+             AND m.id > cp.last_read_message_id
+             AND m.sender_id <> :userId
+            ) as unreadCount
+        FROM conversation_participants cp
+        WHERE cp.user_id = :userId
+    """)
+    List<UnreadCountDTO> findUnreadCountsByUserId(@Param("userId") Long userId);
 }
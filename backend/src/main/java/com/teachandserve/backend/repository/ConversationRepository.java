@@ -1,12 +1,17 @@
 package com.teachandserve.backend.repository;
 
+import com.teachandserve.backend.dto.ConversationHeadDTO;
 import com.teachandserve.backend.dto.ConversationListDTO;
 import com.teachandserve.backend.model.Conversation;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,7 +20,10 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
 
     /**
      * OPTIMIZED: Dramatically reduced queries using native SQL with projection.
-     * Single query fetches conversations with last message and unread count.
+     * Single query fetches conversations with last message summary and unread count.
+     * Walks the user's conversation_participants rows and joins one summary row per
+     * conversation; messages is only touched by the unread range count above the
+     * caller's read watermark.
      * Replaces 31+ queries (N+1 problem) with 1 efficient database call.
      */
     @Query(nativeQuery = true, value = """
@@ -26,27 +34,23 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
             u.id as participantUserId,
             u.email as participantEmail,
             u.first_name as participantFirstName,
-            m.id as lastMessageId,
-            m.body as lastMessageBody,
-            m.created_at as lastMessageCreatedAt,
+            c.last_message_id as lastMessageId,
+            c.last_message_sender_id as lastMessageSenderId,
+            c.last_message_preview as lastMessagePreview,
+            c.last_message_at as lastMessageCreatedAt,
             sender.email as lastMessageSenderEmail,
-            COALESCE(
-                (SELECT COUNT(DISTINCT msg.id)
-                 FROM messages msg
-                 WHERE msg.conversation_id = c.id
-                 AND msg.sender_id <> :userId
-                 AND NOT EXISTS (
-                     SELECT 1 FROM message_read_receipts mrr
-                     WHERE mrr.message_id = msg.id AND mrr.user_id = :userId
-                 )
-                ), 0) as unreadCount
-        FROM conversations c
-        JOIN conversation_participants cp ON c.id = cp.conversation_id AND cp.user_id = :userId
+            (SELECT COUNT(*)
+             FROM messages msg
+             WHERE msg.conversation_id = c.id
+             AND msg.id > cp.last_read_message_id
+             AND msg.sender_id <> :userId
+            ) as unreadCount
+        FROM conversation_participants cp
+        JOIN conversations c ON c.id = cp.conversation_id
         JOIN conversation_participants p ON c.id = p.conversation_id AND p.user_id <> :userId
         JOIN users u ON p.user_id = u.id
-        LEFT JOIN messages m ON c.id = m.conversation_id
-            AND m.id = (SELECT MAX(m2.id) FROM messages m2 WHERE m2.conversation_id = c.id)
-        LEFT JOIN users sender ON m.sender_id = sender.id
+        LEFT JOIN users sender ON c.last_message_sender_id = sender.id
+        WHERE cp.user_id = :userId
         ORDER BY c.updated_at DESC
     """)
     List<ConversationListDTO> findConversationsByUserIdOptimized(@Param("userId") Long userId);
@@ -61,6 +65,26 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
            "ORDER BY c.updatedAt DESC")
     List<Conversation> findByUserIdOrderByUpdatedAtDesc(@Param("userId") Long userId);
 
+    /**
+     * Newest message id of every conversation of a user, from the conversation summary,
+     * for delta sync. Reads no messages.
+     */
+    @Query("SELECT c.id as conversationId, c.lastMessageId as lastMessageId " +
+           "FROM Conversation c " +
+           "WHERE c.id IN (SELECT own.conversation.id FROM ConversationParticipant own " +
+           "               WHERE own.user.id = :userId)")
+    List<ConversationHeadDTO> findHeadsByUserId(@Param("userId") Long userId);
+
+    /**
+     * Find conversations by id, for delta sync.
+     * Participants and their users are fetched in the same query.
+     */
+    @Query("SELECT DISTINCT c FROM Conversation c " +
+           "JOIN FETCH c.participants cp " +
+           "JOIN FETCH cp.user " +
+           "WHERE c.id IN :ids")
+    List<Conversation> findWithParticipantsByIdIn(@Param("ids") Collection<Long> ids);
+
     /**
      * Find a 1:1 conversation between two users.
      * The conversation must have exactly 2 participants: userId1 and userId2.
@@ -93,4 +117,32 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
     @Query("SELECT DISTINCT p.user.id FROM ConversationParticipant p " +
            "WHERE p.conversation.id = :conversationId")
     List<Long> findParticipantIdsByConversationId(@Param("conversationId") Long conversationId);
+
+    /**
+     * Lock a conversation's row until the end of the transaction.
+     * Taken by the send path before the message INSERT, so message ids of one
+     * conversation are assigned in the order their transactions commit; read
+     * watermarks and unread counts rely on that.
+     */
+    @Query(nativeQuery = true, value = "SELECT id FROM conversations WHERE id = :conversationId FOR UPDATE")
+    Optional<Long> lockForMessageInsert(@Param("conversationId") Long conversationId);
+
+    /**
+     * Record a newly sent message in the conversation summary.
+     * Ignored if the summary already points at a newer message.
+     *
+     * @return 1 if the summary was updated, 0 otherwise
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Conversation c " +
+           "SET c.lastMessageId = :messageId, c.lastMessageSenderId = :senderId, " +
+           "    c.lastMessageAt = :sentAt, c.lastMessagePreview = :preview, c.updatedAt = :sentAt " +
+           "WHERE c.id = :conversationId " +
+           "AND (c.lastMessageId IS NULL OR c.lastMessageId < :messageId)")
+    int updateLastMessage(@Param("conversationId") Long conversationId,
+                          @Param("messageId") Long messageId,
+                          @Param("senderId") Long senderId,
+                          @Param("sentAt") LocalDateTime sentAt,
+                          @Param("preview") byte[] preview);
 }
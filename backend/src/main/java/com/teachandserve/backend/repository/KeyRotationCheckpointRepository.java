@@ -0,0 +1,74 @@
+package com.teachandserve.backend.repository;
+
+import com.teachandserve.backend.model.KeyRotationCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface KeyRotationCheckpointRepository extends JpaRepository<KeyRotationCheckpoint, Integer> {
+
+    /**
+     * Take (or renew) the rotation lease for a key id.
+     * Succeeds if nobody holds the lease, the caller already holds it, or it has expired.
+     *
+     * @return 1 if the lease is now held by {@code owner}, 0 otherwise
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE KeyRotationCheckpoint c " +
+           "SET c.leaseOwner = :owner, c.leaseExpiresAt = :expiresAt " +
+           "WHERE c.keyId = :keyId " +
+           "AND (c.leaseOwner IS NULL OR c.leaseOwner = :owner OR c.leaseExpiresAt < :now)")
+    int acquireLease(@Param("keyId") Integer keyId,
+                     @Param("owner") String owner,
+                     @Param("now") LocalDateTime now,
+                     @Param("expiresAt") LocalDateTime expiresAt);
+
+    /**
+     * Record progress after a batch and extend the lease.
+     *
+     * @return 1 if the checkpoint was advanced, 0 if the lease was lost
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE KeyRotationCheckpoint c " +
+           "SET c.lastConversationId = :conversationId, c.lastMessageId = :messageId, " +
+           "    c.rowsReEncrypted = c.rowsReEncrypted + :rows, " +
+           "    c.updatedAt = :now, c.leaseExpiresAt = :expiresAt " +
+           "WHERE c.keyId = :keyId AND c.leaseOwner = :owner")
+    int advance(@Param("keyId") Integer keyId,
+                @Param("owner") String owner,
+                @Param("conversationId") Long conversationId,
+                @Param("messageId") Long messageId,
+                @Param("rows") long rows,
+                @Param("now") LocalDateTime now,
+                @Param("expiresAt") LocalDateTime expiresAt);
+
+    /**
+     * Mark the rotation finished and release the lease.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE KeyRotationCheckpoint c " +
+           "SET c.completedAt = :now, c.updatedAt = :now, c.leaseOwner = NULL, c.leaseExpiresAt = NULL " +
+           "WHERE c.keyId = :keyId AND c.leaseOwner = :owner")
+    int complete(@Param("keyId") Integer keyId,
+                 @Param("owner") String owner,
+                 @Param("now") LocalDateTime now);
+
+    /**
+     * Release the lease without completing, so another instance can resume.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE KeyRotationCheckpoint c " +
+           "SET c.leaseOwner = NULL, c.leaseExpiresAt = NULL " +
+           "WHERE c.keyId = :keyId AND c.leaseOwner = :owner")
+    int releaseLease(@Param("keyId") Integer keyId, @Param("owner") String owner);
+}
@@ -1,9 +1,10 @@
 package com.teachandserve.backend.repository;
 
 import com.teachandserve.backend.dto.MessageDTO;
+import com.teachandserve.backend.dto.SyncMessageDTO;
 import com.teachandserve.backend.model.Message;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -16,8 +17,10 @@ import java.util.Optional;
 public interface MessageRepository extends JpaRepository<Message, Long> {
 
     /**
-     * OPTIMIZED: Get messages for a conversation using DTO projection.
-     * Reduces memory overhead and fetches sender details in one query.
+     * OPTIMIZED: Get one page of message history using DTO projection and keyset pagination.
+     * Reads messages with id < beforeMessageId, newest first, as a range scan on
+     * idx_messages_conversation_id_id. Returns a Slice, so no COUNT query is issued;
+     * Spring fetches one extra row to determine hasNext().
      */
     @Query("""
         SELECT
@@ -26,33 +29,47 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
             u.email as senderEmail,
             u.firstName as senderFirstName,
             m.body as body,
+            m.legacyBody as legacyBody,
             m.createdAt as createdAt,
             m.editedAt as editedAt,
             m.deletedAt as deletedAt
         FROM Message m
         JOIN m.sender u
         WHERE m.conversation.id = :conversationId
-        ORDER BY m.createdAt DESC
+        AND m.id < :beforeMessageId
+        ORDER BY m.id DESC
     """)
-    Page<MessageDTO> findMessagesOptimized(@Param("conversationId") Long conversationId, Pageable pageable);
+    Slice<MessageDTO> findMessagesBefore(@Param("conversationId") Long conversationId,
+                                         @Param("beforeMessageId") Long beforeMessageId,
+                                         Pageable pageable);
 
     /**
-     * Find unread message IDs for a user in a conversation.
-     * Used for bulk marking as read.
+     * OPTIMIZED: Get the messages of one conversation after a message id, oldest first,
+     * for reconnect delta sync. A range scan on idx_messages_conversation_id_id.
+     * Ids of one conversation are assigned in commit order (the send path locks the
+     * conversation row first), so no message can later commit below a position read here.
      */
     @Query("""
-        SELECT m.id FROM Message m
+        SELECT
+            m.id as id,
+            m.conversation.id as conversationId,
+            u.id as senderId,
+            u.email as senderEmail,
+            u.firstName as senderFirstName,
+            m.body as body,
+            m.legacyBody as legacyBody,
+            m.createdAt as createdAt,
+            m.editedAt as editedAt,
+            m.deletedAt as deletedAt
+        FROM Message m
+        JOIN m.sender u
         WHERE m.conversation.id = :conversationId
-        AND m.sender.id <> :userId
-        AND m.id <= :lastMessageId
-        AND NOT EXISTS (
-            SELECT 1 FROM MessageReadReceipt mrr
-            WHERE mrr.message.id = m.id AND mrr.user.id = :userId
-        )
+        AND m.id > :afterMessageId
+        ORDER BY m.id ASC
     """)
-    List<Long> findUnreadMessageIds(@Param("conversationId") Long conversationId,
-                                   @Param("userId") Long userId,
-                                   @Param("lastMessageId") Long lastMessageId);
+    Slice<SyncMessageDTO> findMessagesAfter(@Param("conversationId") Long conversationId,
+                                            @Param("afterMessageId") Long afterMessageId,
+                                            Pageable pageable);
 
     /**
      * Find messages for a conversation, ordered by creation time descending (newest first).
@@ -64,18 +81,6 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     List<Message> findByConversationIdOrderByCreatedAtDesc(@Param("conversationId") Long conversationId,
                                                             Pageable pageable);
 
-    /**
-     * Find messages for a conversation before a specific message (for pagination).
-     * Returns messages with id < beforeMessageId, ordered by creation time descending.
-     */
-    @Query("SELECT m FROM Message m " +
-           "WHERE m.conversation.id = :conversationId " +
-           "AND m.id < :beforeMessageId " +
-           "ORDER BY m.createdAt DESC")
-    List<Message> findByConversationIdBeforeMessageId(@Param("conversationId") Long conversationId,
-                                                       @Param("beforeMessageId") Long beforeMessageId,
-                                                       Pageable pageable);
-
     /**
      * Find the most recent message in a conversation.
      */
@@ -86,16 +91,15 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
 
     /**
      * Count unread messages for a user in a conversation.
-     * A message is unread if there's no read receipt for that user.
+     * A message is unread if it was sent by someone else after the user's read watermark,
+     * so this is a range count on (conversation_id, id).
      */
-    @Query("SELECT COUNT(m) FROM Message m " +
-           "WHERE m.conversation.id = :conversationId " +
-           "AND m.sender.id <> :userId " +
-           "AND NOT EXISTS (" +
-           "  SELECT 1 FROM MessageReadReceipt mrr " +
-           "  WHERE mrr.message.id = m.id " +
-           "  AND mrr.user.id = :userId" +
-           ")")
+    @Query("SELECT COUNT(m) FROM Message m, ConversationParticipant p " +
+           "WHERE p.conversation.id = :conversationId " +
+           "AND p.user.id = :userId " +
+           "AND m.conversation.id = :conversationId " +
+           "AND m.id > p.lastReadMessageId " +
+           "AND m.sender.id <> :userId")
     long countUnreadMessages(@Param("conversationId") Long conversationId,
                              @Param("userId") Long userId);
 }
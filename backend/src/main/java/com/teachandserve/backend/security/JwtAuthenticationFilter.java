@@ -17,6 +17,9 @@ import java.io.IOException;
 
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
+
+    // Only this endpoint accepts a stream token in the query string (EventSource can't set headers)
+    private static final String STREAM_PATH = "/api/notifications/stream";
     
     @Autowired
     private UserDetailsService userDetailsService;
@@ -32,9 +35,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         
         String username = null;
         String jwtToken = null;
+        boolean streamToken = false;
         
         if (requestTokenHeader != null && requestTokenHeader.startsWith("Bearer ")) {
             jwtToken = requestTokenHeader.substring(7);
+        } else if (STREAM_PATH.equals(request.getServletPath()) && request.getParameter("token") != null) {
+            jwtToken = request.getParameter("token");
+            streamToken = true;
+        }
+
+        if (jwtToken != null) {
             try {
                 username = jwtUtil.extractUsername(jwtToken);
             } catch (Exception e) {
@@ -45,7 +55,10 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
             UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
             
-            if (jwtUtil.validateToken(jwtToken, userDetails)) {
+            boolean valid = streamToken
+                    ? jwtUtil.validateStreamToken(jwtToken, userDetails)
+                    : jwtUtil.validateToken(jwtToken, userDetails);
+            if (valid) {
                 UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken =
                         new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                 usernamePasswordAuthenticationToken
@@ -11,16 +11,24 @@ import javax.crypto.SecretKey;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.Function;
 
 @Component
 public class JwtUtil {
+
+    // Claim restricting a token to one use; scoped tokens aren't accepted as bearer tokens
+    private static final String SCOPE_CLAIM = "scope";
+    private static final String STREAM_SCOPE = "notification-stream";
     
     @Value("${jwt.secret:mySecretKey123456789012345678901234567890}")
     private String secret;
     
     @Value("${jwt.expiration:86400000}")
     private Long expiration;
+
+    @Value("${jwt.stream-token.expiration:60000}")
+    private Long streamTokenExpiration;
     
     private SecretKey getSigningKey() {
         return Keys.hmacShaKeyFor(secret.getBytes());
@@ -53,21 +61,48 @@ public class JwtUtil {
     
     public String generateToken(UserDetails userDetails) {
         Map<String, Object> claims = new HashMap<>();
-        return createToken(claims, userDetails.getUsername());
+        return createToken(claims, userDetails.getUsername(), expiration);
+    }
+
+    /**
+     * Generate a short-lived token that only opens notification streams, for clients
+     * that can't send an Authorization header (EventSource).
+     */
+    public String generateStreamToken(UserDetails userDetails) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(SCOPE_CLAIM, STREAM_SCOPE);
+        return createToken(claims, userDetails.getUsername(), streamTokenExpiration);
+    }
+
+    /**
+     * @return Lifetime of stream tokens in milliseconds
+     */
+    public long getStreamTokenExpiration() {
+        return streamTokenExpiration;
     }
     
-    private String createToken(Map<String, Object> claims, String subject) {
+    private String createToken(Map<String, Object> claims, String subject, long lifetimeMillis) {
         return Jwts.builder()
                 .claims(claims)
                 .subject(subject)
                 .issuedAt(new Date(System.currentTimeMillis()))
-                .expiration(new Date(System.currentTimeMillis() + expiration))
+                .expiration(new Date(System.currentTimeMillis() + lifetimeMillis))
                 .signWith(getSigningKey())
                 .compact();
     }
     
     public Boolean validateToken(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+        return validate(token, userDetails, null);
+    }
+
+    public Boolean validateStreamToken(String token, UserDetails userDetails) {
+        return validate(token, userDetails, STREAM_SCOPE);
+    }
+
+    private boolean validate(String token, UserDetails userDetails, String scope) {
+        final Claims claims = extractAllClaims(token);
+        return claims.getSubject().equals(userDetails.getUsername())
+                && Objects.equals(claims.get(SCOPE_CLAIM, String.class), scope)
+                && claims.getExpiration().after(new Date());
     }
 }
\ No newline at end of file
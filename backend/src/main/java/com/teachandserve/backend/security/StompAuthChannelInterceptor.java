@@ -0,0 +1,130 @@
+package com.teachandserve.backend.security;
+
+import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.service.ConversationMembershipCache;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Authenticates STOMP sessions from the JWT in the CONNECT frame's Authorization header,
+ * and authorizes their subscriptions.
+ *
+ * The user is loaded once per connection and stored as the session's principal, so
+ * frames on the session (e.g. @MessageMapping sends) need neither a token nor a user
+ * lookup. A CONNECT without a valid token is rejected with an ERROR frame.
+ *
+ * SUBSCRIBE is checked against the session's user:
+ * - /topic/conversations.{id}.messages and .presence: participants only, from
+ *   ConversationMembershipCache, so a subscribe costs a map lookup rather than a
+ *   participant query
+ * - /topic/users.{id}.*: that user only
+ * - /user/**: session-scoped replies, always allowed
+ * Other subscriptions, and SENDs to anything but /app (only the server publishes to
+ * broker destinations), are denied; a denied frame closes the session with an ERROR frame.
+ */
+@Component
+public class StompAuthChannelInterceptor implements ChannelInterceptor {
+
+    private static final Pattern CONVERSATION_TOPIC = Pattern.compile("^/topic/conversations\\.(\\d+)\\.(messages|presence)$");
+    private static final Pattern USER_TOPIC = Pattern.compile("^/topic/users\\.(\\d+)\\.[\\w-]+$");
+
+    private final JwtUtil jwtUtil;
+    private final UserDetailsService userDetailsService;
+    private final ConversationMembershipCache membershipCache;
+
+    public StompAuthChannelInterceptor(JwtUtil jwtUtil,
+                                       UserDetailsService userDetailsService,
+                                       ConversationMembershipCache membershipCache) {
+        this.jwtUtil = jwtUtil;
+        this.userDetailsService = userDetailsService;
+        this.membershipCache = membershipCache;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+        switch (accessor.getCommand()) {
+            case CONNECT -> authenticate(accessor);
+            case SUBSCRIBE -> authorizeSubscribe(accessor);
+            case SEND -> authorizeSend(accessor);
+            default -> {
+            }
+        }
+        return message;
+    }
+
+    private void authenticate(StompHeaderAccessor accessor) {
+        String header = accessor.getFirstNativeHeader("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            throw new BadCredentialsException("Missing bearer token");
+        }
+        String token = header.substring(7);
+
+        UserDetails userDetails;
+        try {
+            userDetails = userDetailsService.loadUserByUsername(jwtUtil.extractUsername(token));
+            if (!jwtUtil.validateToken(token, userDetails)) {
+                throw new BadCredentialsException("Invalid token");
+            }
+        } catch (BadCredentialsException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BadCredentialsException("Invalid token", e);
+        }
+
+        accessor.setUser(new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities()));
+    }
+
+    private void authorizeSubscribe(StompHeaderAccessor accessor) {
+        Long userId = userIdOf(accessor.getUser());
+        String destination = accessor.getDestination();
+        if (userId == null || destination == null) {
+            throw new AccessDeniedException("Not authorized to subscribe");
+        }
+        if (destination.startsWith("/user/")) {
+            return;
+        }
+
+        Matcher conversation = CONVERSATION_TOPIC.matcher(destination);
+        if (conversation.matches() && membershipCache.isParticipant(Long.valueOf(conversation.group(1)), userId)) {
+            return;
+        }
+        Matcher user = USER_TOPIC.matcher(destination);
+        if (user.matches() && Long.valueOf(user.group(1)).equals(userId)) {
+            return;
+        }
+        throw new AccessDeniedException("Not authorized to subscribe to " + destination);
+    }
+
+    private void authorizeSend(StompHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        if (destination == null || !destination.startsWith("/app/")) {
+            throw new AccessDeniedException("Not authorized to send to " + destination);
+        }
+    }
+
+    private static Long userIdOf(Principal principal) {
+        if (principal instanceof Authentication authentication && authentication.getPrincipal() instanceof User user) {
+            return user.getId();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,527 @@
+package com.teachandserve.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fans STOMP {@code /topic} publications out to every application instance.
+ *
+ * The simple broker only reaches sessions connected to this instance, so each send is
+ * delivered locally and also published on a {@link ClusterTransport} channel named after
+ * the destination. Each instance subscribes only to the channels of destinations its own
+ * sessions are subscribed to: subscriptions are reference counted per destination, the
+ * channel is joined on the first local subscriber and left after the last one
+ * unsubscribes or disconnects.
+ *
+ * Per-user destinations ({@code /topic/users.{userId}.*}) are routed instead: a
+ * {@link SessionDirectory} maps each user to the instances holding sessions subscribed
+ * to that user's topics, maintained with the same reference counts and kept alive by
+ * heartbeated leases. Per-user publications are sent only to those instances, each on
+ * its own node channel, so cross-instance traffic follows the actual recipients and
+ * instances don't hold a channel per connected user. Directory lookups are cached for
+ * {@code messaging.cluster.directory.cache-ms}; an instance that registers a user
+ * announces it on a cluster channel, so every instance drops its cached lookup and new
+ * sessions don't wait for the cache to expire. A stale lookup can only name an instance
+ * that has since lost the user, which ignores the publication.
+ *
+ * Payloads are serialized to JSON once per send; the same bytes become the local
+ * broker message (shared by every local subscriber's frame) and the body of the
+ * cluster messages, which are prefixed with one header line: the publishing instance's
+ * id on destination channels, so an instance ignores its own publications, and the
+ * destination on node channels.
+ *
+ * Counts are updated under the broker lock; the channel subscriptions and directory
+ * entries they imply are applied after it is released, so Redis round trips don't
+ * serialize every SUBSCRIBE, UNSUBSCRIBE and DISCONNECT on the instance. Each channel or
+ * user is brought in line with its current count under a striped lock, so concurrent
+ * join and leave calls for the same key can't be applied out of order.
+ *
+ * Other transports (e.g. SSE streams) can receive a user's topics too: they hold the
+ * user with {@link #acquireUser}/{@link #releaseUser}, counted like STOMP subscriptions,
+ * and get every per-user publication delivered on this instance through a
+ * {@link UserTopicListener}.
+ */
+@Service
+public class ClusterBroker {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterBroker.class);
+
+    private static final String TOPIC_PREFIX = "/topic/";
+    private static final String CHANNEL_PREFIX = "ws:";
+    private static final String NODE_CHANNEL_PREFIX = "ws-node:";
+    private static final String DIRECTORY_CHANNEL = "ws-directory:joined";
+    private static final Pattern USER_DESTINATION = Pattern.compile("^/topic/users\\.(\\d+)\\.");
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ClusterTransport transport;
+    private final SessionDirectory sessionDirectory;
+    private final ObjectMapper objectMapper;
+
+    @Value("${messaging.cluster.directory.lease-ms:30000}")
+    private long leaseMillis;
+
+    @Value("${messaging.cluster.directory.cache-ms:2000}")
+    private long directoryCacheMillis;
+
+    @Value("${messaging.cluster.directory.cache-size:10000}")
+    private int directoryCacheSize;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // Guarded by this: destinations by subscription id by session id, local subscriber counts
+    // by destination (other than per-user ones), and local per-user subscription counts
+    private final Map<String, Map<String, String>> sessions = new HashMap<>();
+    private final Map<String, Integer> subscriberCounts = new HashMap<>();
+    private final Map<Long, Integer> userCounts = new HashMap<>();
+
+    // Channels joined and users registered in the directory; each key is only changed
+    // while holding its stripe
+    private final Set<String> joinedChannels = ConcurrentHashMap.newKeySet();
+    private final Set<Long> registeredUsers = ConcurrentHashMap.newKeySet();
+    private final Object[] stripes = new Object[64];
+
+    // Directory lookups by user id, least recently used evicted first; a lookup is only
+    // cached if no registration was announced while it ran
+    private Map<Long, CachedNodes> nodeCache;
+    private final AtomicLong directoryChanges = new AtomicLong();
+
+    private final List<UserTopicListener> userTopicListeners = new CopyOnWriteArrayList<>();
+
+    public ClusterBroker(SimpMessagingTemplate messagingTemplate,
+                         ClusterTransport transport,
+                         SessionDirectory sessionDirectory,
+                         ObjectMapper objectMapper) {
+        this.messagingTemplate = messagingTemplate;
+        this.transport = transport;
+        this.sessionDirectory = sessionDirectory;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    void init() {
+        Arrays.setAll(stripes, i -> new Object());
+        int capacity = Math.max(directoryCacheSize, 1);
+        nodeCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedNodes> eldest) {
+                return size() > capacity;
+            }
+        });
+        transport.subscribe(NODE_CHANNEL_PREFIX + nodeId, this::deliverRouted);
+        transport.subscribe(DIRECTORY_CHANNEL, message -> {
+            directoryChanges.incrementAndGet();
+            nodeCache.remove(Long.valueOf(new String(message, StandardCharsets.UTF_8)));
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        List<Long> userIds;
+        synchronized (this) {
+            userIds = List.copyOf(userCounts.keySet());
+            userCounts.clear();
+        }
+        userIds.forEach(this::syncUser);
+        transport.unsubscribe(NODE_CHANNEL_PREFIX + nodeId);
+        transport.unsubscribe(DIRECTORY_CHANNEL);
+    }
+
+    /**
+     * Deliver a payload to the destination's subscribers on every instance.
+     * Throws if the publication could not be handed to the cluster transport; local
+     * subscribers may already have received it.
+     *
+     * @param destination STOMP destination
+     * @param payload     Payload, serialized as JSON; strings and byte arrays are taken as
+     *                    already serialized JSON and sent as-is
+     */
+    public void send(String destination, Object payload) {
+        byte[] json = encode(payload);
+        messagingTemplate.send(destination, jsonMessage(json));
+        if (!destination.startsWith(TOPIC_PREFIX)) {
+            return;
+        }
+
+        Long userId = userIdOf(destination);
+        if (userId == null) {
+            transport.publish(CHANNEL_PREFIX + destination, envelope(nodeId, json));
+            return;
+        }
+        notifyUserTopicListeners(userId, destination, json);
+        byte[] message = null;
+        RuntimeException failure = null;
+        for (String node : findNodes(userId)) {
+            if (!node.equals(nodeId)) {
+                if (message == null) {
+                    message = envelope(destination, json);
+                }
+                try {
+                    transport.publish(NODE_CHANNEL_PREFIX + node, message);
+                } catch (RuntimeException e) {
+                    // Still reach the other instances
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Receive every per-user publication delivered on this instance, local or routed
+     * from another instance. Listeners are called on the publishing thread and must not
+     * block or modify the payload.
+     */
+    public void addUserTopicListener(UserTopicListener listener) {
+        userTopicListeners.add(listener);
+    }
+
+    /**
+     * Route a user's topics to this instance, as a STOMP subscription to one of them
+     * does. Each call must be balanced by {@link #releaseUser}.
+     */
+    public void acquireUser(Long userId) {
+        boolean changed;
+        synchronized (this) {
+            changed = acquire(userId);
+        }
+        if (changed) {
+            syncUser(userId);
+        }
+    }
+
+    public void releaseUser(Long userId) {
+        boolean changed;
+        synchronized (this) {
+            changed = release(userId);
+        }
+        if (changed) {
+            syncUser(userId);
+        }
+    }
+
+    /**
+     * Renew the directory leases of users with sessions on this instance.
+     */
+    @Scheduled(fixedDelayString = "${messaging.cluster.directory.heartbeat-ms:10000}")
+    public void renewLeases() {
+        List<Long> userIds;
+        synchronized (this) {
+            userIds = List.copyOf(userCounts.keySet());
+        }
+        sessionDirectory.renew(nodeId, userIds, leaseMillis);
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        String destination = accessor.getDestination();
+        if (sessionId == null || subscriptionId == null
+                || destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+            return;
+        }
+        List<String> changed = new ArrayList<>(2);
+        synchronized (this) {
+            String previous = sessions.computeIfAbsent(sessionId, key -> new HashMap<>())
+                    .put(subscriptionId, destination);
+            if (previous != null && release(previous)) {
+                changed.add(previous);
+            }
+            if (acquire(destination)) {
+                changed.add(destination);
+            }
+        }
+        changed.forEach(this::sync);
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        if (sessionId == null || subscriptionId == null) {
+            return;
+        }
+        String changed = null;
+        synchronized (this) {
+            Map<String, String> subscriptions = sessions.get(sessionId);
+            String destination = subscriptions != null ? subscriptions.remove(subscriptionId) : null;
+            if (destination != null && release(destination)) {
+                changed = destination;
+            }
+            if (subscriptions != null && subscriptions.isEmpty()) {
+                sessions.remove(sessionId);
+            }
+        }
+        if (changed != null) {
+            sync(changed);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        List<String> changed = new ArrayList<>();
+        synchronized (this) {
+            Map<String, String> subscriptions = sessions.remove(event.getSessionId());
+            if (subscriptions != null) {
+                for (String destination : subscriptions.values()) {
+                    if (release(destination)) {
+                        changed.add(destination);
+                    }
+                }
+            }
+        }
+        changed.forEach(this::sync);
+    }
+
+    /**
+     * @return Number of destinations this instance currently receives from the cluster
+     */
+    public synchronized int getSubscribedDestinationCount() {
+        return subscriberCounts.size();
+    }
+
+    /**
+     * @return Number of users this instance is registered for in the session directory
+     */
+    public synchronized int getDirectoryUserCount() {
+        return userCounts.size();
+    }
+
+    // Caller holds the lock; returns whether the destination's channel or user entry must be synced
+    private boolean acquire(String destination) {
+        Long userId = userIdOf(destination);
+        if (userId != null) {
+            return acquire(userId);
+        }
+        return subscriberCounts.merge(destination, 1, Integer::sum) == 1;
+    }
+
+    // Caller holds the lock; returns whether the destination's channel or user entry must be synced
+    private boolean release(String destination) {
+        Long userId = userIdOf(destination);
+        if (userId != null) {
+            return release(userId);
+        }
+        return subscriberCounts.computeIfPresent(destination, (key, count) -> count > 1 ? count - 1 : null) == null;
+    }
+
+    // Caller holds the lock
+    private boolean acquire(Long userId) {
+        return userCounts.merge(userId, 1, Integer::sum) == 1;
+    }
+
+    // Caller holds the lock
+    private boolean release(Long userId) {
+        return userCounts.computeIfPresent(userId, (key, count) -> count > 1 ? count - 1 : null) == null;
+    }
+
+    // Called without the lock
+    private void sync(String destination) {
+        Long userId = userIdOf(destination);
+        if (userId != null) {
+            syncUser(userId);
+        } else {
+            syncChannel(destination);
+        }
+    }
+
+    /**
+     * Join or leave a destination's channel to match its current subscriber count.
+     */
+    private void syncChannel(String destination) {
+        synchronized (stripe(destination)) {
+            boolean wanted;
+            synchronized (this) {
+                wanted = subscriberCounts.containsKey(destination);
+            }
+            if (wanted && !joinedChannels.contains(destination)) {
+                transport.subscribe(CHANNEL_PREFIX + destination, message -> deliverRemote(destination, message));
+                joinedChannels.add(destination);
+            } else if (!wanted && joinedChannels.remove(destination)) {
+                transport.unsubscribe(CHANNEL_PREFIX + destination);
+            }
+        }
+    }
+
+    /**
+     * Add or remove this instance's directory entry for a user to match its current count.
+     */
+    private void syncUser(Long userId) {
+        synchronized (stripe(userId)) {
+            boolean wanted;
+            synchronized (this) {
+                wanted = userCounts.containsKey(userId);
+            }
+            try {
+                if (wanted && !registeredUsers.contains(userId)) {
+                    sessionDirectory.renew(nodeId, List.of(userId), leaseMillis);
+                    registeredUsers.add(userId);
+                    transport.publish(DIRECTORY_CHANNEL, userId.toString().getBytes(StandardCharsets.UTF_8));
+                } else if (!wanted) {
+                    // Also removes an entry the lease heartbeat added after a failed registration
+                    registeredUsers.remove(userId);
+                    sessionDirectory.remove(nodeId, userId);
+                }
+            } catch (Exception e) {
+                // The lease heartbeat registers it later, or the entry expires
+                log.warn("Failed to update session directory for user {}", userId, e);
+            }
+        }
+    }
+
+    /**
+     * Instances holding sessions for a user, from the lookup cache when fresh.
+     */
+    private Set<String> findNodes(Long userId) {
+        long now = System.nanoTime();
+        CachedNodes cached = nodeCache.get(userId);
+        if (cached != null && cached.expiresAt() - now > 0) {
+            return cached.nodes();
+        }
+        long changes = directoryChanges.get();
+        Set<String> nodes = sessionDirectory.findNodes(userId);
+        synchronized (nodeCache) {
+            if (directoryChanges.get() == changes) {
+                nodeCache.put(userId, new CachedNodes(nodes, now + directoryCacheMillis * 1_000_000L));
+            }
+        }
+        return nodes;
+    }
+
+    private Object stripe(Object key) {
+        return stripes[Math.floorMod(key.hashCode(), stripes.length)];
+    }
+
+    private void notifyUserTopicListeners(Long userId, String destination, byte[] json) {
+        for (UserTopicListener listener : userTopicListeners) {
+            try {
+                listener.onMessage(userId, destination, json);
+            } catch (Exception e) {
+                log.warn("User topic listener failed for {}", destination, e);
+            }
+        }
+    }
+
+    private void deliverRemote(String destination, byte[] message) {
+        int separator = indexOfNewline(message);
+        if (separator < 0 || new String(message, 0, separator, StandardCharsets.UTF_8).equals(nodeId)) {
+            return;
+        }
+        try {
+            messagingTemplate.send(destination, jsonMessage(Arrays.copyOfRange(message, separator + 1, message.length)));
+        } catch (Exception e) {
+            log.warn("Failed to deliver relayed message to {}", destination, e);
+        }
+    }
+
+    // Messages on this instance's node channel are "destination\njson"
+    private void deliverRouted(byte[] message) {
+        int separator = indexOfNewline(message);
+        if (separator < 0) {
+            return;
+        }
+        String destination = new String(message, 0, separator, StandardCharsets.UTF_8);
+        byte[] json = Arrays.copyOfRange(message, separator + 1, message.length);
+        try {
+            messagingTemplate.send(destination, jsonMessage(json));
+        } catch (Exception e) {
+            log.warn("Failed to deliver routed message to {}", destination, e);
+        }
+        Long userId = userIdOf(destination);
+        if (userId != null) {
+            notifyUserTopicListeners(userId, destination, json);
+        }
+    }
+
+    private static Long userIdOf(String destination) {
+        Matcher matcher = USER_DESTINATION.matcher(destination);
+        return matcher.find() ? Long.valueOf(matcher.group(1)) : null;
+    }
+
+    private byte[] encode(Object payload) {
+        if (payload instanceof byte[] json) {
+            return json;
+        }
+        if (payload instanceof String json) {
+            return json.getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            return objectMapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize WebSocket payload", e);
+        }
+    }
+
+    // Fresh headers per message (the template sets the destination on them), sharing the payload
+    private static Message<byte[]> jsonMessage(byte[] json) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(json, accessor.getMessageHeaders());
+    }
+
+    private static byte[] envelope(String header, byte[] json) {
+        byte[] prefix = (header + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] message = Arrays.copyOf(prefix, prefix.length + json.length);
+        System.arraycopy(json, 0, message, prefix.length, json.length);
+        return message;
+    }
+
+    private static int indexOfNewline(byte[] message) {
+        for (int i = 0; i < message.length; i++) {
+            if (message[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private record CachedNodes(Set<String> nodes, long expiresAt) {
+    }
+
+    /**
+     * Receives per-user publications: the user, the destination and its JSON payload.
+     */
+    @FunctionalInterface
+    public interface UserTopicListener {
+        void onMessage(Long userId, String destination, byte[] json);
+    }
+}
@@ -0,0 +1,30 @@
+package com.teachandserve.backend.service;
+
+import java.util.function.Consumer;
+
+/**
+ * Channel-based publish/subscribe between application instances, used by
+ * {@link ClusterBroker} to fan out STOMP publications.
+ *
+ * Selected with {@code messaging.cluster.transport}: {@code local} (default, in-process,
+ * for single-instance deployments and tests) or {@code redis}.
+ */
+public interface ClusterTransport {
+
+    /**
+     * Publish a message to every instance subscribed to the channel.
+     *
+     * @throws RuntimeException if the message could not be handed to the transport
+     */
+    void publish(String channel, byte[] message);
+
+    /**
+     * Start receiving messages on a channel. Each channel has at most one handler per transport.
+     */
+    void subscribe(String channel, Consumer<byte[]> handler);
+
+    /**
+     * Stop receiving messages on a channel.
+     */
+    void unsubscribe(String channel);
+}
@@ -0,0 +1,201 @@
+package com.teachandserve.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.teachandserve.backend.dto.ConversationListSnapshot;
+import com.teachandserve.backend.dto.ConversationResponse;
+import com.teachandserve.backend.events.ConversationCreatedEvent;
+import com.teachandserve.backend.events.MessageSentEvent;
+import com.teachandserve.backend.events.MessagesReadEvent;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * In-process cache of each user's conversation list with a strong ETag.
+ *
+ * Every send or read pushes a conversation update to the participants, and each of
+ * their clients refetches the list. Entries are dropped after commit when a
+ * {@link MessageSentEvent}, {@link MessagesReadEvent} or {@link ConversationCreatedEvent}
+ * touches the user (ahead of other after-commit listeners, so the entry is gone before
+ * clients hear about the change), and also expire after a short TTL, which bounds staleness from
+ * changes that publish no event (e.g. a participant renaming themselves).
+ * Invalidations are broadcast over the {@link ClusterTransport}, so every instance drops
+ * its copy, not only the one that handled the change.
+ *
+ * Concurrent misses for the same user share one computation (single flight), so an
+ * update fanned out to several tabs runs the inbox query once. An invalidation
+ * detaches the running computation, so requests arriving after it never receive a
+ * list computed before it.
+ */
+@Service
+public class ConversationListCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationListCache.class);
+
+    private static final String EVICTION_CHANNEL = "conversation-list-cache:evict";
+
+    @Value("${messaging.conversation-list-cache.size:10000}")
+    private int cacheSize;
+
+    @Value("${messaging.conversation-list-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    private final ConversationService conversationService;
+    private final ObjectMapper objectMapper;
+    private final ClusterTransport clusterTransport;
+
+    // Conversation lists by user id, least recently used evicted first
+    private Map<Long, Entry> cache;
+
+    // Running computations by user id
+    private final Map<Long, CompletableFuture<ConversationListSnapshot>> inFlight = new ConcurrentHashMap<>();
+
+    public ConversationListCache(ConversationService conversationService, ObjectMapper objectMapper,
+                                 ClusterTransport clusterTransport) {
+        this.conversationService = conversationService;
+        this.objectMapper = objectMapper;
+        this.clusterTransport = clusterTransport;
+    }
+
+    @PostConstruct
+    void init() {
+        int capacity = Math.max(cacheSize, 1);
+        cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > capacity;
+            }
+        });
+        clusterTransport.subscribe(EVICTION_CHANNEL, message -> {
+            for (String userId : new String(message, StandardCharsets.UTF_8).split(",")) {
+                invalidate(Long.valueOf(userId));
+            }
+        });
+    }
+
+    /**
+     * Get a user's conversation list, computing it if it is not cached.
+     *
+     * @param userId User ID
+     * @return Conversation list and its ETag
+     */
+    public ConversationListSnapshot getConversations(Long userId) {
+        Entry entry = cache.get(userId);
+        if (entry != null && entry.expiresAt() - System.nanoTime() > 0) {
+            return entry.snapshot();
+        }
+
+        CompletableFuture<ConversationListSnapshot> flight = new CompletableFuture<>();
+        CompletableFuture<ConversationListSnapshot> running = inFlight.putIfAbsent(userId, flight);
+        if (running != null) {
+            return join(running);
+        }
+
+        try {
+            long computedAt = System.nanoTime();
+            List<ConversationResponse> conversations = List.copyOf(conversationService.getUserConversations(userId));
+            ConversationListSnapshot snapshot = new ConversationListSnapshot(conversations, etagOf(conversations));
+
+            // Only cache if no invalidation detached this flight while it ran
+            synchronized (cache) {
+                if (inFlight.get(userId) == flight) {
+                    cache.put(userId, new Entry(snapshot, computedAt + ttlSeconds * 1_000_000_000L));
+                }
+            }
+            flight.complete(snapshot);
+            return snapshot;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(userId, flight);
+        }
+    }
+
+    /**
+     * Drop users' cached conversation lists on every instance.
+     */
+    public void evict(Collection<Long> userIds) {
+        userIds.forEach(this::invalidate);
+        String message = userIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+        try {
+            clusterTransport.publish(EVICTION_CHANNEL, message.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            // Other instances pick up the change when their entries expire
+            log.warn("Failed to broadcast conversation list eviction for users {}", message, e);
+        }
+    }
+
+    /**
+     * Drop a user's cached conversation list on this instance.
+     */
+    public void invalidate(Long userId) {
+        synchronized (cache) {
+            inFlight.remove(userId);
+            cache.remove(userId);
+        }
+    }
+
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageSent(MessageSentEvent event) {
+        evict(event.getParticipantIds());
+    }
+
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessagesRead(MessagesReadEvent event) {
+        // Only the reader's unread count changes; read state isn't part of anyone else's list
+        evict(List.of(event.getUserId()));
+    }
+
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationCreated(ConversationCreatedEvent event) {
+        evict(event.getParticipantIds());
+    }
+
+    private String etagOf(List<ConversationResponse> conversations) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(conversations));
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + "\"";
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to compute conversation list ETag", e);
+        }
+    }
+
+    private static ConversationListSnapshot join(CompletableFuture<ConversationListSnapshot> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private record Entry(ConversationListSnapshot snapshot, long expiresAt) {
+    }
+}
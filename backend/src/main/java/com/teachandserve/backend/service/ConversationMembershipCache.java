@@ -0,0 +1,111 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.repository.ConversationRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-process cache of conversation participant ids.
+ *
+ * Membership is checked on every send, history read and read receipt, and the same
+ * id set drives WebSocket fan-out, so caching it turns those participant queries
+ * into map lookups. Conversations are 1:1 and their participants don't change after
+ * creation; entries still expire after a TTL so deleted users drop out eventually.
+ *
+ * Empty results are not cached, so a conversation that is still being created is
+ * looked up again on the next call. Evictions are broadcast over the
+ * {@link ClusterTransport}, so every instance drops its copy when membership changes.
+ */
+@Service
+public class ConversationMembershipCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationMembershipCache.class);
+
+    @Value("${messaging.membership-cache.size:10000}")
+    private int cacheSize;
+
+    @Value("${messaging.membership-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private static final String EVICTION_CHANNEL = "membership-cache:evict";
+
+    private final ConversationRepository conversationRepository;
+    private final ClusterTransport clusterTransport;
+
+    // Participant ids by conversation id, least recently used evicted first
+    private Map<Long, Entry> cache;
+
+    public ConversationMembershipCache(ConversationRepository conversationRepository,
+                                       ClusterTransport clusterTransport) {
+        this.conversationRepository = conversationRepository;
+        this.clusterTransport = clusterTransport;
+    }
+
+    @PostConstruct
+    void init() {
+        int capacity = Math.max(cacheSize, 1);
+        cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > capacity;
+            }
+        });
+        clusterTransport.subscribe(EVICTION_CHANNEL,
+                message -> cache.remove(Long.valueOf(new String(message, StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Get the user ids participating in a conversation.
+     *
+     * @param conversationId Conversation ID
+     * @return Immutable set of participant user IDs (empty if the conversation does not exist)
+     */
+    public Set<Long> getParticipantIds(Long conversationId) {
+        long now = System.nanoTime();
+        Entry entry = cache.get(conversationId);
+        if (entry != null && entry.expiresAt() - now > 0) {
+            return entry.participantIds();
+        }
+
+        Set<Long> participantIds = Set.copyOf(conversationRepository.findParticipantIdsByConversationId(conversationId));
+        if (participantIds.isEmpty()) {
+            cache.remove(conversationId);
+        } else {
+            cache.put(conversationId, new Entry(participantIds, now + ttlSeconds * 1_000_000_000L));
+        }
+        return participantIds;
+    }
+
+    /**
+     * Check if a user is a participant in a conversation.
+     */
+    public boolean isParticipant(Long conversationId, Long userId) {
+        return getParticipantIds(conversationId).contains(userId);
+    }
+
+    /**
+     * Drop the cached participants of a conversation on every instance, e.g. after its
+     * membership changed.
+     */
+    public void evict(Long conversationId) {
+        cache.remove(conversationId);
+        try {
+            clusterTransport.publish(EVICTION_CHANNEL, conversationId.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            // Other instances pick up the change when their entry expires
+            log.warn("Failed to broadcast membership cache eviction for conversation {}", conversationId, e);
+        }
+    }
+
+    private record Entry(Set<Long> participantIds, long expiresAt) {
+    }
+}
@@ -4,20 +4,23 @@ import com.teachandserve.backend.dto.ConversationListDTO;
 import com.teachandserve.backend.dto.ConversationResponse;
 import com.teachandserve.backend.dto.MessageResponse;
 import com.teachandserve.backend.dto.ParticipantDto;
+import com.teachandserve.backend.events.ConversationCreatedEvent;
 import com.teachandserve.backend.model.Conversation;
 import com.teachandserve.backend.model.ConversationParticipant;
-import com.teachandserve.backend.model.Message;
 import com.teachandserve.backend.model.User;
 import com.teachandserve.backend.repository.ConversationParticipantRepository;
 import com.teachandserve.backend.repository.ConversationRepository;
 import com.teachandserve.backend.repository.MessageRepository;
 import com.teachandserve.backend.repository.UserRepository;
 import jakarta.transaction.Transactional;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -28,17 +31,29 @@ public class ConversationService {
     private final UserRepository userRepository;
     private final MessageRepository messageRepository;
     private final MatchService matchService;
+    private final ConversationMembershipCache membershipCache;
+    private final EncryptionService encryptionService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Preview length in code points
+    private static final int PREVIEW_LENGTH = 120;
 
     public ConversationService(ConversationRepository conversationRepository,
                               ConversationParticipantRepository participantRepository,
                               UserRepository userRepository,
                               MessageRepository messageRepository,
-                              MatchService matchService) {
+                              MatchService matchService,
+                              ConversationMembershipCache membershipCache,
+                              EncryptionService encryptionService,
+                              ApplicationEventPublisher eventPublisher) {
         this.conversationRepository = conversationRepository;
         this.participantRepository = participantRepository;
         this.userRepository = userRepository;
         this.messageRepository = messageRepository;
         this.matchService = matchService;
+        this.membershipCache = membershipCache;
+        this.encryptionService = encryptionService;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -83,6 +98,9 @@ public class ConversationService {
         ConversationParticipant participant2 = new ConversationParticipant(conversation, peerUserProxy);
 
         participantRepository.saveAll(List.of(participant1, participant2));
+        membershipCache.evict(conversation.getId());
+        eventPublisher.publishEvent(new ConversationCreatedEvent(
+                this, conversation.getId(), Set.of(userId, peerUserId), conversation.getCreatedAt()));
 
         conversation.getParticipants().add(participant1);
         conversation.getParticipants().add(participant2);
@@ -93,6 +111,8 @@ public class ConversationService {
     /**
      * OPTIMIZED: Get all conversations for a user in a single database query.
      * Replaces 31+ queries with 1 efficient native SQL call.
+     * Last-message previews come from the conversation summary and are decrypted with
+     * the shared preview key, so no per-conversation key derivation is needed.
      *
      * @param userId User ID
      * @return List of conversation responses with participants, last message, and unread count
@@ -101,12 +121,54 @@ public class ConversationService {
         // Single optimized query that returns all required data
         List<ConversationListDTO> dtos = conversationRepository.findConversationsByUserIdOptimized(userId);
 
-        // Transform DTOs to response objects (no DB access)
+        // Transform DTOs to response objects (no further DB access)
         return dtos.stream()
-                .map(ConversationListDTO::toResponse)
+                .map(dto -> dto.toResponse(readPreview(dto)))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Record a newly sent message in its conversation's summary row.
+     * Also bumps the conversation's updated_at, which orders the inbox.
+     *
+     * @param conversationId Conversation ID
+     * @param messageId      ID of the new message
+     * @param senderId       Sender user ID
+     * @param sentAt         Message creation time
+     * @param body           Sanitized plaintext body
+     */
+    public void recordLastMessage(Long conversationId, Long messageId, Long senderId,
+                                  LocalDateTime sentAt, String body) {
+        conversationRepository.updateLastMessage(conversationId, messageId, senderId, sentAt,
+                encryptionService.encryptPreview(toPreview(body), conversationId));
+    }
+
+    /**
+     * Decrypt a conversation's last-message preview. Reads never write: a preview that is
+     * missing (summarized before previews existed, see {@link PreviewBackfillService}) or
+     * no longer decrypts (retired master key) is returned as null.
+     */
+    private String readPreview(ConversationListDTO dto) {
+        if (dto.getLastMessagePreview() == null) {
+            return null;
+        }
+        try {
+            return encryptionService.decryptPreview(dto.getLastMessagePreview(), dto.getConversationId());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Truncate a message body to an inbox preview.
+     */
+    static String toPreview(String body) {
+        if (body.codePointCount(0, body.length()) <= PREVIEW_LENGTH) {
+            return body;
+        }
+        return body.substring(0, body.offsetByCodePoints(0, PREVIEW_LENGTH)) + "\u2026";
+    }
+
     /**
      * Get a conversation by ID, with authorization check.
      *
@@ -128,13 +190,14 @@ public class ConversationService {
 
     /**
      * Check if a user is a participant in a conversation.
+     * Served from {@link ConversationMembershipCache}; only a cache miss hits the database.
      *
      * @param conversationId Conversation ID
      * @param userId         User ID
      * @return true if user is a participant
      */
     public boolean isUserParticipant(Long conversationId, Long userId) {
-        return conversationRepository.isUserParticipant(conversationId, userId);
+        return membershipCache.isParticipant(conversationId, userId);
     }
 
     /**
@@ -154,9 +217,8 @@ public class ConversationService {
                 ))
                 .collect(Collectors.toList());
 
-        // Get last message
-        Optional<Message> lastMessage = messageRepository.findLastMessageByConversationId(conversation.getId());
-        MessageResponse lastMessageDto = lastMessage.map(this::toMessageResponse).orElse(null);
+        // Last message from the conversation summary
+        MessageResponse lastMessageDto = toLastMessageResponse(conversation);
 
         // Count unread messages
         long unreadCount = messageRepository.countUnreadMessages(conversation.getId(), userId);
@@ -172,25 +234,47 @@ public class ConversationService {
     }
 
     /**
-     * Convert Message entity to MessageResponse DTO.
+     * Build the last-message preview from the conversation summary.
      *
-     * @param message Message entity
-     * @return MessageResponse DTO
+     * @param conversation Conversation entity with participants loaded
+     * @return MessageResponse DTO with the decrypted preview as body, or null if there are no messages
      */
-    private MessageResponse toMessageResponse(Message message) {
-        List<Long> readBy = message.getReadReceipts().stream()
-                .map(receipt -> receipt.getUser().getId())
-                .collect(Collectors.toList());
+    private MessageResponse toLastMessageResponse(Conversation conversation) {
+        Long messageId = conversation.getLastMessageId();
+        if (messageId == null) {
+            return null;
+        }
+
+        Long senderId = conversation.getLastMessageSenderId();
+        String senderEmail = null;
+        List<Long> readBy = new ArrayList<>();
+        for (ConversationParticipant cp : conversation.getParticipants()) {
+            Long participantId = cp.getUser().getId();
+            if (participantId.equals(senderId)) {
+                senderEmail = cp.getUser().getEmail();
+            } else if (cp.hasRead(messageId)) {
+                readBy.add(participantId);
+            }
+        }
+
+        String preview = null;
+        if (conversation.getLastMessagePreview() != null) {
+            try {
+                preview = encryptionService.decryptPreview(conversation.getLastMessagePreview(), conversation.getId());
+            } catch (Exception ignored) {
+                // Leave the preview empty rather than failing the whole response
+            }
+        }
 
         return new MessageResponse(
-                message.getId(),
-                message.getConversation().getId(),
-                message.getSender().getId(),
-                message.getSender().getEmail(), // Using email as sender name
-                message.getBody(),
-                message.getCreatedAt(),
-                message.getEditedAt(),
-                message.getDeletedAt(),
+                messageId,
+                conversation.getId(),
+                senderId,
+                senderEmail, // Using email as sender name
+                preview,
+                conversation.getLastMessageAt(),
+                null,
+                null,
                 readBy
         );
     }
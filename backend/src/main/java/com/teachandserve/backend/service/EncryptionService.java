@@ -1,6 +1,7 @@
 package com.teachandserve.backend.service;
 
-import org.apache.commons.codec.binary.Base64;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -8,23 +9,80 @@ import org.springframework.stereotype.Service;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
+import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Service for message encryption/decryption using AES-256-GCM.
  *
  * Features:
- * - AES-256-GCM encryption for messages
- * - Base64 encoding for storage
- * - Deterministic key generation per conversation
+ * - AES-256-GCM authenticated encryption with a random 96-bit IV per message
+ * - Versioned binary envelope, stored as raw bytes (bytea)
+ * - Deterministic key generation per conversation and master key
+ * - Key ring of master secrets addressed by key id, so ciphertexts written under
+ *   retired secrets stay readable while they are re-encrypted online
+ * - Bounded cache of derived conversation keys (PBKDF2 runs once per key id and conversation)
+ * - Per-thread Cipher reuse (no provider lookup per call)
+ * - Read support for legacy AES/ECB ciphertexts, only for rows flagged as legacy
+ *   ({@code messages.legacy_body}), until KeyRotationService rewrites them
+ * - Batch decryption of a message page with one key derivation, reused
+ *   per-thread output buffers and a small worker pool for large pages
+ * - Optional raw-deflate compression before encryption for long bodies, kept only
+ *   when it actually makes the payload smaller
+ * - Short conversation previews for the inbox, encrypted under one preview key per
+ *   master key (bound to the conversation id as AAD), so a whole inbox decrypts
+ *   without a PBKDF2 derivation per conversation
+ *
+ * Master secrets: {@code encryption.master.secret} is the active secret and is
+ * identified by {@code encryption.master.key-id}. Retired secrets are listed in
+ * {@code encryption.master.previous-secrets} as {@code id:secret} pairs separated
+ * by commas. Legacy AES/ECB ciphertexts carry no key id and are read with the
+ * secret identified by {@code encryption.master.legacy-key-id}.
+ *
+ * Legacy ciphertexts are told apart up front, never by trial: a row that isn't
+ * flagged as legacy is only ever opened as an envelope, so a tampered envelope or
+ * one under the wrong key fails instead of being handed to the unauthenticated ECB
+ * decoder. A flagged row is opened as an envelope if it carries a valid header
+ * (known version, flags and key id) and with ECB otherwise; it is never retried
+ * with ECB after GCM fails.
+ *
+ * Envelope layout:
+ * <pre>
+ *   [0]       header: format version (low nibble), flags (high nibble)
+ *   [1]       key id
+ *   [2..13]   IV (12 bytes)
+ *   [14..]    ciphertext followed by the 16-byte GCM tag
+ * </pre>
+ * The header and key id are passed to GCM as additional authenticated data,
+ * so they cannot be altered without failing tag verification.
+ * Flag 0x10 marks a plaintext that was deflated before encryption.
  */
 @Service
 public class EncryptionService {
@@ -40,72 +98,557 @@ public class EncryptionService {
     @Value("${encryption.master.secret:changeThisInProduction}")
     private String masterSecret;
 
-    private static final String CIPHER_MODE = "AES";
+    @Value("${encryption.master.key-id:1}")
+    private int activeKeyId;
+
+    @Value("${encryption.master.previous-secrets:}")
+    private String previousSecrets;
+
+    @Value("${encryption.master.legacy-key-id:1}")
+    private int legacyKeyId;
+
+    @Value("${encryption.key-cache.size:10000}")
+    private int keyCacheSize;
+
+    @Value("${encryption.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    @Value("${encryption.compression.min-bytes:512}")
+    private int compressionMinBytes;
+
+    @Value("${encryption.batch.parallel-threshold:32}")
+    private int parallelThreshold;
+
+    @Value("${encryption.batch.threads:0}")
+    private int batchThreads;
+
+    private ExecutorService cryptoPool;
+    private int cryptoPoolSize;
+
+    // Master secrets by key id, including the active one
+    private Map<Integer, String> masterSecrets;
+
+    // Derived conversation keys by (key id, conversation id), least recently used evicted first
+    private Map<KeyCacheKey, SecretKey> keyCache;
+
+    // Preview keys by master key id
+    private final Map<Integer, SecretKey> previewKeys = new ConcurrentHashMap<>();
+
+    private static final String KEY_ALGORITHM = "AES";
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String LEGACY_CIPHER_TRANSFORMATION = "AES/ECB/PKCS5Padding";
     private static final int GCM_IV_LENGTH = 12; // 96 bits
     private static final int GCM_TAG_LENGTH = 16; // 128 bits
     private static final int PBKDF2_ITERATIONS = 100000; // OWASP recommended minimum
     private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA256";
+    // Not a number, so it can never collide with a conversation ID context
+    private static final String PREVIEW_KEY_CONTEXT = "conversation-preview";
+
+    static final int FORMAT_VERSION = 1;
+    private static final int VERSION_MASK = 0x0F;
+    private static final int FLAG_DEFLATE = 0x10;
+    private static final int HEADER_LENGTH = 2; // header byte + key id byte
+    private static final int ENVELOPE_OVERHEAD = HEADER_LENGTH + GCM_IV_LENGTH + GCM_TAG_LENGTH;
+
+    // Upper bound on an inflated body; real bodies are at most 5000 chars (15000 UTF-8 bytes)
+    private static final int MAX_INFLATED_LENGTH = 64 * 1024;
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    // Cipher instances are not thread-safe, but are cheap to re-init; keep one per thread
+    private static final ThreadLocal<Cipher> GCM_CIPHER =
+            ThreadLocal.withInitial(() -> newCipher(CIPHER_TRANSFORMATION));
+    private static final ThreadLocal<Cipher> LEGACY_CIPHER =
+            ThreadLocal.withInitial(() -> newCipher(LEGACY_CIPHER_TRANSFORMATION));
+
+    // Plaintext scratch buffer, grown on demand and reused per thread
+    private static final ThreadLocal<OutputBuffer> OUTPUT_BUFFER = ThreadLocal.withInitial(OutputBuffer::new);
+
+    // Deflater/Inflater hold native zlib state; reset and reuse them per thread instead of reallocating
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    @PostConstruct
+    void init() {
+        masterSecrets = parseMasterSecrets();
+
+        int cacheCapacity = Math.max(keyCacheSize, 1);
+        keyCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<KeyCacheKey, SecretKey> eldest) {
+                return size() > cacheCapacity;
+            }
+        });
+
+        cryptoPoolSize = batchThreads > 0
+                ? batchThreads
+                : Math.min(4, Runtime.getRuntime().availableProcessors());
+        AtomicInteger threadCount = new AtomicInteger();
+        cryptoPool = Executors.newFixedThreadPool(cryptoPoolSize, runnable -> {
+            Thread thread = new Thread(runnable, "crypto-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private Map<Integer, String> parseMasterSecrets() {
+        Map<Integer, String> secrets = new HashMap<>();
+        if (previousSecrets != null && !previousSecrets.isBlank()) {
+            for (String entry : previousSecrets.split(",")) {
+                int separator = entry.indexOf(':');
+                if (separator <= 0) {
+                    throw new IllegalStateException("encryption.master.previous-secrets entries must be id:secret");
+                }
+                secrets.put(validKeyId(Integer.parseInt(entry.substring(0, separator).trim()),
+                        "encryption.master.previous-secrets"), entry.substring(separator + 1).trim());
+            }
+        }
+        secrets.put(validKeyId(activeKeyId, "encryption.master.key-id"), masterSecret);
+        validKeyId(legacyKeyId, "encryption.master.legacy-key-id");
+        return Map.copyOf(secrets);
+    }
+
+    private static int validKeyId(int keyId, String property) {
+        if (keyId < 0 || keyId > 0xFF) {
+            throw new IllegalStateException(property + " key ids must be between 0 and 255");
+        }
+        return keyId;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (cryptoPool != null) {
+            cryptoPool.shutdownNow();
+        }
+    }
 
     /**
-     * Encrypt a message using AES encryption.
+     * Encrypt a message using AES-GCM under the active master key.
      * Uses a deterministic key derived from conversation ID.
      *
      * @param plaintext Message to encrypt
      * @param conversationId Conversation ID for key derivation
-     * @return Base64-encoded encrypted message
+     * @return Encryption envelope
      */
-    public String encrypt(String plaintext, Long conversationId) {
+    public byte[] encrypt(String plaintext, Long conversationId) {
         try {
-            SecretKey key = deriveKey(conversationId);
-            Cipher cipher = Cipher.getInstance(CIPHER_MODE);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-
-            byte[] encryptedBytes = cipher.doFinal(plaintext.getBytes());
-            return Base64.encodeBase64String(encryptedBytes);
+            return encryptWith(plaintext, conversationKey(activeKeyId, conversationId));
         } catch (Exception e) {
             throw new RuntimeException("Encryption failed: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Decrypt a message using AES decryption.
+     * Start a re-encryption session for a bulk job such as key rotation.
      *
-     * @param encryptedText Base64-encoded encrypted message
+     * The session derives keys into a cache of its own that holds only the current
+     * conversation's keys, so a sweep over every conversation neither evicts the keys live
+     * traffic uses from the shared cache nor grows it. Derivations are counted, so the
+     * caller can throttle on them. A session is not thread-safe.
+     */
+    public ReEncryptionSession newReEncryptionSession() {
+        return new ReEncryptionSession();
+    }
+
+    private byte[] encryptWith(String plaintext, SecretKey key) throws GeneralSecurityException {
+        byte[] bytes = plaintext.getBytes(StandardCharsets.UTF_8);
+
+        byte[] deflated = compressionEnabled && bytes.length >= compressionMinBytes ? deflate(bytes) : null;
+        if (deflated != null) {
+            return seal(deflated, FLAG_DEFLATE, key, (byte) activeKeyId, null);
+        }
+        return seal(bytes, 0, key, (byte) activeKeyId, null);
+    }
+
+    /**
+     * Decrypt a message envelope.
+     *
+     * @param ciphertext Encrypted message
      * @param conversationId Conversation ID for key derivation
      * @return Decrypted plaintext
      */
-    public String decrypt(String encryptedText, Long conversationId) {
-        try {
-            SecretKey key = deriveKey(conversationId);
-            Cipher cipher = Cipher.getInstance(CIPHER_MODE);
-            cipher.init(Cipher.DECRYPT_MODE, key);
+    public String decrypt(byte[] ciphertext, Long conversationId) {
+        return decryptAndCheck(ciphertext, conversationId, false).plaintext();
+    }
 
-            byte[] encryptedBytes = Base64.decodeBase64(encryptedText);
-            byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
-            return new String(decryptedBytes);
+    /**
+     * Decrypt a message envelope and report whether it should be rewritten (written
+     * under a retired master key).
+     *
+     * @param ciphertext Encrypted message
+     * @param conversationId Conversation ID for key derivation
+     * @return Decrypted plaintext together with the upgrade flag
+     */
+    public DecryptedMessage decryptAndCheck(byte[] ciphertext, Long conversationId) {
+        return decryptAndCheck(ciphertext, conversationId, false);
+    }
+
+    /**
+     * Decrypt a stored message and report whether it should be rewritten (legacy
+     * AES/ECB ciphertexts, or envelopes written under a retired master key).
+     *
+     * @param ciphertext Encrypted message
+     * @param conversationId Conversation ID for key derivation
+     * @param legacy Whether the row is flagged as a possible legacy ciphertext
+     * @return Decrypted plaintext together with the upgrade flag
+     */
+    public DecryptedMessage decryptAndCheck(byte[] ciphertext, Long conversationId, boolean legacy) {
+        try {
+            return decryptWithKeyRing(ciphertext, conversationId, this::conversationKey, legacy);
         } catch (Exception e) {
             throw new RuntimeException("Decryption failed: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Derive a deterministic encryption key from conversation ID using PBKDF2.
+     * Encrypt a short conversation preview under the active master key's preview key.
+     *
+     * @param preview Preview text (a truncated, sanitized message body)
+     * @param conversationId Conversation the preview belongs to, bound as additional authenticated data
+     * @return Encryption envelope
+     */
+    public byte[] encryptPreview(String preview, Long conversationId) {
+        try {
+            return seal(preview.getBytes(StandardCharsets.UTF_8), 0, previewKey(activeKeyId),
+                    (byte) activeKeyId, conversationAad(conversationId));
+        } catch (Exception e) {
+            throw new RuntimeException("Preview encryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decrypt a conversation preview written by {@link #encryptPreview}.
+     *
+     * @param envelope Encrypted preview
+     * @param conversationId Conversation the preview belongs to
+     * @return Preview text
+     */
+    public String decryptPreview(byte[] envelope, Long conversationId) {
+        try {
+            int keyId = keyIdOf(envelope);
+            if (keyId < 0) {
+                throw new GeneralSecurityException("Not a preview envelope");
+            }
+            byte[] output = OUTPUT_BUFFER.get().forCiphertext(envelope.length);
+            int plainLength = open(envelope, envelope.length, previewKey(keyId), conversationAad(conversationId), output);
+            return new String(output, 0, plainLength, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new RuntimeException("Preview decryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decrypt a page of messages belonging to one conversation.
+     *
+     * Each conversation key is derived at most once for the whole page. Pages larger than
+     * the parallel threshold are split into contiguous chunks and decrypted on the
+     * crypto pool, with the calling thread taking the first chunk.
+     *
+     * @param ciphertexts Encrypted messages
+     * @param conversationId Conversation ID for key derivation
+     * @return Decryption results in input order; an entry is null if that message failed to decrypt
+     */
+    public List<DecryptedMessage> decryptBatch(List<byte[]> ciphertexts, Long conversationId) {
+        return decryptBatch(ciphertexts, new BitSet(), conversationId);
+    }
+
+    /**
+     * Decrypt a page of stored messages belonging to one conversation, some of which
+     * may be flagged as legacy; see {@link #decryptBatch(List, Long)}.
+     *
+     * @param ciphertexts Encrypted messages
+     * @param legacy Indexes of the entries flagged as possible legacy ciphertexts
+     * @param conversationId Conversation ID for key derivation
+     * @return Decryption results in input order; an entry is null if that message failed to decrypt
+     */
+    public List<DecryptedMessage> decryptBatch(List<byte[]> ciphertexts, BitSet legacy, Long conversationId) {
+        int size = ciphertexts.size();
+        if (size == 0) {
+            return List.of();
+        }
+
+        DecryptedMessage[] results = new DecryptedMessage[size];
+
+        // Derive the active key up front so workers don't race to derive it
+        try {
+            conversationKey(activeKeyId, conversationId);
+        } catch (UnknownKeyIdException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int chunks = size < parallelThreshold ? 1 : Math.min(cryptoPoolSize + 1, size);
+        int chunkSize = (size + chunks - 1) / chunks;
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>(chunks - 1);
+        for (int from = chunkSize; from < size; from += chunkSize) {
+            int start = from;
+            int end = Math.min(from + chunkSize, size);
+            pending.add(CompletableFuture.runAsync(
+                    () -> decryptRange(ciphertexts, legacy, conversationId, results, start, end), cryptoPool));
+        }
+
+        decryptRange(ciphertexts, legacy, conversationId, results, 0, Math.min(chunkSize, size));
+        pending.forEach(CompletableFuture::join);
+
+        return Arrays.asList(results);
+    }
+
+    private void decryptRange(List<byte[]> ciphertexts, BitSet legacy, Long conversationId,
+                              DecryptedMessage[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            try {
+                results[i] = decryptWithKeyRing(ciphertexts.get(i), conversationId, this::conversationKey,
+                        legacy.get(i));
+            } catch (Exception e) {
+                log.debug("Batch decryption failed for entry {}", i, e);
+                results[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Decrypt a single ciphertext with the conversation key for the master key it
+     * was written under, using the calling thread's scratch buffer.
+     *
+     * @param legacy Whether the row is flagged as a possible legacy ciphertext; only then,
+     *               and only without a valid envelope header, is the ECB decoder used
+     */
+    private DecryptedMessage decryptWithKeyRing(byte[] ciphertext, Long conversationId, KeySource keys,
+                                                boolean legacy) throws GeneralSecurityException {
+        int length = ciphertext.length;
+        byte[] output = OUTPUT_BUFFER.get().forCiphertext(length);
+
+        if (legacy && !hasEnvelopeHeader(ciphertext)) {
+            int plainLength = openLegacy(ciphertext, length, keys.key(legacyKeyId, conversationId), output);
+            return new DecryptedMessage(new String(output, 0, plainLength, StandardCharsets.UTF_8), true);
+        }
+
+        int keyId = keyIdOf(ciphertext);
+        if (keyId < 0) {
+            throw new GeneralSecurityException("Not a message envelope");
+        }
+        int plainLength = open(ciphertext, length, keys.key(keyId, conversationId), null, output);
+        if ((ciphertext[0] & FLAG_DEFLATE) != 0) {
+            return new DecryptedMessage(inflate(output, plainLength), legacy || keyId != activeKeyId);
+        }
+        return new DecryptedMessage(new String(output, 0, plainLength, StandardCharsets.UTF_8),
+                legacy || keyId != activeKeyId);
+    }
+
+    /**
+     * Whether a ciphertext starts with a header this service could have written: the
+     * current version, no unknown flags and a configured key id.
+     */
+    private boolean hasEnvelopeHeader(byte[] ciphertext) {
+        int keyId = keyIdOf(ciphertext);
+        return keyId >= 0
+                && (ciphertext[0] & ~(VERSION_MASK | FLAG_DEFLATE) & 0xFF) == 0
+                && masterSecrets.containsKey(keyId);
+    }
+
+    /**
+     * Encrypt plaintext bytes into a binary envelope.
+     */
+    private byte[] seal(byte[] plaintext, int flags, SecretKey key, byte keyId, byte[] extraAad)
+            throws GeneralSecurityException {
+        byte[] envelope = new byte[ENVELOPE_OVERHEAD + plaintext.length];
+        envelope[0] = (byte) (FORMAT_VERSION | flags);
+        envelope[1] = keyId;
+
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        SECURE_RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, envelope, HEADER_LENGTH, GCM_IV_LENGTH);
+
+        Cipher cipher = GCM_CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+        cipher.updateAAD(envelope, 0, HEADER_LENGTH);
+        if (extraAad != null) {
+            cipher.updateAAD(extraAad);
+        }
+        cipher.doFinal(plaintext, 0, plaintext.length, envelope, HEADER_LENGTH + GCM_IV_LENGTH);
+        return envelope;
+    }
+
+    /**
+     * Decrypt and authenticate a binary envelope into {@code output}.
+     *
+     * @return number of plaintext bytes written
+     */
+    private int open(byte[] envelope, int length, SecretKey key, byte[] extraAad, byte[] output)
+            throws GeneralSecurityException {
+        Cipher cipher = GCM_CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(GCM_TAG_LENGTH * 8, envelope, HEADER_LENGTH, GCM_IV_LENGTH));
+        cipher.updateAAD(envelope, 0, HEADER_LENGTH);
+        if (extraAad != null) {
+            cipher.updateAAD(extraAad);
+        }
+        int offset = HEADER_LENGTH + GCM_IV_LENGTH;
+        return cipher.doFinal(envelope, offset, length - offset, output, 0);
+    }
+
+    /**
+     * Decrypt a ciphertext written by the original AES/ECB implementation into {@code output}.
+     *
+     * @return number of plaintext bytes written
+     */
+    private int openLegacy(byte[] ciphertext, int length, SecretKey key, byte[] output) throws GeneralSecurityException {
+        Cipher cipher = LEGACY_CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, key);
+        return cipher.doFinal(ciphertext, 0, length, output, 0);
+    }
+
+    /**
+     * Raw-deflate a plaintext.
+     *
+     * @return compressed bytes, or null if compression would not make the payload smaller
+     */
+    private static byte[] deflate(byte[] plaintext) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(plaintext);
+        deflater.finish();
+
+        // Only worth keeping if it saves bytes, so never write more than the input length
+        byte[] buffer = new byte[plaintext.length];
+        int length = deflater.deflate(buffer);
+        if (!deflater.finished() || length >= plaintext.length) {
+            return null;
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Inflate a decrypted, deflated plaintext.
+     */
+    private static String inflate(byte[] deflated, int length) throws GeneralSecurityException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(deflated, 0, length);
+
+        OutputBuffer buffer = OUTPUT_BUFFER.get();
+        byte[] output = buffer.forInflated(length * 4);
+        int written = 0;
+        try {
+            while (!inflater.finished()) {
+                if (written == output.length) {
+                    if (output.length >= MAX_INFLATED_LENGTH) {
+                        throw new GeneralSecurityException("Inflated message exceeds " + MAX_INFLATED_LENGTH + " bytes");
+                    }
+                    output = buffer.forInflated(Math.min(output.length * 2, MAX_INFLATED_LENGTH));
+                }
+                int n = inflater.inflate(output, written, output.length - written);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new GeneralSecurityException("Truncated deflate stream");
+                }
+                written += n;
+            }
+        } catch (DataFormatException e) {
+            throw new GeneralSecurityException("Corrupt deflate stream", e);
+        }
+        return new String(output, 0, written, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the master key id from an envelope header without decrypting it.
+     *
+     * @param ciphertext Stored ciphertext
+     * @return key id, or -1 if the bytes are not in the current envelope format
+     */
+    public int keyIdOf(byte[] ciphertext) {
+        if (ciphertext == null || ciphertext.length < ENVELOPE_OVERHEAD
+                || (ciphertext[0] & VERSION_MASK) != FORMAT_VERSION) {
+            return -1;
+        }
+        return ciphertext[1] & 0xFF;
+    }
+
+    /**
+     * @return id of the master key new ciphertexts are written under
+     */
+    public int getActiveKeyId() {
+        return activeKeyId;
+    }
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("Cipher " + transformation + " is not available", e);
+        }
+    }
+
+    /**
+     * Get the conversation key for a master key id, deriving it on first use.
+     *
+     * @throws UnknownKeyIdException if no master secret is configured for the key id
+     */
+    private SecretKey conversationKey(int keyId, Long conversationId) throws UnknownKeyIdException {
+        String secret = masterSecrets.get(keyId);
+        if (secret == null) {
+            throw new UnknownKeyIdException(keyId);
+        }
+
+        KeyCacheKey cacheKey = new KeyCacheKey(keyId, conversationId);
+        SecretKey key = keyCache.get(cacheKey);
+        if (key == null) {
+            // Concurrent misses may derive the same key twice; the result is identical
+            key = deriveKey(secret, conversationId);
+            keyCache.put(cacheKey, key);
+        }
+        return key;
+    }
+
+    /**
+     * Get the preview key for a master key id, deriving it on first use.
+     * Preview keys are independent of conversation keys, so the inbox needs one
+     * derivation per master key instead of one per conversation.
+     *
+     * @throws UnknownKeyIdException if no master secret is configured for the key id
+     */
+    private SecretKey previewKey(int keyId) throws UnknownKeyIdException {
+        SecretKey key = previewKeys.get(keyId);
+        if (key == null) {
+            String secret = masterSecrets.get(keyId);
+            if (secret == null) {
+                throw new UnknownKeyIdException(keyId);
+            }
+            key = previewKeys.computeIfAbsent(keyId, id -> deriveKey(secret, PREVIEW_KEY_CONTEXT));
+        }
+        return key;
+    }
+
+    private static byte[] conversationAad(Long conversationId) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(conversationId).array();
+    }
+
+    /**
+     * Derive a deterministic encryption key from master secret and conversation ID using PBKDF2.
      * This ensures the same conversation always uses the same key with strong cryptography.
      *
      * Uses PBKDF2-HMAC-SHA256 with 100,000 iterations (OWASP recommended minimum).
      *
+     * @param secret Master secret
      * @param conversationId Conversation ID
      * @return SecretKey for encryption/decryption
      */
-    private SecretKey deriveKey(Long conversationId) {
+    private SecretKey deriveKey(String secret, Long conversationId) {
+        return deriveKey(secret, String.valueOf(conversationId));
+    }
+
+    /**
+     * Derive a deterministic key from master secret and a context string using PBKDF2.
+     */
+    private SecretKey deriveKey(String secret, String context) {
         try {
-            // Use conversation ID as the "password" for PBKDF2
-            // In a real system, combine this with a master secret
-            String password = masterSecret + ":" + conversationId;
+            // Combine the master secret with the context (conversation ID) as the PBKDF2 "password"
+            String password = secret + ":" + context;
 
-            // Use conversation ID as salt (deterministic per conversation)
+            // Use the context as salt (deterministic per conversation)
             // In production, consider using a longer, more complex salt
-            byte[] salt = String.valueOf(conversationId).getBytes(StandardCharsets.UTF_8);
+            byte[] salt = context.getBytes(StandardCharsets.UTF_8);
 
             // Derive key using PBKDF2
             KeySpec spec = new PBEKeySpec(
@@ -118,9 +661,9 @@ public class EncryptionService {
             SecretKeyFactory factory = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
             byte[] keyBytes = factory.generateSecret(spec).getEncoded();
 
-            return new SecretKeySpec(keyBytes, CIPHER_MODE);
+            return new SecretKeySpec(keyBytes, KEY_ALGORITHM);
         } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            log.error("Key derivation failed for conversation {}", conversationId, e);
+            log.error("Key derivation failed for context {}", context, e);
             throw new RuntimeException("Key derivation failed: " + e.getMessage(), e);
         }
     }
@@ -133,11 +676,132 @@ public class EncryptionService {
      */
     public SecretKey generateRandomKey() {
         try {
-            KeyGenerator keyGenerator = KeyGenerator.getInstance(CIPHER_MODE);
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(KEY_ALGORITHM);
             keyGenerator.init(keySize, new SecureRandom());
             return keyGenerator.generateKey();
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Key generation failed: " + e.getMessage(), e);
         }
     }
+
+    private record KeyCacheKey(int keyId, Long conversationId) {
+    }
+
+    /**
+     * Source of conversation keys by master key id.
+     */
+    @FunctionalInterface
+    private interface KeySource {
+        SecretKey key(int keyId, Long conversationId) throws UnknownKeyIdException;
+    }
+
+    /**
+     * Re-encrypts ciphertexts under the active master key with a job-local key cache,
+     * see {@link #newReEncryptionSession()}. Rows are expected grouped by conversation;
+     * moving to another conversation drops the previous one's keys.
+     */
+    public final class ReEncryptionSession {
+
+        private Long conversationId;
+        private final Map<Integer, SecretKey> keys = new HashMap<>();
+        private long derivations;
+
+        private ReEncryptionSession() {
+        }
+
+        /**
+         * Decrypt a stored ciphertext (any known key id, or legacy AES/ECB for rows flagged
+         * as legacy) and encrypt it again under the active master key.
+         *
+         * @param legacy Whether the row is flagged as a possible legacy ciphertext
+         * @return New envelope
+         */
+        public byte[] reEncrypt(byte[] ciphertext, Long conversationId, boolean legacy) {
+            try {
+                String plaintext = decryptWithKeyRing(ciphertext, conversationId, this::key, legacy).plaintext();
+                return encryptWith(plaintext, key(activeKeyId, conversationId));
+            } catch (Exception e) {
+                throw new RuntimeException("Re-encryption failed: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Decrypt a stored ciphertext (any known key id, or legacy AES/ECB for rows flagged
+         * as legacy) with this session's keys.
+         *
+         * @param legacy Whether the row is flagged as a possible legacy ciphertext
+         * @return Plaintext
+         */
+        public String decrypt(byte[] ciphertext, Long conversationId, boolean legacy) {
+            try {
+                return decryptWithKeyRing(ciphertext, conversationId, this::key, legacy).plaintext();
+            } catch (Exception e) {
+                throw new RuntimeException("Decryption failed: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * @return Number of PBKDF2 key derivations this session has run
+         */
+        public long getDerivationCount() {
+            return derivations;
+        }
+
+        private SecretKey key(int keyId, Long conversationId) throws UnknownKeyIdException {
+            if (!conversationId.equals(this.conversationId)) {
+                keys.clear();
+                this.conversationId = conversationId;
+            }
+            SecretKey key = keys.get(keyId);
+            if (key == null) {
+                String secret = masterSecrets.get(keyId);
+                if (secret == null) {
+                    throw new UnknownKeyIdException(keyId);
+                }
+                key = deriveKey(secret, conversationId);
+                keys.put(keyId, key);
+                derivations++;
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Raised when a ciphertext names a master key id that is not configured.
+     */
+    private static final class UnknownKeyIdException extends GeneralSecurityException {
+        UnknownKeyIdException(int keyId) {
+            super("No master secret configured for key id " + keyId);
+        }
+    }
+
+    /**
+     * Per-thread scratch space for decrypted and inflated plaintext.
+     */
+    private static final class OutputBuffer {
+        private byte[] bytes = new byte[1024];
+        private byte[] inflated = new byte[4096];
+
+        byte[] forCiphertext(int ciphertextLength) {
+            // Legacy ECB output can be as long as the ciphertext; GCM output is always shorter
+            if (bytes.length < ciphertextLength) {
+                bytes = new byte[Math.max(ciphertextLength, bytes.length * 2)];
+            }
+            return bytes;
+        }
+
+        byte[] forInflated(int length) {
+            // Keep what has been inflated so far when growing mid-stream
+            if (inflated.length < length) {
+                inflated = Arrays.copyOf(inflated, Math.min(Math.max(length, inflated.length * 2), MAX_INFLATED_LENGTH));
+            }
+            return inflated;
+        }
+    }
+
+    /**
+     * Result of a decryption, flagging ciphertexts that are not in the current format.
+     */
+    public record DecryptedMessage(String plaintext, boolean needsReEncryption) {
+    }
 }
@@ -0,0 +1,215 @@
+package com.teachandserve.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.teachandserve.backend.dto.ConversationDelta;
+import com.teachandserve.backend.dto.ConversationResponse;
+import com.teachandserve.backend.dto.MessageResponse;
+import com.teachandserve.backend.dto.ParticipantDto;
+import com.teachandserve.backend.events.ConversationCreatedEvent;
+import com.teachandserve.backend.events.MessageSentEvent;
+import com.teachandserve.backend.events.MessagesReadEvent;
+import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps inboxes up to date after commit: updates the Redis unread counters and pushes
+ * {@link ConversationDelta} events to /topic/users.{userId}.conversations, so clients
+ * patch their conversation list instead of refetching it on every message.
+ *
+ * Deltas are numbered by a per-user Redis counter ("inbox:seq:{userId}", incremented and
+ * refreshed in one script call), which lets clients detect missed updates and reload. If
+ * Redis is unavailable the delta is sent without a sequence number, which clients treat
+ * as a gap.
+ *
+ * Delivery order follows sequence order for deltas published by one instance:
+ * - a sequence number is taken and the delta queued on {@link MessagingPublisher}'s
+ *   dispatcher under a per-user lock, so concurrent commits queue in the order they
+ *   were numbered
+ * - the dispatcher sends in queue order, Redis relays each channel in order, and the
+ *   broker preserves publish order per session
+ *
+ * Deltas for one user published by different instances can still arrive out of order;
+ * clients treat that like a gap.
+ *
+ * A sent message produces the same delta for every participant except for the sequence
+ * number and unread count, so it is serialized once and each participant's copy only
+ * prepends those two fields.
+ */
+@Service
+public class InboxEventPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(InboxEventPublisher.class);
+
+    private static final String SEQ_KEY_PREFIX = "inbox:seq:";
+
+    // KEYS[1] = counter, ARGV[1] = ttl seconds
+    private static final RedisScript<Long> NEXT_SEQ_SCRIPT = new DefaultRedisScript<>("""
+        local seq = redis.call('INCR', KEYS[1])
+        redis.call('EXPIRE', KEYS[1], ARGV[1])
+        return seq
+        """, Long.class);
+
+
+    private final MessagingPublisher messagingPublisher;
+    private final StringRedisTemplate redisTemplate;
+    private final UnreadCounterService unreadCounterService;
+    private final UserRepository userRepository;
+    private final ObjectMapper objectMapper;
+
+    @Value("${messaging.inbox.seq-ttl-seconds:604800}")
+    private long seqTtlSeconds;
+
+    // Held while numbering and queueing a user's delta, striped by user id
+    private final Object[] stripes = new Object[64];
+
+    public InboxEventPublisher(MessagingPublisher messagingPublisher,
+                               StringRedisTemplate redisTemplate,
+                               UnreadCounterService unreadCounterService,
+                               UserRepository userRepository,
+                               ObjectMapper objectMapper) {
+        this.messagingPublisher = messagingPublisher;
+        this.redisTemplate = redisTemplate;
+        this.unreadCounterService = unreadCounterService;
+        this.userRepository = userRepository;
+        this.objectMapper = objectMapper;
+        Arrays.setAll(stripes, i -> new Object());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageSent(MessageSentEvent event) {
+        Map<Long, Long> unreadCounts = unreadCounterService.messageSent(
+                event.getConversationId(), event.getSenderId(), event.getParticipantIds());
+
+        MessageResponse message = event.getMessage();
+        byte[] shared = toJson(new ConversationDelta.MessageAdded(
+                event.getConversationId(),
+                message.getId(),
+                message.getSenderId(),
+                message.getSenderName(),
+                ConversationService.toPreview(message.getBody()),
+                message.getCreatedAt(),
+                null));
+        for (Long userId : event.getParticipantIds()) {
+            synchronized (stripe(userId)) {
+                messagingPublisher.publish(buildDestination(userId),
+                        withRecipientFields(shared, nextSeq(userId), unreadCounts.get(userId)));
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessagesRead(MessagesReadEvent event) {
+        unreadCounterService.setUnread(event.getUserId(), event.getConversationId(), event.getUnreadCount());
+
+        // Read state only shows in the reader's own inbox
+        publish(event.getUserId(), new ConversationDelta.ReadStateChanged(
+                event.getConversationId(), event.getLastReadMessageId(), event.getUnreadCount()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationCreated(ConversationCreatedEvent event) {
+        List<User> participants = userRepository.findAllById(event.getParticipantIds());
+
+        for (Long userId : event.getParticipantIds()) {
+            // Like the conversation list, each user sees the other participants
+            List<ParticipantDto> others = participants.stream()
+                    .filter(user -> !user.getId().equals(userId))
+                    .map(user -> new ParticipantDto(
+                            user.getId(),
+                            user.getFirstName() != null ? user.getFirstName() : user.getEmail(),
+                            user.getEmail(),
+                            null))
+                    .collect(Collectors.toList());
+
+            publish(userId, new ConversationDelta.ConversationCreated(new ConversationResponse(
+                    event.getConversationId(), others, null, 0, event.getCreatedAt(), event.getCreatedAt())));
+        }
+    }
+
+    /**
+     * Get the sequence number of the last delta sent to a user.
+     *
+     * @param userId User ID
+     * @return Last sequence number (0 if none was sent recently), or null if unavailable
+     */
+    public Long getCurrentSeq(Long userId) {
+        try {
+            String seq = redisTemplate.opsForValue().get(buildSeqKey(userId));
+            return seq != null ? Long.valueOf(seq) : 0L;
+        } catch (Exception e) {
+            log.debug("Inbox sequence unavailable for user {}", userId, e);
+            return null;
+        }
+    }
+
+    private void publish(Long userId, ConversationDelta delta) {
+        synchronized (stripe(userId)) {
+            delta.setSeq(nextSeq(userId));
+            messagingPublisher.publish(buildDestination(userId), delta);
+        }
+    }
+
+    private Object stripe(Long userId) {
+        return stripes[Math.floorMod(userId.hashCode(), stripes.length)];
+    }
+
+    /**
+     * Copy a serialized delta (a JSON object without seq and unreadCount) with the
+     * recipient's values for those fields inserted first.
+     */
+    private static byte[] withRecipientFields(byte[] shared, Long seq, Long unreadCount) {
+        StringBuilder fields = new StringBuilder("{");
+        if (seq != null) {
+            fields.append("\"seq\":").append(seq).append(',');
+        }
+        if (unreadCount != null) {
+            fields.append("\"unreadCount\":").append(unreadCount).append(',');
+        }
+        byte[] prefix = fields.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] json = new byte[prefix.length + shared.length - 1];
+        System.arraycopy(prefix, 0, json, 0, prefix.length);
+        System.arraycopy(shared, 1, json, prefix.length, shared.length - 1);
+        return json;
+    }
+
+    private byte[] toJson(ConversationDelta delta) {
+        try {
+            return objectMapper.writeValueAsBytes(delta);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize inbox delta", e);
+        }
+    }
+
+    private String buildDestination(Long userId) {
+        return "/topic/users." + userId + ".conversations";
+    }
+
+    private Long nextSeq(Long userId) {
+        try {
+            return redisTemplate.execute(NEXT_SEQ_SCRIPT, List.of(buildSeqKey(userId)),
+                    String.valueOf(seqTtlSeconds));
+        } catch (Exception e) {
+            log.debug("Failed to allocate inbox sequence for user {}", userId, e);
+            return null;
+        }
+    }
+
+    private String buildSeqKey(Long userId) {
+        return SEQ_KEY_PREFIX + userId;
+    }
+}
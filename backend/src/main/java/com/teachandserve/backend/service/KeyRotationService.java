@@ -0,0 +1,291 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.model.KeyRotationCheckpoint;
+import com.teachandserve.backend.repository.KeyRotationCheckpointRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Background job that re-encrypts stored messages under the active master key.
+ *
+ * After rotating {@code encryption.master.secret} (new key id, old secret moved to
+ * {@code encryption.master.previous-secrets}), reads keep working against mixed key
+ * ids while this job walks the messages table and rewrites old ciphertexts.
+ *
+ * Reads never write, so legacy AES/ECB rows ({@code messages.legacy_body}) are upgraded
+ * here too: a legacy pass, on by default ({@code encryption.rotation.legacy.enabled}),
+ * walks only the flagged rows through a partial index and rewrites them. It needs no
+ * checkpoint, since rewritten rows leave the index; rows that can't be decrypted stay
+ * flagged and are retried on the next run.
+ *
+ * How it stays cheap on a large table:
+ * - Keyset pagination over (conversation_id, id), so each batch is an index range scan
+ *   and each conversation's keys are derived once for the whole run, into a job-local
+ *   cache ({@link EncryptionService.ReEncryptionSession}) that leaves the shared key
+ *   cache used by live traffic untouched
+ * - Rows already under the active key are skipped by peeking at the envelope header;
+ *   rows flagged as legacy are always rewritten, which clears the flag
+ * - Rewrites go out as one JDBC batch per page, each row guarded by a compare-and-set
+ *   on the old body, so concurrent writers are never overwritten and no locks are held
+ * - Rows-per-second and key-derivations-per-second caps throttle the job; every
+ *   conversation costs two PBKDF2 derivations, so rows alone don't bound its CPU use
+ * - Progress is checkpointed per batch; a lease on the checkpoint row keeps
+ *   the job on one instance and lets another instance resume after a crash
+ */
+@Service
+public class KeyRotationService {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyRotationService.class);
+
+    private static final String SELECT_BATCH_SQL = """
+        SELECT id, conversation_id, body, legacy_body
+        FROM messages
+        WHERE (conversation_id, id) > (?, ?)
+        ORDER BY conversation_id, id
+        LIMIT ?
+    """;
+
+    private static final String SELECT_LEGACY_BATCH_SQL = """
+        SELECT id, conversation_id, body, legacy_body
+        FROM messages
+        WHERE legacy_body AND (conversation_id, id) > (?, ?)
+        ORDER BY conversation_id, id
+        LIMIT ?
+    """;
+
+    // Checkpoint row holding the legacy pass's lease; master key ids are 0-255
+    private static final int LEGACY_PASS_ID = -1;
+
+    private static final String UPDATE_BODY_SQL =
+            "UPDATE messages SET body = ?, legacy_body = FALSE WHERE id = ? AND body = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EncryptionService encryptionService;
+    private final KeyRotationCheckpointRepository checkpointRepository;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${encryption.rotation.enabled:false}")
+    private boolean rotationEnabled;
+
+    @Value("${encryption.rotation.legacy.enabled:true}")
+    private boolean legacyPassEnabled;
+
+    @Value("${encryption.rotation.batch-size:500}")
+    private int batchSize;
+
+    @Value("${encryption.rotation.max-rows-per-second:2000}")
+    private int maxRowsPerSecond;
+
+    @Value("${encryption.rotation.max-derivations-per-second:20}")
+    private int maxDerivationsPerSecond;
+
+    @Value("${encryption.rotation.lease-seconds:120}")
+    private int leaseSeconds;
+
+    public KeyRotationService(JdbcTemplate jdbcTemplate,
+                              EncryptionService encryptionService,
+                              KeyRotationCheckpointRepository checkpointRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.encryptionService = encryptionService;
+        this.checkpointRepository = checkpointRepository;
+    }
+
+    /**
+     * Periodically resume (or start) rotation to the active key, and rewrite legacy
+     * rows, if enabled.
+     */
+    @Scheduled(initialDelayString = "${encryption.rotation.initial-delay-ms:60000}",
+               fixedDelayString = "${encryption.rotation.interval-ms:300000}")
+    public void scheduledRotation() {
+        if (rotationEnabled) {
+            rotateToActiveKey();
+        }
+        if (legacyPassEnabled) {
+            rewriteLegacyRows();
+        }
+    }
+
+    /**
+     * Re-encrypt every message not yet under the active master key.
+     * Returns early if another thread or instance is already running the rotation.
+     *
+     * @return number of rows rewritten by this call
+     */
+    public long rotateToActiveKey() {
+        if (!running.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        int keyId = encryptionService.getActiveKeyId();
+        try {
+            KeyRotationCheckpoint checkpoint = loadCheckpoint(keyId);
+            if (checkpoint.isCompleted() || !acquireLease(keyId)) {
+                return 0;
+            }
+
+            log.info("Key rotation to key id {} resuming after conversation {}, message {}",
+                    keyId, checkpoint.getLastConversationId(), checkpoint.getLastMessageId());
+            return runRotation("Key rotation to key id " + keyId, keyId, SELECT_BATCH_SQL,
+                    checkpoint.getLastConversationId(), checkpoint.getLastMessageId(), true);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Re-encrypt every message flagged as a possible legacy AES/ECB ciphertext.
+     * Returns early if another thread or instance is already running a pass.
+     *
+     * @return number of rows rewritten by this call
+     */
+    public long rewriteLegacyRows() {
+        if (!running.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        try {
+            loadCheckpoint(LEGACY_PASS_ID);
+            if (!acquireLease(LEGACY_PASS_ID)) {
+                return 0;
+            }
+            return runRotation("Legacy body rewrite", LEGACY_PASS_ID, SELECT_LEGACY_BATCH_SQL, 0, 0, false);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Rewrite the rows a batch query returns, from a keyset position to the end.
+     *
+     * @param checkpointId Checkpoint row whose lease is held
+     * @param complete     Mark the checkpoint completed at the end, rather than only
+     *                     releasing the lease
+     */
+    private long runRotation(String job, int checkpointId, String selectSql,
+                             long lastConversationId, long lastMessageId, boolean complete) {
+        int keyId = encryptionService.getActiveKeyId();
+        long rewritten = 0;
+        EncryptionService.ReEncryptionSession session = encryptionService.newReEncryptionSession();
+        try {
+            while (true) {
+                long batchStart = System.nanoTime();
+                long derivationsBefore = session.getDerivationCount();
+
+                List<StoredMessage> batch = jdbcTemplate.query(selectSql,
+                        (rs, rowNum) -> new StoredMessage(
+                                rs.getLong("id"), rs.getLong("conversation_id"), rs.getBytes("body"),
+                                rs.getBoolean("legacy_body")),
+                        lastConversationId, lastMessageId, batchSize);
+
+                if (batch.isEmpty()) {
+                    if (complete) {
+                        checkpointRepository.complete(checkpointId, instanceId, LocalDateTime.now());
+                    } else {
+                        checkpointRepository.releaseLease(checkpointId, instanceId);
+                    }
+                    if (complete || rewritten > 0) {
+                        log.info("{} complete ({} rows rewritten by this instance)", job, rewritten);
+                    }
+                    return rewritten;
+                }
+
+                List<Object[]> updates = reEncrypt(session, batch, keyId);
+                if (!updates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(UPDATE_BODY_SQL, updates);
+                }
+                rewritten += updates.size();
+
+                StoredMessage last = batch.get(batch.size() - 1);
+                lastConversationId = last.conversationId();
+                lastMessageId = last.id();
+
+                LocalDateTime now = LocalDateTime.now();
+                if (checkpointRepository.advance(checkpointId, instanceId, lastConversationId, lastMessageId,
+                        updates.size(), now, now.plusSeconds(leaseSeconds)) == 0) {
+                    log.warn("{} lost its lease; stopping", job);
+                    return rewritten;
+                }
+
+                throttle(batch.size(), session.getDerivationCount() - derivationsBefore, batchStart);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            checkpointRepository.releaseLease(checkpointId, instanceId);
+            return rewritten;
+        } catch (RuntimeException e) {
+            log.error("{} failed after conversation {}, message {}", job, lastConversationId, lastMessageId, e);
+            checkpointRepository.releaseLease(checkpointId, instanceId);
+            return rewritten;
+        }
+    }
+
+    /**
+     * Build update parameters for every message in the batch not yet under {@code keyId}.
+     */
+    private List<Object[]> reEncrypt(EncryptionService.ReEncryptionSession session,
+                                     List<StoredMessage> batch, int keyId) {
+        List<Object[]> updates = new ArrayList<>(batch.size());
+        for (StoredMessage message : batch) {
+            if (!message.legacy() && encryptionService.keyIdOf(message.body()) == keyId) {
+                continue;
+            }
+            try {
+                byte[] newBody = session.reEncrypt(message.body(), message.conversationId(), message.legacy());
+                updates.add(new Object[] {newBody, message.id(), message.body()});
+            } catch (RuntimeException e) {
+                log.warn("Skipping message {} during key rotation: {}", message.id(), e.getMessage());
+            }
+        }
+        return updates;
+    }
+
+    private KeyRotationCheckpoint loadCheckpoint(int keyId) {
+        return checkpointRepository.findById(keyId).orElseGet(() -> {
+            try {
+                return checkpointRepository.saveAndFlush(new KeyRotationCheckpoint(keyId));
+            } catch (DataIntegrityViolationException e) {
+                // Another instance created it first
+                return checkpointRepository.findById(keyId).orElseThrow();
+            }
+        });
+    }
+
+    private boolean acquireLease(int keyId) {
+        LocalDateTime now = LocalDateTime.now();
+        return checkpointRepository.acquireLease(keyId, instanceId, now, now.plusSeconds(leaseSeconds)) == 1;
+    }
+
+    /**
+     * Sleep long enough that this batch exceeds neither the rows-per-second nor the
+     * derivations-per-second rate.
+     */
+    private void throttle(int rows, long derivations, long batchStartNanos) throws InterruptedException {
+        long targetMillis = 0;
+        if (maxRowsPerSecond > 0) {
+            targetMillis = rows * 1000L / maxRowsPerSecond;
+        }
+        if (maxDerivationsPerSecond > 0) {
+            targetMillis = Math.max(targetMillis, derivations * 1000L / maxDerivationsPerSecond);
+        }
+        long elapsedMillis = (System.nanoTime() - batchStartNanos) / 1_000_000;
+        if (targetMillis > elapsedMillis) {
+            Thread.sleep(targetMillis - elapsedMillis);
+        }
+    }
+
+    private record StoredMessage(long id, long conversationId, byte[] body, boolean legacy) {
+    }
+}
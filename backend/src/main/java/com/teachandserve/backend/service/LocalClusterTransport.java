@@ -0,0 +1,65 @@
+package com.teachandserve.backend.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-process {@link ClusterTransport}.
+ *
+ * Transports created with the same {@link Bus} behave like instances sharing a Redis
+ * server, which allows multi-instance fan-out to be exercised in a single JVM. The
+ * application bean uses a private bus, so publications only loop back to this instance.
+ */
+@Service
+@ConditionalOnProperty(name = "messaging.cluster.transport", havingValue = "local", matchIfMissing = true)
+public class LocalClusterTransport implements ClusterTransport {
+
+    private final Bus bus;
+
+    public LocalClusterTransport() {
+        this(new Bus());
+    }
+
+    public LocalClusterTransport(Bus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        Map<LocalClusterTransport, Consumer<byte[]>> handlers = bus.channels.get(channel);
+        if (handlers != null) {
+            handlers.values().forEach(handler -> handler.accept(message));
+        }
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> handler) {
+        bus.channels.computeIfAbsent(channel, key -> new ConcurrentHashMap<>()).put(this, handler);
+    }
+
+    @Override
+    public void unsubscribe(String channel) {
+        bus.channels.computeIfPresent(channel, (key, handlers) -> {
+            handlers.remove(this);
+            return handlers.isEmpty() ? null : handlers;
+        });
+    }
+
+    /**
+     * Shared channel registry, session directory and presence directory standing in for
+     * a Redis server.
+     */
+    public static class Bus {
+        private final Map<String, Map<LocalClusterTransport, Consumer<byte[]>>> channels = new ConcurrentHashMap<>();
+
+        // Lease expiry (epoch millis) by instance ID by user ID, for LocalSessionDirectory
+        final Map<Long, Map<String, Long>> leases = new ConcurrentHashMap<>();
+
+        // Presence leases by instance ID by user ID, for LocalPresenceDirectory
+        final Map<Long, Map<String, LocalPresenceDirectory.Lease>> presence = new ConcurrentHashMap<>();
+    }
+}
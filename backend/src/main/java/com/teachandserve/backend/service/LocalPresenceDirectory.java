@@ -0,0 +1,74 @@
+package com.teachandserve.backend.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process {@link PresenceDirectory}.
+ *
+ * Directories created with the same {@link LocalClusterTransport.Bus} share their
+ * statuses, like instances sharing a Redis server.
+ */
+@Service
+@ConditionalOnProperty(name = "messaging.cluster.transport", havingValue = "local", matchIfMissing = true)
+public class LocalPresenceDirectory implements PresenceDirectory {
+
+    private final LocalClusterTransport.Bus bus;
+
+    public LocalPresenceDirectory() {
+        this(new LocalClusterTransport.Bus());
+    }
+
+    public LocalPresenceDirectory(LocalClusterTransport.Bus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public void renew(String nodeId, Map<Long, String> statuses, long leaseMillis) {
+        long expiresAt = System.currentTimeMillis() + leaseMillis;
+        statuses.forEach((userId, status) -> bus.presence
+                .computeIfAbsent(userId, key -> new ConcurrentHashMap<>())
+                .put(nodeId, new Lease(status, expiresAt)));
+    }
+
+    @Override
+    public void remove(String nodeId, Long userId) {
+        bus.presence.computeIfPresent(userId, (key, nodes) -> {
+            nodes.remove(nodeId);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    @Override
+    public Map<Long, String> findStatuses(Collection<Long> userIds) {
+        long now = System.currentTimeMillis();
+        Map<Long, String> statuses = new HashMap<>();
+        for (Long userId : userIds) {
+            Map<String, Lease> nodes = bus.presence.get(userId);
+            if (nodes == null) {
+                continue;
+            }
+            String status = null;
+            for (Lease lease : nodes.values()) {
+                if (lease.expiresAt() > now) {
+                    status = PresenceDirectory.merge(status, lease.status());
+                }
+            }
+            if (status != null) {
+                statuses.put(userId, status);
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * One instance's status for a user, valid until {@code expiresAt} (epoch millis).
+     */
+    record Lease(String status, long expiresAt) {
+    }
+}
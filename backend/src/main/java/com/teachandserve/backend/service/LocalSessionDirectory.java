@@ -0,0 +1,63 @@
+package com.teachandserve.backend.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process {@link SessionDirectory}.
+ *
+ * Directories created with the same {@link LocalClusterTransport.Bus} share their
+ * entries, like instances sharing a Redis server.
+ */
+@Service
+@ConditionalOnProperty(name = "messaging.cluster.transport", havingValue = "local", matchIfMissing = true)
+public class LocalSessionDirectory implements SessionDirectory {
+
+    private final LocalClusterTransport.Bus bus;
+
+    public LocalSessionDirectory() {
+        this(new LocalClusterTransport.Bus());
+    }
+
+    public LocalSessionDirectory(LocalClusterTransport.Bus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public void renew(String nodeId, Collection<Long> userIds, long leaseMillis) {
+        long expiresAt = System.currentTimeMillis() + leaseMillis;
+        for (Long userId : userIds) {
+            bus.leases.computeIfAbsent(userId, key -> new ConcurrentHashMap<>()).put(nodeId, expiresAt);
+        }
+    }
+
+    @Override
+    public void remove(String nodeId, Long userId) {
+        bus.leases.computeIfPresent(userId, (key, nodes) -> {
+            nodes.remove(nodeId);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    @Override
+    public Set<String> findNodes(Long userId) {
+        Map<String, Long> nodes = bus.leases.get(userId);
+        if (nodes == null) {
+            return Set.of();
+        }
+        long now = System.currentTimeMillis();
+        Set<String> live = new HashSet<>();
+        nodes.forEach((nodeId, expiresAt) -> {
+            if (expiresAt > now) {
+                live.add(nodeId);
+            }
+        });
+        return live;
+    }
+}
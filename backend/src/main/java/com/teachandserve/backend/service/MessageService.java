@@ -1,56 +1,78 @@
 package com.teachandserve.backend.service;
 
+import com.teachandserve.backend.dto.MessageCursor;
 import com.teachandserve.backend.dto.MessageDTO;
+import com.teachandserve.backend.dto.MessagePage;
 import com.teachandserve.backend.dto.MessageResponse;
+import com.teachandserve.backend.dto.SyncMessageDTO;
+import com.teachandserve.backend.events.MessageSentEvent;
+import com.teachandserve.backend.events.MessagesReadEvent;
 import com.teachandserve.backend.model.Conversation;
 import com.teachandserve.backend.model.Message;
-import com.teachandserve.backend.model.MessageReadReceipt;
 import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.repository.ConversationParticipantRepository;
 import com.teachandserve.backend.repository.ConversationRepository;
-import com.teachandserve.backend.repository.MessageReadReceiptRepository;
 import com.teachandserve.backend.repository.MessageRepository;
 import com.teachandserve.backend.repository.UserRepository;
 import jakarta.transaction.Transactional;
-import org.springframework.data.domain.Page;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class MessageService {
 
+    // Body of a message whose ciphertext could not be decrypted
+    static final String DECRYPTION_FAILED_BODY = "[Decryption failed]";
+
     private final MessageRepository messageRepository;
     private final ConversationRepository conversationRepository;
     private final UserRepository userRepository;
-    private final MessageReadReceiptRepository readReceiptRepository;
+    private final ConversationParticipantRepository participantRepository;
     private final ConversationService conversationService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final MessagingPublisher messagingPublisher;
     private final RateLimitingService rateLimitingService;
     private final EncryptionService encryptionService;
     private final SanitizationService sanitizationService;
+    private final ConversationMembershipCache membershipCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RecentMessageCache recentMessageCache;
 
     public MessageService(MessageRepository messageRepository,
                          ConversationRepository conversationRepository,
                          UserRepository userRepository,
-                         MessageReadReceiptRepository readReceiptRepository,
+                         ConversationParticipantRepository participantRepository,
                          ConversationService conversationService,
-                         SimpMessagingTemplate messagingTemplate,
+                         MessagingPublisher messagingPublisher,
                          RateLimitingService rateLimitingService,
                          EncryptionService encryptionService,
-                         SanitizationService sanitizationService) {
+                         SanitizationService sanitizationService,
+                         ConversationMembershipCache membershipCache,
+                         ApplicationEventPublisher eventPublisher,
+                         RecentMessageCache recentMessageCache) {
         this.messageRepository = messageRepository;
         this.conversationRepository = conversationRepository;
         this.userRepository = userRepository;
-        this.readReceiptRepository = readReceiptRepository;
+        this.participantRepository = participantRepository;
         this.conversationService = conversationService;
-        this.messagingTemplate = messagingTemplate;
+        this.messagingPublisher = messagingPublisher;
         this.rateLimitingService = rateLimitingService;
         this.encryptionService = encryptionService;
         this.sanitizationService = sanitizationService;
+        this.membershipCache = membershipCache;
+        this.eventPublisher = eventPublisher;
+        this.recentMessageCache = recentMessageCache;
     }
 
     /**
@@ -58,20 +80,28 @@ public class MessageService {
      *
      * Features:
      * - Rate limiting (60 messages per minute)
-     * - Message encryption (AES-256)
-     * - Real-time WebSocket delivery
-     * - Automatic cache invalidation
+     * - Message encryption (AES-256-GCM)
+     * - Real-time WebSocket delivery after the transaction commits
+     * - Lean write path: membership comes from {@link ConversationMembershipCache},
+     *   conversation and sender are proxy references, and the response is built
+     *   from the sanitized plaintext, so the database only sees the conversation
+     *   row lock, the INSERT and the conversation summary UPDATE
+     * - Message ids of a conversation increase in commit order (the conversation
+     *   row is locked before the INSERT), which read watermarks depend on
      *
      * @param conversationId Conversation ID
-     * @param senderId       Sender user ID
+     * @param sender         Authenticated sender
      * @param body           Message body
      * @return MessageResponse DTO
-     * @throws IllegalArgumentException if conversation not found, sender not authorized, or rate limit exceeded
+     * @throws IllegalArgumentException if sender not authorized or rate limit exceeded
      */
     @Transactional
-    public MessageResponse sendMessage(Long conversationId, Long senderId, String body) {
-        // 1. Validate sender is participant
-        if (!conversationService.isUserParticipant(conversationId, senderId)) {
+    public MessageResponse sendMessage(Long conversationId, User sender, String body) {
+        Long senderId = sender.getId();
+
+        // 1. Validate sender is participant (cached; the same set drives fan-out below)
+        Set<Long> participantIds = membershipCache.getParticipantIds(conversationId);
+        if (!participantIds.contains(senderId)) {
             throw new IllegalArgumentException("Sender is not a participant in this conversation");
         }
 
@@ -85,31 +115,46 @@ public class MessageService {
             );
         }
 
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new IllegalArgumentException("Conversation not found"));
-
-        User sender = userRepository.findById(senderId)
-                .orElseThrow(() -> new RuntimeException("Sender not found"));
-
         // 3. Sanitize message body to prevent XSS
         String sanitizedBody = sanitizationService.sanitize(body);
 
         // 4. Encrypt sanitized message body
-        String encryptedBody = encryptionService.encrypt(sanitizedBody, conversationId);
+        byte[] encryptedBody = encryptionService.encrypt(sanitizedBody, conversationId);
+
+        // Serialize sends per conversation before the id is assigned, so ids follow commit
+        // order within the conversation and a read watermark never skips a later commit
+        if (conversationRepository.lockForMessageInsert(conversationId).isEmpty()) {
+            throw new IllegalArgumentException("Conversation not found");
+        }
 
-        // Create and save message with encrypted content
-        Message message = new Message(conversation, sender, encryptedBody);
+        // Save with proxy references; neither the conversation nor the sender is loaded
+        Message message = new Message(
+                conversationRepository.getReferenceById(conversationId),
+                userRepository.getReferenceById(senderId),
+                encryptedBody);
         message = messageRepository.save(message);
 
-        // 4. Convert to DTO with decrypted content for response
-        MessageResponse response = toMessageResponse(message, conversationId, true);
+        // Keep the conversation summary (inbox ordering and preview) pointing at this message
+        conversationService.recordLastMessage(conversationId, message.getId(), senderId,
+                message.getCreatedAt(), sanitizedBody);
 
-        // 5. Publish to WebSocket topic for this conversation
-        publishMessageToConversation(conversationId, response);
+        // 5. Build the response from the plaintext we already have (new messages have no receipts)
+        MessageResponse response = new MessageResponse(
+                message.getId(),
+                conversationId,
+                senderId,
+                sender.getFirstName() != null ? sender.getFirstName() : sender.getEmail(),
+                sanitizedBody,
+                message.getCreatedAt(),
+                null,
+                null,
+                List.of()
+        );
 
-        // 6. Notify all participants about conversation update (optimized - single query)
-        List<Long> participantIds = conversationRepository.findParticipantIdsByConversationId(conversationId);
-        participantIds.forEach(this::publishConversationUpdate);
+        // 6. Once the message is committed, publish it to the conversation topic;
+        //    unread counters and inbox deltas are handled by MessageSentEvent listeners
+        eventPublisher.publishEvent(new MessageSentEvent(this, response, participantIds));
+        publishMessageToConversation(conversationId, response);
 
         return response;
     }
@@ -119,17 +164,19 @@ public class MessageService {
      * Replaces 251+ queries with 1 efficient native SQL call.
      *
      * Features:
-     * - Message decryption (AES-256)
-     * - Pagination support
+     * - Batch message decryption (AES-256-GCM, one key derivation per page)
+     * - Keyset pagination on (conversation_id, id) with no COUNT query, so every
+     *   page is one index range scan regardless of how far back it is
      * - Conversation participant validation
+     * - The latest page is served from {@link RecentMessageCache} when possible
      *
      * @param conversationId Conversation ID
      * @param userId         User ID requesting messages (for authorization)
      * @param beforeMessageId Optional message ID for pagination (get messages before this ID)
      * @param limit          Number of messages to retrieve (max 100)
-     * @return List of MessageResponse DTOs with decrypted content
+     * @return Page of MessageResponse DTOs with decrypted content, newest first
      */
-    public List<MessageResponse> getMessages(Long conversationId, Long userId,
+    public MessagePage getMessages(Long conversationId, Long userId,
                                             Long beforeMessageId, int limit) {
         // Validate user is participant
         if (!conversationService.isUserParticipant(conversationId, userId)) {
@@ -137,31 +184,81 @@ public class MessageService {
         }
 
         // Enforce limit maximum
-        limit = Math.min(limit, 100);
+        limit = Math.max(1, Math.min(limit, 100));
 
+        if (beforeMessageId == null) {
+            return recentMessageCache.getLatest(conversationId, limit,
+                    n -> loadMessages(conversationId, Long.MAX_VALUE, n));
+        }
+        return loadMessages(conversationId, beforeMessageId, limit);
+    }
+
+    /**
+     * Load and decrypt a page of messages older than a message ID.
+     */
+    private MessagePage loadMessages(Long conversationId, Long before, int limit) {
         // Single optimized query instead of N+1 queries
-        Pageable pageable = PageRequest.of(0, limit);
-        Page<MessageDTO> messagePage = messageRepository.findMessagesOptimized(
-                conversationId, pageable);
-
-        // Transform DTOs to response and decrypt (minimal processing)
-        return messagePage.stream()
-                .map(dto -> decryptMessageDTO(dto, conversationId))
-                .collect(Collectors.toList());
+        Slice<MessageDTO> messageSlice = messageRepository.findMessagesBefore(
+                conversationId, before, PageRequest.of(0, limit));
+
+        List<MessageDTO> dtos = messageSlice.getContent();
+        List<MessageResponse> responses = toMessageResponses(dtos, conversationId);
+
+        String nextCursor = messageSlice.hasNext() && !dtos.isEmpty()
+                ? MessageCursor.encode(dtos.get(dtos.size() - 1).getId())
+                : null;
+        return new MessagePage(responses, nextCursor, messageSlice.hasNext());
+    }
+
+    /**
+     * Decrypt messages from any number of conversations, one batch per conversation,
+     * keeping their order.
+     */
+    List<MessageResponse> toMessageResponses(List<SyncMessageDTO> dtos) {
+        Map<Long, List<SyncMessageDTO>> byConversation = new LinkedHashMap<>();
+        for (SyncMessageDTO dto : dtos) {
+            byConversation.computeIfAbsent(dto.getConversationId(), id -> new ArrayList<>()).add(dto);
+        }
+
+        Map<Long, MessageResponse> byId = new HashMap<>();
+        byConversation.forEach((conversationId, messages) ->
+                toMessageResponses(messages, conversationId).forEach(response -> byId.put(response.getId(), response)));
+        return dtos.stream().map(dto -> byId.get(dto.getId())).collect(Collectors.toList());
     }
 
     /**
-     * Decrypt a MessageDTO and convert to MessageResponse.
-     * Handles decryption for already-fetched DTOs.
+     * Decrypt messages of one conversation as a batch (single key derivation, parallel
+     * for large batches).
      */
-    private MessageResponse decryptMessageDTO(MessageDTO dto, Long conversationId) {
-        // Decrypt message body
-        String decryptedBody;
-        try {
-            decryptedBody = encryptionService.decrypt(dto.getBody(), conversationId);
-        } catch (Exception e) {
-            decryptedBody = "[Decryption failed]";
+    private List<MessageResponse> toMessageResponses(List<? extends MessageDTO> dtos, Long conversationId) {
+        BitSet legacy = new BitSet(dtos.size());
+        for (int i = 0; i < dtos.size(); i++) {
+            legacy.set(i, dtos.get(i).isLegacyBody());
+        }
+        List<EncryptionService.DecryptedMessage> decrypted = encryptionService.decryptBatch(
+                dtos.stream().map(MessageDTO::getBody).collect(Collectors.toList()),
+                legacy, conversationId);
+
+        List<MessageResponse> responses = new ArrayList<>(dtos.size());
+        for (int i = 0; i < dtos.size(); i++) {
+            responses.add(toMessageResponse(dtos.get(i), decrypted.get(i), conversationId));
         }
+        return responses;
+    }
+
+    /**
+     * Convert an already decrypted MessageDTO to MessageResponse.
+     * Reads never write: ciphertexts in a legacy format or under a retired master key
+     * are rewritten by {@link KeyRotationService}.
+     *
+     * @param dto            Message projection
+     * @param decrypted      Decryption result for the DTO body, or null if decryption failed
+     * @param conversationId Conversation ID
+     * @return MessageResponse DTO
+     */
+    private MessageResponse toMessageResponse(MessageDTO dto, EncryptionService.DecryptedMessage decrypted,
+                                              Long conversationId) {
+        String decryptedBody = decrypted != null ? decrypted.plaintext() : DECRYPTION_FAILED_BODY;
 
         return new MessageResponse(
                 dto.getId(),
@@ -177,8 +274,10 @@ public class MessageService {
     }
 
     /**
-     * OPTIMIZED: Mark messages as read using batch operations.
-     * Replaces 100+ queries with 2-3 efficient calls.
+     * Mark messages as read by moving the user's read watermark forward.
+     * One monotonic UPDATE on conversation_participants, regardless of how many
+     * messages it covers; no per-message rows are written. Read receipts go out as
+     * one watermark range (see {@link ReadReceiptCoalescer}), not one per message.
      *
      * @param conversationId  Conversation ID
      * @param userId          User ID marking messages as read
@@ -191,151 +290,32 @@ public class MessageService {
             throw new IllegalArgumentException("User is not a participant in this conversation");
         }
 
-        // Single optimized query to find all unread message IDs
-        List<Long> unreadMessageIds = messageRepository.findUnreadMessageIds(
-                conversationId, userId, lastMessageId);
-
-        if (unreadMessageIds.isEmpty()) {
+        long previousWatermark = participantRepository.findLastReadMessageId(conversationId, userId).orElse(0L);
+        if (lastMessageId == null || lastMessageId <= previousWatermark) {
             return;
         }
 
-        // Use proxy reference to avoid loading full User entity
-        User userProxy = userRepository.getReferenceById(userId);
-
-        // Batch insert all read receipts at once
-        List<MessageReadReceipt> receipts = unreadMessageIds.stream()
-                .map(msgId -> {
-                    Message messageProxy = messageRepository.getReferenceById(msgId);
-                    return new MessageReadReceipt(messageProxy, userProxy);
-                })
-                .collect(Collectors.toList());
-
-        readReceiptRepository.saveAll(receipts);
-
-        // Publish bulk read receipts (optional - can be batched for performance)
-        unreadMessageIds.forEach(msgId -> publishReadReceiptBatch(userId, msgId));
-
-        // Notify user about conversation update (unread count changed)
-        publishConversationUpdate(userId);
-    }
+        // No-op if another request already moved it past lastMessageId, or the id isn't in this conversation
+        if (participantRepository.advanceReadWatermark(conversationId, userId, lastMessageId, LocalDateTime.now()) == 0) {
+            return;
+        }
 
-    /**
-     * Publish a batch read receipt notification.
-     * In production, consider batching multiple notifications into one message.
-     */
-    private void publishReadReceiptBatch(Long readByUserId, Long messageId) {
-        messagingTemplate.convertAndSend(
-                "/topic/users." + readByUserId + ".read-receipts",
-                new ReadReceiptNotification(messageId, readByUserId)
-        );
+        // Read receipts, unread counters and inbox deltas are handled by MessagesReadEvent listeners
+        long remainingUnread = messageRepository.countUnreadMessages(conversationId, userId);
+        eventPublisher.publishEvent(new MessagesReadEvent(
+                this, conversationId, userId, previousWatermark, lastMessageId, remainingUnread));
     }
 
     /**
-     * Publish a message to the conversation's WebSocket topic.
+     * Publish a message to the conversation's WebSocket topic once the transaction commits.
      *
      * @param conversationId Conversation ID
      * @param message        MessageResponse to publish
      */
     private void publishMessageToConversation(Long conversationId, MessageResponse message) {
-        messagingTemplate.convertAndSend(
+        messagingPublisher.publishAfterCommit(
                 "/topic/conversations." + conversationId + ".messages",
                 message
         );
     }
-
-    /**
-     * Publish a conversation update notification to a user's personal topic.
-     *
-     * @param userId User ID to notify
-     */
-    private void publishConversationUpdate(Long userId) {
-        // Send as a proper JSON object to avoid parsing errors on client
-        messagingTemplate.convertAndSend(
-                "/topic/users." + userId + ".conversations",
-                new ConversationUpdateNotification("update")
-        );
-    }
-
-    /**
-     * Convert Message entity to MessageResponse DTO.
-     *
-     * @param message Message entity
-     * @param conversationId Conversation ID
-     * @param isNewMessage True if this is a newly sent message (body already available), false if from DB (needs decryption)
-     * @return MessageResponse DTO
-     */
-    private MessageResponse toMessageResponse(Message message, Long conversationId, boolean isNewMessage) {
-        List<Long> readBy = message.getReadReceipts().stream()
-                .map(receipt -> receipt.getUser().getId())
-                .collect(Collectors.toList());
-
-        String decryptedBody;
-        try {
-            decryptedBody = encryptionService.decrypt(message.getBody(), conversationId);
-        } catch (Exception e) {
-            decryptedBody = "[Decryption failed]";
-        }
-
-        return new MessageResponse(
-                message.getId(),
-                message.getConversation().getId(),
-                message.getSender().getId(),
-                message.getSender().getFirstName() != null ? message.getSender().getFirstName() : message.getSender().getEmail(),
-                decryptedBody,
-                message.getCreatedAt(),
-                message.getEditedAt(),
-                message.getDeletedAt(),
-                readBy
-        );
-    }
-
-
-    /**
-     * Inner class for conversation update notifications.
-     */
-    public static class ConversationUpdateNotification {
-        private String type;
-
-        public ConversationUpdateNotification(String type) {
-            this.type = type;
-        }
-
-        public String getType() {
-            return type;
-        }
-
-        public void setType(String type) {
-            this.type = type;
-        }
-    }
-
-    /**
-     * Inner class for read receipt notifications.
-     */
-    public static class ReadReceiptNotification {
-        private Long messageId;
-        private Long userId;
-
-        public ReadReceiptNotification(Long messageId, Long userId) {
-            this.messageId = messageId;
-            this.userId = userId;
-        }
-
-        public Long getMessageId() {
-            return messageId;
-        }
-
-        public void setMessageId(Long messageId) {
-            this.messageId = messageId;
-        }
-
-        public Long getUserId() {
-            return userId;
-        }
-
-        public void setUserId(Long userId) {
-            this.userId = userId;
-        }
-    }
 }
-
@@ -0,0 +1,281 @@
+package com.teachandserve.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single path for WebSocket publications, dispatched on a dedicated thread.
+ *
+ * {@link #publishAfterCommit} collects the publications of the current transaction and
+ * releases them only once it commits, so clients never see changes that are rolled back
+ * and the transaction never waits on serialization or broker queues. Publications are
+ * sent in order by one dispatcher thread, off the request thread, through
+ * {@link ClusterBroker} so subscribers on every instance receive them.
+ *
+ * The dispatcher queue is bounded ({@code messaging.publisher.queue-capacity}); when it
+ * is full, publications are dropped and logged rather than blocking the caller. Without
+ * the outbox, delivery is at most once.
+ *
+ * With {@code messaging.outbox.enabled=true}, transactional publications are instead
+ * batch-inserted into the messaging_outbox table just before commit, atomically with the
+ * change they announce. The relay reads rows in id order, sends them and deletes the
+ * sent rows in the same transaction. Relays are serialized across instances by a
+ * transaction-scoped advisory lock: every instance polls, but only the one holding the
+ * lock relays, so a row that failed to send is never overtaken by later rows relayed
+ * elsewhere. A row is only deleted once {@link ClusterBroker#send} returned, so a crash
+ * or publish failure leaves it to be sent again: delivery is at least once and in id
+ * order, and clients de-duplicate by id. The relay requires PostgreSQL.
+ */
+@Service
+public class MessagingPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(MessagingPublisher.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO messaging_outbox (destination, payload, created_at) VALUES (?, ?, CURRENT_TIMESTAMP)";
+
+    // Held until the relay transaction ends; the key is arbitrary but must be unique to the relay
+    private static final String LOCK_SQL = "SELECT pg_try_advisory_xact_lock(?)";
+
+    private static final long RELAY_LOCK_KEY = 0x6f7574626f78L; // "outbox"
+
+    private static final String CLAIM_SQL = """
+        SELECT id, destination, payload FROM messaging_outbox
+        ORDER BY id
+        LIMIT ?
+    """;
+
+    private static final String DELETE_SQL = "DELETE FROM messaging_outbox WHERE id = ?";
+
+    private final ClusterBroker clusterBroker;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${messaging.publisher.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${messaging.outbox.enabled:false}")
+    private boolean outboxEnabled;
+
+    @Value("${messaging.outbox.batch-size:200}")
+    private int batchSize;
+
+    private ExecutorService dispatcher;
+
+    private final LongAdder dropped = new LongAdder();
+
+    public MessagingPublisher(ClusterBroker clusterBroker,
+                              JdbcTemplate jdbcTemplate,
+                              ObjectMapper objectMapper,
+                              TransactionTemplate transactionTemplate) {
+        this.clusterBroker = clusterBroker;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @PostConstruct
+    void init() {
+        dispatcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(Math.max(queueCapacity, 1)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ws-publisher");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    dropped.increment();
+                    log.warn("WebSocket publisher queue full ({} tasks), dropping publications", queueCapacity);
+                });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Publish once the current transaction commits (dropped if it rolls back).
+     * Without an active transaction, publishes right away.
+     *
+     * @param destination STOMP destination
+     * @param payload     Payload, serialized as JSON (strings and byte arrays are taken as JSON)
+     */
+    public void publishAfterCommit(String destination, Object payload) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(destination, payload);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Publication> batch = (List<Publication>) TransactionSynchronizationManager.getResource(this);
+        if (batch == null) {
+            List<Publication> publications = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, publications);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionBatch(publications));
+            batch = publications;
+        }
+        batch.add(new Publication(destination, payload));
+    }
+
+    /**
+     * Publish now, for callers that already run after commit.
+     *
+     * @param destination STOMP destination
+     * @param payload     Payload, serialized as JSON (strings and byte arrays are taken as JSON)
+     */
+    public void publish(String destination, Object payload) {
+        dispatch(List.of(new Publication(destination, payload)));
+    }
+
+    /**
+     * Send pending outbox rows, oldest first, deleting each batch once it has been sent.
+     */
+    @Scheduled(fixedDelayString = "${messaging.outbox.poll-interval-ms:100}")
+    public void relayOutbox() {
+        if (!outboxEnabled) {
+            return;
+        }
+        try {
+            Boolean more;
+            do {
+                more = transactionTemplate.execute(status -> relayBatch());
+            } while (Boolean.TRUE.equals(more));
+        } catch (Exception e) {
+            log.warn("Outbox relay failed", e);
+        }
+    }
+
+    /**
+     * Take the relay lock, send a batch of outbox rows in order and delete the ones sent.
+     * Runs in one transaction, so no other relay starts until the deletions commit, and
+     * rows that weren't sent are left for the next poll.
+     *
+     * @return Whether the whole batch was sent and more rows may be pending; false if
+     *         another instance holds the relay lock
+     */
+    private boolean relayBatch() {
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(LOCK_SQL, Boolean.class, RELAY_LOCK_KEY))) {
+            return false;
+        }
+
+        List<Publication> claimed = jdbcTemplate.query(CLAIM_SQL, (rs, rowNum) -> new Publication(
+                rs.getLong("id"), rs.getString("destination"), rs.getString("payload")), batchSize);
+
+        List<Object[]> sent = new ArrayList<>(claimed.size());
+        for (Publication publication : claimed) {
+            try {
+                clusterBroker.send(publication.destination(), publication.payload());
+            } catch (Exception e) {
+                // Stop here so later rows aren't delivered ahead of this one
+                log.warn("Failed to relay outbox row {} to {}, will retry", publication.outboxId(),
+                        publication.destination(), e);
+                break;
+            }
+            sent.add(new Object[]{publication.outboxId()});
+        }
+        if (!sent.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_SQL, sent);
+        }
+        return sent.size() == batchSize;
+    }
+
+    /**
+     * @return Number of publications dropped because the dispatcher queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void dispatch(List<Publication> publications) {
+        if (publications.isEmpty()) {
+            return;
+        }
+        dispatcher.execute(() -> {
+            for (Publication publication : publications) {
+                try {
+                    clusterBroker.send(publication.destination(), publication.payload());
+                } catch (Exception e) {
+                    log.warn("Failed to publish to {}", publication.destination(), e);
+                }
+            }
+        });
+    }
+
+    private String toJson(Object payload) {
+        if (payload instanceof String json) {
+            return json;
+        }
+        if (payload instanceof byte[] json) {
+            return new String(json, StandardCharsets.UTF_8);
+        }
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize WebSocket payload", e);
+        }
+    }
+
+    /**
+     * Publications of one transaction: written to the outbox before commit, or
+     * dispatched after it.
+     */
+    private class TransactionBatch implements TransactionSynchronization {
+
+        private final List<Publication> publications;
+
+        TransactionBatch(List<Publication> publications) {
+            this.publications = publications;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (outboxEnabled) {
+                jdbcTemplate.batchUpdate(INSERT_SQL, publications.stream()
+                        .map(publication -> new Object[]{publication.destination(), toJson(publication.payload())})
+                        .toList());
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(MessagingPublisher.this);
+            if (status == STATUS_COMMITTED && !outboxEnabled) {
+                dispatch(publications);
+            }
+        }
+    }
+
+    /**
+     * A pending publication; relayed outbox rows carry their row id and a JSON string payload.
+     */
+    private record Publication(long outboxId, String destination, Object payload) {
+
+        Publication(String destination, Object payload) {
+            this(0, destination, payload);
+        }
+    }
+}
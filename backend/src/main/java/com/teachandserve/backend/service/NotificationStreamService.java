@@ -0,0 +1,352 @@
+package com.teachandserve.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Server-Sent Events streams of a user's notification topics
+ * ({@code /topic/users.{userId}.*}), for clients that don't need a STOMP session.
+ *
+ * Each stream multiplexes all of the user's topics over one HTTP response; the SSE
+ * event name is the topic's last segment (e.g. {@code conversations},
+ * {@code read-receipts}) and the data is the same JSON as the STOMP frame. Streams are
+ * async servlet responses, so an idle stream holds no thread; events are written on
+ * virtual threads, one writer at a time per stream.
+ *
+ * While a user has streams on this instance, {@link ClusterBroker} routes their topics
+ * here and the last {@code messaging.sse.replay-size} events are kept with sequential
+ * ids. A client reconnecting with {@code Last-Event-ID} gets the events it missed, if
+ * it returns to the same instance within {@code messaging.sse.resume-window-ms} of its
+ * last stream closing and they are still buffered; otherwise it gets a {@code reset}
+ * event and should reload its state (e.g. GET /api/sync). Ids are prefixed with a
+ * random epoch per buffer, so ids from another instance or an older buffer are never
+ * mistaken for current ones.
+ *
+ * A stream with more than {@code messaging.sse.max-queued-per-stream} unsent events is
+ * closed rather than buffered further; the client resumes from its last event id.
+ */
+@Service
+public class NotificationStreamService {
+
+    private static final Logger log = LoggerFactory.getLogger(NotificationStreamService.class);
+
+    private static final Event KEEPALIVE = new Event(null, null, null);
+    private static final byte[] EMPTY_JSON = "{}".getBytes(StandardCharsets.UTF_8);
+
+    @Value("${messaging.sse.timeout-ms:1800000}")
+    private long timeoutMillis;
+
+    @Value("${messaging.sse.retry-ms:3000}")
+    private long retryMillis;
+
+    @Value("${messaging.sse.replay-size:100}")
+    private int replaySize;
+
+    @Value("${messaging.sse.resume-window-ms:60000}")
+    private long resumeWindowMillis;
+
+    @Value("${messaging.sse.max-queued-per-stream:200}")
+    private int maxQueuedPerStream;
+
+    @Value("${messaging.sse.max-streams-per-user:5}")
+    private int maxStreamsPerUser;
+
+    private final ClusterBroker clusterBroker;
+
+    private final Map<Long, UserStreams> users = new ConcurrentHashMap<>();
+
+    private SimpleAsyncTaskExecutor writer;
+
+    public NotificationStreamService(ClusterBroker clusterBroker) {
+        this.clusterBroker = clusterBroker;
+    }
+
+    @PostConstruct
+    void init() {
+        writer = new SimpleAsyncTaskExecutor("sse-writer-");
+        writer.setVirtualThreads(true);
+        clusterBroker.addUserTopicListener(this::onUserMessage);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (UserStreams streams : users.values()) {
+            List<Stream> open;
+            synchronized (streams) {
+                streams.closed = true;
+                open = List.copyOf(streams.streams);
+                streams.streams.clear();
+            }
+            open.forEach(Stream::close);
+        }
+        users.clear();
+    }
+
+    /**
+     * Open a notification stream for a user.
+     *
+     * @param userId      User ID
+     * @param lastEventId Last event id the client received, or null for a fresh stream
+     * @return Emitter to return from the controller
+     */
+    public SseEmitter open(Long userId, String lastEventId) {
+        Stream stream = new Stream(new SseEmitter(timeoutMillis));
+        Stream evicted = null;
+        UserStreams streams;
+        while (true) {
+            streams = users.get(userId);
+            if (streams == null) {
+                UserStreams created = new UserStreams(userId);
+                streams = users.putIfAbsent(userId, created);
+                if (streams == null) {
+                    clusterBroker.acquireUser(userId);
+                    streams = created;
+                }
+            }
+            synchronized (streams) {
+                if (streams.closed) {
+                    // Released concurrently; start over with a new buffer
+                    continue;
+                }
+                if (streams.streams.size() >= maxStreamsPerUser) {
+                    evicted = streams.streams.removeFirst();
+                }
+                replay(streams, stream, lastEventId);
+                streams.streams.add(stream);
+                streams.releaseAt = 0;
+            }
+            break;
+        }
+
+        UserStreams owner = streams;
+        stream.emitter.onCompletion(() -> detach(owner, stream));
+        stream.emitter.onTimeout(() -> detach(owner, stream));
+        stream.emitter.onError(error -> detach(owner, stream));
+        if (evicted != null) {
+            evicted.close();
+        }
+        return stream.emitter;
+    }
+
+    /**
+     * Keep idle streams open through proxies, and stop following users whose streams
+     * closed more than messaging.sse.resume-window-ms ago.
+     */
+    @Scheduled(fixedDelayString = "${messaging.sse.keepalive-ms:15000}")
+    public void keepAlive() {
+        long now = System.currentTimeMillis();
+        for (UserStreams streams : users.values()) {
+            boolean release = false;
+            synchronized (streams) {
+                if (streams.streams.isEmpty() && streams.releaseAt > 0 && now >= streams.releaseAt) {
+                    streams.closed = true;
+                    users.remove(streams.userId, streams);
+                    release = true;
+                } else {
+                    streams.streams.forEach(stream -> stream.enqueue(KEEPALIVE, true));
+                }
+            }
+            if (release) {
+                clusterBroker.releaseUser(streams.userId);
+            }
+        }
+    }
+
+    /**
+     * @return Number of open streams on this instance
+     */
+    public int getStreamCount() {
+        int count = 0;
+        for (UserStreams streams : users.values()) {
+            synchronized (streams) {
+                count += streams.streams.size();
+            }
+        }
+        return count;
+    }
+
+    private void onUserMessage(Long userId, String destination, byte[] json) {
+        UserStreams streams = users.get(userId);
+        if (streams == null) {
+            return;
+        }
+        String name = destination.substring(destination.lastIndexOf('.') + 1);
+        synchronized (streams) {
+            if (streams.closed) {
+                return;
+            }
+            Event event = new Event(streams.epoch + "-" + (++streams.sequence), name, json);
+            if (streams.buffer.size() >= replaySize) {
+                streams.buffer.removeFirst();
+            }
+            streams.buffer.addLast(event);
+            streams.streams.forEach(stream -> stream.enqueue(event, false));
+        }
+    }
+
+    // Caller holds the streams' lock. Queues what the client missed, then a marker event
+    // carrying the current id, so every stream starts with an id to resume from.
+    private void replay(UserStreams streams, Stream stream, String lastEventId) {
+        String currentId = streams.epoch + "-" + streams.sequence;
+        if (lastEventId == null || lastEventId.isEmpty()) {
+            stream.enqueue(new Event(currentId, "ready", EMPTY_JSON), true);
+            return;
+        }
+
+        long after = -1;
+        String prefix = streams.epoch + "-";
+        if (lastEventId.startsWith(prefix)) {
+            try {
+                after = Long.parseLong(lastEventId.substring(prefix.length()));
+            } catch (NumberFormatException e) {
+                after = -1;
+            }
+        }
+        long oldest = streams.buffer.isEmpty() ? streams.sequence + 1 : streams.sequence - streams.buffer.size() + 1;
+        if (after < 0 || after > streams.sequence || after + 1 < oldest) {
+            stream.enqueue(new Event(currentId, "reset", EMPTY_JSON), true);
+            return;
+        }
+        long sequence = oldest;
+        for (Event event : streams.buffer) {
+            if (sequence++ > after) {
+                stream.enqueue(event, true);
+            }
+        }
+        stream.enqueue(new Event(currentId, "ready", EMPTY_JSON), true);
+    }
+
+    private void detach(UserStreams streams, Stream stream) {
+        stream.close();
+        synchronized (streams) {
+            if (streams.streams.remove(stream) && streams.streams.isEmpty()) {
+                streams.releaseAt = System.currentTimeMillis() + resumeWindowMillis;
+            }
+        }
+    }
+
+    /**
+     * A user's open streams on this instance and their replay buffer.
+     * Guarded by itself.
+     */
+    private static final class UserStreams {
+        final Long userId;
+        final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 16, 36);
+        final List<Stream> streams = new ArrayList<>();
+        final Deque<Event> buffer = new ArrayDeque<>();
+        long sequence;
+        // When to stop following the user once no stream is open (epoch millis), or 0
+        long releaseAt;
+        boolean closed;
+
+        UserStreams(Long userId) {
+            this.userId = userId;
+        }
+    }
+
+    /**
+     * One SSE response and the events waiting to be written to it.
+     */
+    private final class Stream {
+        final SseEmitter emitter;
+
+        // Guarded by this
+        final Deque<Event> queue = new ArrayDeque<>();
+        boolean writing;
+        boolean closed;
+
+        Stream(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * @param force Queue even past the limit (replay), or skip if busy (keepalive)
+         */
+        synchronized void enqueue(Event event, boolean force) {
+            if (closed) {
+                return;
+            }
+            if (event == KEEPALIVE) {
+                if (!queue.isEmpty()) {
+                    return;
+                }
+            } else if (!force && queue.size() >= maxQueuedPerStream) {
+                log.debug("Closing lagging notification stream");
+                close();
+                return;
+            }
+            queue.addLast(event);
+            if (!writing) {
+                writing = true;
+                writer.execute(this::write);
+            }
+        }
+
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                queue.clear();
+                emitter.complete();
+            }
+        }
+
+        private void write() {
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = queue.pollFirst();
+                    if (event == null || closed) {
+                        writing = false;
+                        return;
+                    }
+                }
+                try {
+                    emitter.send(event.toSse(retryMillis));
+                } catch (Exception e) {
+                    // Client gone; the emitter's callbacks detach the stream
+                    synchronized (this) {
+                        closed = true;
+                        queue.clear();
+                        writing = false;
+                    }
+                    emitter.completeWithError(e);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * An event as sent: id, SSE event name and JSON data; the keepalive is a comment.
+     */
+    private record Event(String id, String name, byte[] json) {
+
+        SseEmitter.SseEventBuilder toSse(long retryMillis) {
+            if (id == null) {
+                return SseEmitter.event().comment("");
+            }
+            SseEmitter.SseEventBuilder builder = SseEmitter.event().id(id).name(name);
+            if ("ready".equals(name) || "reset".equals(name)) {
+                builder.reconnectTime(retryMillis);
+            }
+            return builder.data(json, MediaType.APPLICATION_JSON);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.teachandserve.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-session backpressure on outbound WebSocket frames.
+ *
+ * Each session is wrapped in a {@link ConcurrentWebSocketSessionDecorator} before it
+ * reaches the STOMP handler. A send returns as soon as the frame is buffered, and
+ * whichever thread holds the session flushes the buffer, so the decorator's buffer is
+ * the session's real outbound queue and a slow client never holds an outbound thread.
+ * A session whose buffer exceeds {@code messaging.websocket.send-buffer-size-limit}
+ * bytes, or whose current write has taken longer than
+ * {@code messaging.websocket.send-time-limit-ms}, is a lagging consumer:
+ * - {@code drop}: the oldest buffered frames are discarded; the session stays connected
+ * - {@code disconnect} (default): the session is closed; the client reconnects and
+ *   resyncs its state
+ *
+ * A session over the time limit is closed under either policy.
+ *
+ * Buffered bytes, overflows and disconnects are logged periodically.
+ */
+@Service
+public class OutboundFlowControl implements WebSocketHandlerDecoratorFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundFlowControl.class);
+
+    @Value("${messaging.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+
+    @Value("${messaging.websocket.send-buffer-size-limit:262144}")
+    private int sendBufferSizeLimit;
+
+    @Value("${messaging.websocket.slow-consumer-policy:disconnect}")
+    private String slowConsumerPolicy;
+
+    // Decorated sessions by id
+    private final Map<String, FlowControlledSession> sessions = new ConcurrentHashMap<>();
+
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                FlowControlledSession decorated = new FlowControlledSession(session);
+                sessions.put(session.getId(), decorated);
+                super.afterConnectionEstablished(decorated);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                super.handleMessage(decorated(session), message);
+            }
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+                super.handleTransportError(decorated(session), exception);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                FlowControlledSession decorated = sessions.remove(session.getId());
+                super.afterConnectionClosed(decorated != null ? decorated : session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * @return Bytes currently buffered for a session, or 0 if it isn't connected
+     */
+    public int getBufferedBytes(String sessionId) {
+        FlowControlledSession session = sessions.get(sessionId);
+        return session != null ? session.getBufferSize() : 0;
+    }
+
+    /**
+     * @return Bytes currently buffered by connected session
+     */
+    public Map<String, Integer> getBufferedBytes() {
+        Map<String, Integer> buffered = new HashMap<>();
+        sessions.forEach((sessionId, session) -> buffered.put(sessionId, session.getBufferSize()));
+        return buffered;
+    }
+
+    @Scheduled(initialDelayString = "${messaging.websocket.stats-interval-ms:60000}",
+               fixedDelayString = "${messaging.websocket.stats-interval-ms:60000}")
+    public void logStats() {
+        long total = 0;
+        int deepest = 0;
+        int highWater = 0;
+        String deepestSession = null;
+        for (Map.Entry<String, FlowControlledSession> entry : sessions.entrySet()) {
+            FlowControlledSession session = entry.getValue();
+            int buffered = session.getBufferSize();
+            total += buffered;
+            highWater = Math.max(highWater, session.highWater.getAndSet(buffered));
+            if (buffered > deepest) {
+                deepest = buffered;
+                deepestSession = entry.getKey();
+            }
+        }
+        log.info("WebSocket outbound: {} sessions, {} bytes buffered, deepest {} ({}), high water {}, "
+                        + "{} overflows, {} slow consumers disconnected",
+                sessions.size(), total, deepest, deepestSession, highWater, overflows.sum(), disconnected.sum());
+    }
+
+    private WebSocketSession decorated(WebSocketSession session) {
+        FlowControlledSession decorated = sessions.get(session.getId());
+        return decorated != null ? decorated : session;
+    }
+
+    private boolean dropPolicy() {
+        return "drop".equalsIgnoreCase(slowConsumerPolicy);
+    }
+
+    /**
+     * Session whose outbound buffer is bounded by the configured limits; high water is
+     * reset at each stats report.
+     */
+    private final class FlowControlledSession extends ConcurrentWebSocketSessionDecorator {
+
+        final AtomicInteger highWater = new AtomicInteger();
+
+        FlowControlledSession(WebSocketSession session) {
+            super(session, sendTimeLimitMs, sendBufferSizeLimit,
+                    dropPolicy() ? OverflowStrategy.DROP : OverflowStrategy.TERMINATE);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (getBufferSize() + message.getPayloadLength() > getBufferSizeLimit()) {
+                overflows.increment();
+            }
+            try {
+                super.sendMessage(message);
+            } catch (SessionLimitExceededException e) {
+                disconnected.increment();
+                log.info("Disconnecting slow WebSocket consumer {} ({} bytes buffered): {}",
+                        getId(), getBufferSize(), e.getMessage());
+                throw e;
+            }
+            highWater.accumulateAndGet(getBufferSize(), Math::max);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.teachandserve.backend.service;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Cluster-wide presence of users, as reported by the application instances holding
+ * their sessions. Used by {@link PresenceService} so a user's status is the same
+ * whichever instance announces it.
+ *
+ * Each instance records its own status for each of its users as a lease, renewed
+ * periodically, so the statuses of an instance that stops without cleaning up expire
+ * on their own.
+ *
+ * Selected with {@code messaging.cluster.transport}, like {@link ClusterTransport}.
+ */
+public interface PresenceDirectory {
+
+    String ONLINE = "online";
+    String AWAY = "away";
+
+    /**
+     * Record (or renew) an instance's statuses for the given users.
+     *
+     * @param nodeId      Instance ID
+     * @param statuses    {@link #ONLINE} or {@link #AWAY} by user ID
+     * @param leaseMillis How long the statuses stay valid without renewal
+     */
+    void renew(String nodeId, Map<Long, String> statuses, long leaseMillis);
+
+    /**
+     * Remove an instance's status for a user, once the user's last session on it is gone.
+     */
+    void remove(String nodeId, Long userId);
+
+    /**
+     * @return Status of each user with a live lease on any instance: online if any
+     *         instance reports them online, otherwise away; offline users are absent
+     */
+    Map<Long, String> findStatuses(Collection<Long> userIds);
+
+    /**
+     * The more present of two statuses (either may be null).
+     */
+    static String merge(String current, String status) {
+        if (current == null || ONLINE.equals(status)) {
+            return status;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,557 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.dto.PresenceUpdate;
+import com.teachandserve.backend.events.MessageSentEvent;
+import com.teachandserve.backend.model.User;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Online/away presence and typing indicators, kept in memory.
+ *
+ * Every inbound frame of a STOMP session, heartbeats included, renews the session's
+ * lease on a {@link TimingWheel}; a session silent for
+ * {@code messaging.presence.session-timeout-ms} stops counting until it is heard from
+ * again. A user is online with any active session, away if all of them reported away
+ * (/app/presence), and offline without sessions. Typing frames
+ * (/app/conversations.{id}.typing) mark the user as typing in a conversation until
+ * {@code messaging.presence.typing-timeout-ms} pass without another, they stop, or
+ * they send a message.
+ *
+ * Clients subscribe to /topic/conversations.{id}.presence for each of their
+ * conversations. Those subscriptions also define where a user's own presence is
+ * announced, so nothing is looked up in the database. Changes are collected and
+ * published every {@code messaging.presence.debounce-ms}, and only if the state differs
+ * from what was last published, so flapping and repeated typing frames cost nothing on
+ * the wire. A new subscription triggers a snapshot of the conversation's participants.
+ *
+ * Instances share presence through a {@link PresenceDirectory} of leased per-instance
+ * statuses, renewed every {@code messaging.presence.heartbeat-ms}: a user's status is
+ * the best across instances, and the statuses of an instance that dies expire.
+ *
+ * The heartbeat path is a map lookup and a wheel reschedule. Session state and its
+ * timeouts are allocated once per connection, so heartbeats allocate nothing.
+ */
+@Service
+public class PresenceService implements ChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    private static final String OFFLINE = "offline";
+    private static final Pattern PRESENCE_TOPIC = Pattern.compile("^/topic/conversations\\.(\\d+)\\.presence$");
+
+    @Value("${messaging.presence.session-timeout-ms:30000}")
+    private long sessionTimeoutMillis;
+
+    @Value("${messaging.presence.typing-timeout-ms:6000}")
+    private long typingTimeoutMillis;
+
+    @Value("${messaging.presence.debounce-ms:500}")
+    private long debounceMillis;
+
+    @Value("${messaging.presence.lease-ms:30000}")
+    private long leaseMillis;
+
+    @Value("${messaging.presence.wheel-tick-ms:100}")
+    private long wheelTickMillis;
+
+    @Value("${messaging.presence.wheel-size:1024}")
+    private int wheelSize;
+
+    private final MessagingPublisher messagingPublisher;
+    private final PresenceDirectory presenceDirectory;
+    private final ConversationMembershipCache membershipCache;
+    private final AbstractSubscribableChannel clientInboundChannel;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // Connected sessions by id; read without locking on the heartbeat path
+    private final Map<String, SessionPresence> sessions = new ConcurrentHashMap<>();
+
+    // Guarded by this: users with sessions here (or a departure still to announce), users
+    // whose status may have changed, conversations due a snapshot, users whose typing
+    // state may have changed by conversation, and typing users last published by conversation
+    private final Map<Long, UserPresence> users = new HashMap<>();
+    private final Set<Long> dirtyUsers = new HashSet<>();
+    private final Set<Long> pendingSnapshots = new HashSet<>();
+    private final Map<Long, Set<Long>> typingChanges = new HashMap<>();
+    private final Map<Long, Set<Long>> publishedTyping = new HashMap<>();
+
+    private TimingWheel wheel;
+    private ScheduledExecutorService ticker;
+
+    public PresenceService(MessagingPublisher messagingPublisher,
+                           PresenceDirectory presenceDirectory,
+                           ConversationMembershipCache membershipCache,
+                           @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel) {
+        this.messagingPublisher = messagingPublisher;
+        this.presenceDirectory = presenceDirectory;
+        this.membershipCache = membershipCache;
+        this.clientInboundChannel = clientInboundChannel;
+    }
+
+    @PostConstruct
+    void init() {
+        // Registered here rather than in WebSocketConfig, which the broker beans this
+        // service depends on are built from; runs after StompAuthChannelInterceptor
+        clientInboundChannel.addInterceptor(this);
+        wheel = new TimingWheel(wheelTickMillis, wheelSize, System.currentTimeMillis());
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, wheelTickMillis, wheelTickMillis, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::flush, debounceMillis, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+        List<Long> userIds;
+        synchronized (this) {
+            userIds = List.copyOf(users.keySet());
+            users.clear();
+        }
+        userIds.forEach(userId -> presenceDirectory.remove(nodeId, userId));
+    }
+
+    /**
+     * Renew the lease of the frame's session.
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        SessionPresence session = sessionId != null ? sessions.get(sessionId) : null;
+        if (session != null) {
+            wheel.schedule(session.lease, sessionTimeoutMillis);
+            if (session.expired) {
+                revive(session);
+            }
+        }
+        return message;
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        Long userId = userIdOf(event.getUser());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (userId == null || sessionId == null) {
+            return;
+        }
+        SessionPresence session = new SessionPresence(sessionId, userId);
+        synchronized (this) {
+            users.computeIfAbsent(userId, key -> new UserPresence()).sessions.add(session);
+            dirtyUsers.add(userId);
+            sessions.put(sessionId, session);
+            wheel.schedule(session.lease, sessionTimeoutMillis);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        synchronized (this) {
+            SessionPresence session = sessions.remove(event.getSessionId());
+            if (session == null) {
+                return;
+            }
+            wheel.cancel(session.lease);
+            stopTyping(session);
+            // Kept until the next flush, which announces the departure
+            UserPresence user = users.get(session.userId);
+            if (user != null) {
+                user.sessions.remove(session);
+            }
+            dirtyUsers.add(session.userId);
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Long conversationId = conversationIdOf(accessor.getDestination());
+        String sessionId = accessor.getSessionId();
+        if (conversationId == null || sessionId == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        synchronized (this) {
+            SessionPresence session = sessions.get(sessionId);
+            if (session != null) {
+                session.subscriptions.put(accessor.getSubscriptionId(), conversationId);
+                pendingSnapshots.add(conversationId);
+            }
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        if (sessionId == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        synchronized (this) {
+            SessionPresence session = sessions.get(sessionId);
+            if (session != null) {
+                session.subscriptions.remove(accessor.getSubscriptionId());
+            }
+        }
+    }
+
+    /**
+     * A sent message ends its sender's typing indicator in the conversation.
+     */
+    @EventListener
+    public void onMessageSent(MessageSentEvent event) {
+        synchronized (this) {
+            UserPresence user = users.get(event.getSenderId());
+            if (user == null) {
+                return;
+            }
+            for (SessionPresence session : user.sessions) {
+                if (event.getConversationId().equals(session.typingConversationId)) {
+                    stopTyping(session);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set whether a session's user is away, e.g. with the app in the background.
+     *
+     * @param sessionId STOMP session ID
+     * @param away      true for away, false for online
+     */
+    public void setAway(String sessionId, boolean away) {
+        synchronized (this) {
+            SessionPresence session = sessions.get(sessionId);
+            if (session != null && session.away != away) {
+                session.away = away;
+                dirtyUsers.add(session.userId);
+            }
+        }
+    }
+
+    /**
+     * Start (or keep up) or stop a session's typing indicator in a conversation.
+     * Clients repeat typing frames while the user types, at least once per
+     * messaging.presence.typing-timeout-ms; a session types in one conversation at a time.
+     *
+     * @param sessionId      STOMP session ID
+     * @param conversationId Conversation ID
+     * @param typing         Whether the user is typing
+     * @throws IllegalArgumentException if the session's user is not a participant
+     */
+    public void setTyping(String sessionId, Long conversationId, boolean typing) {
+        SessionPresence session = sessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+        if (!membershipCache.isParticipant(conversationId, session.userId)) {
+            throw new IllegalArgumentException("User is not a participant in this conversation");
+        }
+        synchronized (this) {
+            if (!typing) {
+                if (conversationId.equals(session.typingConversationId)) {
+                    stopTyping(session);
+                }
+                return;
+            }
+            if (!conversationId.equals(session.typingConversationId)) {
+                stopTyping(session);
+                session.typingConversationId = conversationId;
+                markTypingChanged(conversationId, session.userId);
+            }
+            wheel.schedule(session.typingTimeout, typingTimeoutMillis);
+        }
+    }
+
+    /**
+     * Renew this instance's presence leases for its users.
+     */
+    @Scheduled(fixedDelayString = "${messaging.presence.heartbeat-ms:10000}")
+    public void renewLeases() {
+        Map<Long, String> statuses = new HashMap<>();
+        synchronized (this) {
+            users.forEach((userId, user) -> {
+                String status = user.localStatus();
+                if (status != null) {
+                    statuses.put(userId, status);
+                }
+            });
+        }
+        presenceDirectory.renew(nodeId, statuses, leaseMillis);
+    }
+
+    /**
+     * @return Number of STOMP sessions tracked on this instance
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Publish the presence and typing changes collected since the last flush.
+     */
+    void flush() {
+        try {
+            Set<Long> dirty;
+            Set<Long> snapshots;
+            Map<Long, String> localStatuses = new HashMap<>();
+            List<Long> departed = new ArrayList<>();
+            List<PresenceUpdate> updates = new ArrayList<>();
+            synchronized (this) {
+                if (dirtyUsers.isEmpty() && pendingSnapshots.isEmpty() && typingChanges.isEmpty()) {
+                    return;
+                }
+                dirty = new HashSet<>(dirtyUsers);
+                snapshots = new HashSet<>(pendingSnapshots);
+                dirtyUsers.clear();
+                pendingSnapshots.clear();
+
+                for (Long userId : dirty) {
+                    UserPresence user = users.get(userId);
+                    String status = user != null ? user.localStatus() : null;
+                    if (status != null) {
+                        localStatuses.put(userId, status);
+                    } else {
+                        departed.add(userId);
+                    }
+                }
+                collectTypingUpdates(updates);
+            }
+
+            // Make this instance's view visible to the others before reading everyone's
+            presenceDirectory.renew(nodeId, localStatuses, leaseMillis);
+            departed.forEach(userId -> presenceDirectory.remove(nodeId, userId));
+
+            Map<Long, Set<Long>> participants = new HashMap<>();
+            Set<Long> lookup = new HashSet<>(dirty);
+            for (Long conversationId : snapshots) {
+                Set<Long> participantIds = membershipCache.getParticipantIds(conversationId);
+                participants.put(conversationId, participantIds);
+                lookup.addAll(participantIds);
+            }
+            Map<Long, String> statuses = presenceDirectory.findStatuses(lookup);
+            // This instance's own users count even if the directory is unreachable
+            localStatuses.forEach((userId, status) -> statuses.merge(userId, status, PresenceDirectory::merge));
+
+            synchronized (this) {
+                for (Long userId : dirty) {
+                    UserPresence user = users.get(userId);
+                    if (user == null) {
+                        continue;
+                    }
+                    String status = statuses.getOrDefault(userId, OFFLINE);
+                    Set<Long> conversations = user.conversations();
+                    if (!status.equals(user.published)) {
+                        // Also where the user was announced before, so departures reach them
+                        Set<Long> targets = new HashSet<>(conversations);
+                        targets.addAll(user.announcedTo);
+                        targets.forEach(conversationId ->
+                                updates.add(PresenceUpdate.presence(conversationId, userId, status)));
+                        user.published = status;
+                    }
+                    user.announcedTo = conversations;
+                    if (user.sessions.isEmpty()) {
+                        users.remove(userId);
+                    }
+                }
+            }
+            participants.forEach((conversationId, participantIds) -> participantIds.forEach(userId ->
+                    updates.add(PresenceUpdate.presence(conversationId, userId, statuses.getOrDefault(userId, OFFLINE)))));
+
+            for (PresenceUpdate update : updates) {
+                messagingPublisher.publish("/topic/conversations." + update.getConversationId() + ".presence", update);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to publish presence changes", e);
+        }
+    }
+
+    private void tick() {
+        try {
+            wheel.advance(System.currentTimeMillis());
+        } catch (Exception e) {
+            log.warn("Presence timeout failed", e);
+        }
+    }
+
+    // Caller holds the lock
+    private void collectTypingUpdates(List<PresenceUpdate> updates) {
+        typingChanges.forEach((conversationId, userIds) -> {
+            Set<Long> published = publishedTyping.computeIfAbsent(conversationId, key -> new HashSet<>());
+            for (Long userId : userIds) {
+                boolean typing = isTyping(userId, conversationId);
+                if (typing ? published.add(userId) : published.remove(userId)) {
+                    updates.add(PresenceUpdate.typing(conversationId, userId, typing));
+                }
+            }
+            if (published.isEmpty()) {
+                publishedTyping.remove(conversationId);
+            }
+        });
+        typingChanges.clear();
+    }
+
+    // Caller holds the lock
+    private boolean isTyping(Long userId, Long conversationId) {
+        UserPresence user = users.get(userId);
+        if (user == null) {
+            return false;
+        }
+        for (SessionPresence session : user.sessions) {
+            if (!session.expired && conversationId.equals(session.typingConversationId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Caller holds the lock
+    private void stopTyping(SessionPresence session) {
+        if (session.typingConversationId != null) {
+            markTypingChanged(session.typingConversationId, session.userId);
+            session.typingConversationId = null;
+            wheel.cancel(session.typingTimeout);
+        }
+    }
+
+    // Caller holds the lock
+    private void markTypingChanged(Long conversationId, Long userId) {
+        typingChanges.computeIfAbsent(conversationId, key -> new HashSet<>()).add(userId);
+    }
+
+    private void leaseExpired(SessionPresence session) {
+        synchronized (this) {
+            // Renewed since it expired, or disconnected
+            if (wheel.isScheduled(session.lease) || sessions.get(session.sessionId) != session) {
+                return;
+            }
+            session.expired = true;
+            stopTyping(session);
+            dirtyUsers.add(session.userId);
+        }
+    }
+
+    private void revive(SessionPresence session) {
+        synchronized (this) {
+            if (session.expired && sessions.get(session.sessionId) == session) {
+                session.expired = false;
+                dirtyUsers.add(session.userId);
+            }
+        }
+    }
+
+    private void typingExpired(SessionPresence session) {
+        synchronized (this) {
+            if (!wheel.isScheduled(session.typingTimeout)) {
+                stopTyping(session);
+            }
+        }
+    }
+
+    private static Long conversationIdOf(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        Matcher matcher = PRESENCE_TOPIC.matcher(destination);
+        return matcher.matches() ? Long.valueOf(matcher.group(1)) : null;
+    }
+
+    private static Long userIdOf(Principal principal) {
+        if (principal instanceof Authentication authentication && authentication.getPrincipal() instanceof User user) {
+            return user.getId();
+        }
+        return null;
+    }
+
+    /**
+     * One STOMP session: its lease and typing timeouts, created once and rescheduled in place.
+     */
+    private final class SessionPresence {
+        final String sessionId;
+        final Long userId;
+        final TimingWheel.Timeout lease = new TimingWheel.Timeout(() -> leaseExpired(this));
+        final TimingWheel.Timeout typingTimeout = new TimingWheel.Timeout(() -> typingExpired(this));
+
+        // Written under the service's lock, read without it on the heartbeat path
+        volatile boolean expired;
+
+        // Guarded by the service's lock: away flag, conversation being typed in, and
+        // presence topic subscriptions (conversation ID by subscription ID)
+        boolean away;
+        Long typingConversationId;
+        final Map<String, Long> subscriptions = new HashMap<>();
+
+        SessionPresence(String sessionId, Long userId) {
+            this.sessionId = sessionId;
+            this.userId = userId;
+        }
+    }
+
+    /**
+     * A user's sessions on this instance and what was last announced for them.
+     * Guarded by the service's lock.
+     */
+    private static final class UserPresence {
+        final List<SessionPresence> sessions = new ArrayList<>();
+        String published;
+        Set<Long> announcedTo = Set.of();
+
+        // Best status of the live sessions, or null without any
+        String localStatus() {
+            String status = null;
+            for (SessionPresence session : sessions) {
+                if (!session.expired) {
+                    status = PresenceDirectory.merge(status,
+                            session.away ? PresenceDirectory.AWAY : PresenceDirectory.ONLINE);
+                }
+            }
+            return status;
+        }
+
+        Set<Long> conversations() {
+            Set<Long> conversations = new HashSet<>();
+            for (SessionPresence session : sessions) {
+                conversations.addAll(session.subscriptions.values());
+            }
+            return conversations;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.teachandserve.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One-off background job that fills in the last-message previews of conversations
+ * summarized before previews existed ({@code V006__conversation_summary.sql} can't,
+ * since previews are encrypted by the application).
+ *
+ * Inbox reads never write: until its preview is filled in, a conversation is listed
+ * with a null preview. The job walks conversations with a missing preview in id order,
+ * decrypts each last message and stores its preview, guarded by the summary still
+ * pointing at that message. Send traffic always writes a preview, so once a pass finds
+ * nothing left the job stops for the life of the process.
+ *
+ * - Decrypts through an {@link EncryptionService.ReEncryptionSession}, so it never
+ *   touches the shared key cache used by live traffic
+ * - Throttled by {@code messaging.preview-backfill.max-derivations-per-second}: every
+ *   conversation costs a PBKDF2 derivation
+ * - Idempotent, so instances running it at the same time only duplicate work
+ */
+@Service
+public class PreviewBackfillService {
+
+    private static final Logger log = LoggerFactory.getLogger(PreviewBackfillService.class);
+
+    private static final String SELECT_BATCH_SQL = """
+        SELECT c.id, c.last_message_id, m.body, m.legacy_body
+        FROM conversations c
+        JOIN messages m ON m.id = c.last_message_id
+        WHERE c.last_message_preview IS NULL AND c.id > ?
+        ORDER BY c.id
+        LIMIT ?
+    """;
+
+    private static final String UPDATE_PREVIEW_SQL = """
+        UPDATE conversations SET last_message_preview = ?
+        WHERE id = ? AND last_message_id = ? AND last_message_preview IS NULL
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EncryptionService encryptionService;
+
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    @Value("${messaging.preview-backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${messaging.preview-backfill.batch-size:100}")
+    private int batchSize;
+
+    @Value("${messaging.preview-backfill.max-derivations-per-second:20}")
+    private int maxDerivationsPerSecond;
+
+    public PreviewBackfillService(JdbcTemplate jdbcTemplate, EncryptionService encryptionService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.encryptionService = encryptionService;
+    }
+
+    /**
+     * Run the backfill shortly after startup, then retry until a pass completes.
+     */
+    @Scheduled(initialDelayString = "${messaging.preview-backfill.initial-delay-ms:30000}",
+               fixedDelayString = "${messaging.preview-backfill.interval-ms:300000}")
+    public void scheduledBackfill() {
+        if (enabled && !done.get()) {
+            backfillPreviews();
+        }
+    }
+
+    /**
+     * Fill in every missing preview. Conversations whose last message can't be decrypted
+     * are skipped and keep a null preview.
+     *
+     * @return number of previews stored by this call
+     */
+    public long backfillPreviews() {
+        long filled = 0;
+        long lastConversationId = 0;
+        EncryptionService.ReEncryptionSession session = encryptionService.newReEncryptionSession();
+        try {
+            while (true) {
+                long batchStart = System.nanoTime();
+                long derivationsBefore = session.getDerivationCount();
+
+                List<Summary> batch = jdbcTemplate.query(SELECT_BATCH_SQL,
+                        (rs, rowNum) -> new Summary(rs.getLong("id"), rs.getLong("last_message_id"),
+                                rs.getBytes("body"), rs.getBoolean("legacy_body")),
+                        lastConversationId, batchSize);
+                if (batch.isEmpty()) {
+                    done.set(true);
+                    if (filled > 0) {
+                        log.info("Preview backfill complete ({} previews stored by this instance)", filled);
+                    }
+                    return filled;
+                }
+
+                List<Object[]> updates = new ArrayList<>(batch.size());
+                for (Summary summary : batch) {
+                    try {
+                        String preview = ConversationService.toPreview(
+                                session.decrypt(summary.body(), summary.conversationId(), summary.legacy()));
+                        updates.add(new Object[] {encryptionService.encryptPreview(preview, summary.conversationId()),
+                                summary.conversationId(), summary.lastMessageId()});
+                    } catch (RuntimeException e) {
+                        log.warn("Skipping preview of conversation {}: {}", summary.conversationId(), e.getMessage());
+                    }
+                }
+                if (!updates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(UPDATE_PREVIEW_SQL, updates);
+                }
+                filled += updates.size();
+                lastConversationId = batch.get(batch.size() - 1).conversationId();
+
+                throttle(session.getDerivationCount() - derivationsBefore, batchStart);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return filled;
+        } catch (RuntimeException e) {
+            log.error("Preview backfill failed after conversation {}", lastConversationId, e);
+            return filled;
+        }
+    }
+
+    private void throttle(long derivations, long batchStartNanos) throws InterruptedException {
+        if (maxDerivationsPerSecond <= 0) {
+            return;
+        }
+        long targetMillis = derivations * 1000L / maxDerivationsPerSecond;
+        long elapsedMillis = (System.nanoTime() - batchStartNanos) / 1_000_000;
+        if (targetMillis > elapsedMillis) {
+            Thread.sleep(targetMillis - elapsedMillis);
+        }
+    }
+
+    private record Summary(long conversationId, long lastMessageId, byte[] body, boolean legacy) {
+    }
+}
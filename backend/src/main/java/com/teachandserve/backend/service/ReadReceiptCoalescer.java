@@ -0,0 +1,163 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.events.MessagesReadEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes read receipts as read-watermark ranges instead of one frame per message.
+ *
+ * Each committed mark-as-read contributes a range (fromMessageId, lastReadMessageId]
+ * for its conversation. Ranges from the same user are held for a short window
+ * ({@code messaging.read-receipts.coalesce-ms}) and merged per conversation, then sent
+ * as a single {@link ReadReceiptBatch} to /topic/users.{userId}.read-receipts. Read
+ * traffic is therefore one small frame per user per window, however many messages
+ * were read. A window of 0 publishes every range immediately.
+ */
+@Service
+public class ReadReceiptCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadReceiptCoalescer.class);
+
+    private final MessagingPublisher messagingPublisher;
+
+    @Value("${messaging.read-receipts.coalesce-ms:200}")
+    private long coalesceMillis;
+
+    // Pending ranges by user id, then conversation id
+    private final Map<Long, Map<Long, ReadRange>> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    public ReadReceiptCoalescer(MessagingPublisher messagingPublisher) {
+        this.messagingPublisher = messagingPublisher;
+    }
+
+    @PostConstruct
+    void init() {
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "read-receipt-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessagesRead(MessagesReadEvent event) {
+        ReadRange range = new ReadRange(event.getConversationId(), event.getPreviousReadMessageId(),
+                event.getLastReadMessageId());
+        if (coalesceMillis <= 0) {
+            publish(event.getUserId(), List.of(range));
+            return;
+        }
+
+        boolean[] opened = new boolean[1];
+        pending.compute(event.getUserId(), (userId, ranges) -> {
+            if (ranges == null) {
+                ranges = new HashMap<>();
+                opened[0] = true;
+            }
+            ranges.merge(range.getConversationId(), range, ReadRange::merge);
+            return ranges;
+        });
+
+        // The first range of a window schedules its flush
+        if (opened[0]) {
+            flusher.schedule(() -> flush(event.getUserId()), coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(Long userId) {
+        Map<Long, ReadRange> ranges = pending.remove(userId);
+        if (ranges == null) {
+            return;
+        }
+        try {
+            publish(userId, new ArrayList<>(ranges.values()));
+        } catch (Exception e) {
+            log.warn("Failed to publish read receipts for user {}", userId, e);
+        }
+    }
+
+    private void publish(Long userId, List<ReadRange> ranges) {
+        messagingPublisher.publish(
+                "/topic/users." + userId + ".read-receipts",
+                new ReadReceiptBatch(userId, ranges)
+        );
+    }
+
+    /**
+     * Read receipts of one user: every message in each range now counts as read by them.
+     */
+    public static class ReadReceiptBatch {
+        private final Long userId;
+        private final List<ReadRange> ranges;
+
+        public ReadReceiptBatch(Long userId, List<ReadRange> ranges) {
+            this.userId = userId;
+            this.ranges = ranges;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+
+        public List<ReadRange> getRanges() {
+            return ranges;
+        }
+    }
+
+    /**
+     * Messages (fromMessageId, lastReadMessageId] of a conversation.
+     */
+    public static class ReadRange {
+        private final Long conversationId;
+        private final Long fromMessageId;
+        private final Long lastReadMessageId;
+
+        public ReadRange(Long conversationId, Long fromMessageId, Long lastReadMessageId) {
+            this.conversationId = conversationId;
+            this.fromMessageId = fromMessageId;
+            this.lastReadMessageId = lastReadMessageId;
+        }
+
+        public Long getConversationId() {
+            return conversationId;
+        }
+
+        public Long getFromMessageId() {
+            return fromMessageId;
+        }
+
+        public Long getLastReadMessageId() {
+            return lastReadMessageId;
+        }
+
+        ReadRange merge(ReadRange other) {
+            return new ReadRange(conversationId,
+                    Math.min(fromMessageId, other.fromMessageId),
+                    Math.max(lastReadMessageId, other.lastReadMessageId));
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.dto.MessageCursor;
+import com.teachandserve.backend.dto.MessagePage;
+import com.teachandserve.backend.dto.MessageResponse;
+import com.teachandserve.backend.events.MessageSentEvent;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * In-process ring buffers of the most recent decrypted messages per conversation.
+ *
+ * Opening a conversation (and every reconnect or new tab) loads its latest page. The
+ * buffer holds the newest {@code messaging.recent-cache.messages-per-conversation}
+ * messages, so that page is served from memory instead of Postgres plus decryption.
+ *
+ * - Filled on the first latest-page read, extended after commit by {@link MessageSentEvent}
+ *   (oldest message dropped once full); conversations without a buffer are left alone.
+ *   Pages with messages that failed to decrypt are served but not buffered
+ * - Bounded by conversation count and an estimated memory budget, least recently used
+ *   evicted first
+ * - Sends broadcast the conversation id over the {@link ClusterTransport}; other
+ *   instances drop their buffer and refill it on the next read. Buffers also expire
+ *   {@code messaging.recent-cache.ttl-seconds} after they were filled, which bounds
+ *   staleness from invalidations lost while the transport was down
+ * - A fill that overlaps a send or invalidation for the same conversation is discarded,
+ *   so a buffer never misses a committed message
+ * - Hits, misses, fills and evictions are counted and logged periodically
+ */
+@Service
+public class RecentMessageCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RecentMessageCache.class);
+
+    private static final String INVALIDATION_CHANNEL = "messaging:recent-cache:invalidate";
+
+    // Rough per-message overhead of MessageResponse, its boxed fields and timestamps
+    private static final int MESSAGE_OVERHEAD_BYTES = 256;
+
+    @Value("${messaging.recent-cache.messages-per-conversation:50}")
+    private int capacity;
+
+    @Value("${messaging.recent-cache.max-conversations:5000}")
+    private int maxConversations;
+
+    @Value("${messaging.recent-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${messaging.recent-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    private final ClusterTransport clusterTransport;
+
+    // Identifies this instance's own invalidations, which the transport loops back
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // Buffers (or fills in progress) by conversation id, least recently used first; guarded by itself
+    private final LinkedHashMap<Long, Slot> buffers = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder fills = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public RecentMessageCache(ClusterTransport clusterTransport) {
+        this.clusterTransport = clusterTransport;
+    }
+
+    @PostConstruct
+    void init() {
+        clusterTransport.subscribe(INVALIDATION_CHANNEL, message -> {
+            String payload = new String(message, StandardCharsets.UTF_8);
+            int separator = payload.indexOf(':');
+            if (separator > 0 && !payload.substring(0, separator).equals(nodeId)) {
+                evict(Long.valueOf(payload.substring(separator + 1)));
+            }
+        });
+    }
+
+    /**
+     * Get the latest page of a conversation, from its buffer if possible.
+     *
+     * @param conversationId Conversation ID
+     * @param limit          Page size
+     * @param loader         Loads the newest {@code n} messages (newest first) from the database
+     * @return Latest page, newest first
+     */
+    public MessagePage getLatest(Long conversationId, int limit, IntFunction<MessagePage> loader) {
+        if (limit > capacity) {
+            return loader.apply(limit);
+        }
+
+        Slot fill = null;
+        synchronized (buffers) {
+            Slot slot = buffers.get(conversationId);
+            if (slot instanceof Buffer buffer) {
+                if (buffer.expiresAt() - System.nanoTime() > 0) {
+                    hits.increment();
+                    return buffer.page(limit);
+                }
+                buffers.remove(conversationId);
+                totalBytes -= buffer.bytes();
+                slot = null;
+            }
+            misses.increment();
+            if (slot == null) {
+                fill = new Fill();
+                buffers.put(conversationId, fill);
+            }
+        }
+        if (fill == null) {
+            // Another request is filling it; don't wait
+            return loader.apply(limit);
+        }
+
+        long filledAt = System.nanoTime();
+        MessagePage page;
+        try {
+            page = loader.apply(capacity);
+        } catch (RuntimeException e) {
+            synchronized (buffers) {
+                buffers.remove(conversationId, fill);
+            }
+            throw e;
+        }
+
+        Buffer buffer = new Buffer(List.copyOf(page.getMessages()), page.isHasMore(),
+                filledAt + ttlSeconds * 1_000_000_000L);
+        boolean cacheable = buffer.messages().stream()
+                .noneMatch(message -> MessageService.DECRYPTION_FAILED_BODY.equals(message.getBody()));
+        synchronized (buffers) {
+            if (!cacheable) {
+                // Serve the placeholders, but let the next read try to decrypt again
+                buffers.remove(conversationId, fill);
+            } else if (buffers.get(conversationId) == fill) {
+                // No send or invalidation removed the fill marker while we were loading
+                buffers.put(conversationId, buffer);
+                totalBytes += buffer.bytes();
+                fills.increment();
+                evictOverBudget();
+            }
+        }
+        return buffer.page(limit);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageSent(MessageSentEvent event) {
+        Long conversationId = event.getConversationId();
+        synchronized (buffers) {
+            Slot slot = buffers.get(conversationId);
+            if (slot instanceof Buffer buffer) {
+                Buffer updated = buffer.with(event.getMessage(), capacity);
+                buffers.put(conversationId, updated);
+                totalBytes += updated.bytes() - buffer.bytes();
+                evictOverBudget();
+            } else if (slot != null) {
+                buffers.remove(conversationId);
+            }
+        }
+        publishInvalidation(conversationId);
+    }
+
+    /**
+     * Drop a conversation's buffer on this node.
+     */
+    public void evict(Long conversationId) {
+        synchronized (buffers) {
+            Slot slot = buffers.remove(conversationId);
+            if (slot instanceof Buffer buffer) {
+                totalBytes -= buffer.bytes();
+            }
+        }
+        invalidations.increment();
+    }
+
+    /**
+     * @return Fraction of latest-page reads served from memory since startup
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Scheduled(initialDelayString = "${messaging.recent-cache.stats-interval-ms:300000}",
+               fixedDelayString = "${messaging.recent-cache.stats-interval-ms:300000}")
+    public void logStats() {
+        int size;
+        long bytes;
+        synchronized (buffers) {
+            size = buffers.size();
+            bytes = totalBytes;
+        }
+        log.info("Recent message cache: {} conversations, ~{} KiB, hit rate {}% ({} hits, {} misses), "
+                        + "{} fills, {} evictions, {} invalidations",
+                size, bytes / 1024, Math.round(getHitRate() * 1000) / 10.0, hits.sum(), misses.sum(),
+                fills.sum(), evictions.sum(), invalidations.sum());
+    }
+
+    private void publishInvalidation(Long conversationId) {
+        try {
+            clusterTransport.publish(INVALIDATION_CHANNEL,
+                    (nodeId + ":" + conversationId).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            // Other instances pick up the change when their buffers expire
+            log.warn("Failed to broadcast recent cache invalidation for conversation {}", conversationId, e);
+        }
+    }
+
+    // Caller holds the buffers lock
+    private void evictOverBudget() {
+        Iterator<Map.Entry<Long, Slot>> eldest = buffers.entrySet().iterator();
+        while ((buffers.size() > maxConversations || totalBytes > maxBytes) && eldest.hasNext()) {
+            Slot slot = eldest.next().getValue();
+            if (slot instanceof Buffer buffer) {
+                totalBytes -= buffer.bytes();
+            }
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private sealed interface Slot permits Fill, Buffer {
+    }
+
+    // Marker for a fill in progress
+    private static final class Fill implements Slot {
+    }
+
+    /**
+     * Newest messages of a conversation, newest first. {@code hasMore} tells whether
+     * older messages exist beyond the oldest one held.
+     */
+    private record Buffer(List<MessageResponse> messages, boolean hasMore, long expiresAt, long bytes)
+            implements Slot {
+
+        Buffer(List<MessageResponse> messages, boolean hasMore, long expiresAt) {
+            this(messages, hasMore, expiresAt, estimateBytes(messages));
+        }
+
+        MessagePage page(int limit) {
+            if (messages.size() > limit) {
+                List<MessageResponse> page = messages.subList(0, limit);
+                return new MessagePage(page, MessageCursor.encode(page.get(limit - 1).getId()), true);
+            }
+            String nextCursor = hasMore && !messages.isEmpty()
+                    ? MessageCursor.encode(messages.get(messages.size() - 1).getId())
+                    : null;
+            return new MessagePage(messages, nextCursor, hasMore);
+        }
+
+        /**
+         * Insert a message by id (ids are not always committed in order), dropping the oldest once full.
+         */
+        Buffer with(MessageResponse message, int capacity) {
+            List<MessageResponse> updated = new ArrayList<>(messages.size() + 1);
+            boolean inserted = false;
+            for (MessageResponse existing : messages) {
+                if (!inserted && message.getId() >= existing.getId()) {
+                    if (message.getId().equals(existing.getId())) {
+                        return this;
+                    }
+                    updated.add(message);
+                    inserted = true;
+                }
+                updated.add(existing);
+            }
+            if (!inserted) {
+                if (hasMore) {
+                    // Older than everything held and not known to be adjacent; leave it to the database
+                    return this;
+                }
+                updated.add(message);
+            }
+
+            boolean trimmed = updated.size() > capacity;
+            if (trimmed) {
+                updated.remove(updated.size() - 1);
+            }
+            return new Buffer(List.copyOf(updated), hasMore || trimmed, expiresAt);
+        }
+
+        private static long estimateBytes(List<MessageResponse> messages) {
+            long bytes = 0;
+            for (MessageResponse message : messages) {
+                int bodyLength = message.getBody() != null ? message.getBody().length() : 0;
+                int nameLength = message.getSenderName() != null ? message.getSenderName().length() : 0;
+                bytes += MESSAGE_OVERHEAD_BYTES + 2L * (bodyLength + nameLength);
+            }
+            return bytes;
+        }
+    }
+}
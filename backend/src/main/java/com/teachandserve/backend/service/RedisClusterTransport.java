@@ -0,0 +1,112 @@
+package com.teachandserve.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * {@link ClusterTransport} over Redis pub/sub, using the shared
+ * {@link RedisMessageListenerContainer}.
+ *
+ * The container does not retry a subscription that failed because Redis was down, so
+ * channels that were never added to it are re-registered on a schedule. Registration is
+ * tracked per channel: the container's listening flag also reflects listeners other
+ * components add to it, so it doesn't tell whether these channels are subscribed.
+ */
+@Service
+@ConditionalOnProperty(name = "messaging.cluster.transport", havingValue = "redis")
+public class RedisClusterTransport implements ClusterTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisClusterTransport.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    // Listeners by channel
+    private final Map<String, MessageListener> listeners = new ConcurrentHashMap<>();
+
+    // Channels whose current listener has been added to the container
+    private final Set<String> registered = ConcurrentHashMap.newKeySet();
+
+    public RedisClusterTransport(StringRedisTemplate redisTemplate,
+                                 RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        byte[] channelName = channel.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channelName, message));
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> handler) {
+        MessageListener listener = (message, pattern) -> handler.accept(message.getBody());
+        listeners.put(channel, listener);
+        registered.remove(channel);
+        // Before the container starts, leave registration to resubscribe(); a listener present
+        // at startup would fail the application context while Redis is unreachable
+        if (listenerContainer.isRunning()) {
+            register(channel, listener);
+        }
+    }
+
+    @Override
+    public void unsubscribe(String channel) {
+        MessageListener listener = listeners.remove(channel);
+        if (listener == null) {
+            return;
+        }
+        registered.remove(channel);
+        try {
+            listenerContainer.removeMessageListener(listener, new ChannelTopic(channel));
+        } catch (Exception e) {
+            log.debug("Failed to unsubscribe from Redis channel {}", channel, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${messaging.cluster.resubscribe-interval-ms:10000}")
+    public void resubscribe() {
+        if (!listenerContainer.isRunning()) {
+            return;
+        }
+        listeners.forEach((channel, listener) -> {
+            if (!registered.contains(channel)) {
+                register(channel, listener);
+            }
+        });
+    }
+
+    private void register(String channel, MessageListener listener) {
+        try {
+            listenerContainer.addMessageListener(listener, new ChannelTopic(channel));
+        } catch (Exception e) {
+            log.debug("Failed to subscribe to Redis channel {}, will retry", channel, e);
+            return;
+        }
+        if (listeners.get(channel) == listener) {
+            registered.add(channel);
+        } else {
+            // Unsubscribed or replaced while registering
+            try {
+                listenerContainer.removeMessageListener(listener, new ChannelTopic(channel));
+            } catch (Exception e) {
+                log.debug("Failed to unsubscribe from Redis channel {}", channel, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.teachandserve.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PresenceDirectory} in Redis.
+ *
+ * Key "presence:{userId}" is a hash of instance ID to "{status}:{expiresAt}" (epoch
+ * millis). Lookups ignore expired fields; renewals keep the key itself alive for one
+ * lease, so users who left every instance disappear. Lease lengths should leave room for
+ * clock skew between instances.
+ */
+@Service
+@ConditionalOnProperty(name = "messaging.cluster.transport", havingValue = "redis")
+public class RedisPresenceDirectory implements PresenceDirectory {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisPresenceDirectory.class);
+
+    private static final String KEY_PREFIX = "presence:";
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisPresenceDirectory(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public void renew(String nodeId, Map<Long, String> statuses, long leaseMillis) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + leaseMillis;
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                statuses.forEach((userId, status) -> {
+                    String key = buildKey(userId);
+                    redis.hSet(key, nodeId, status + ":" + expiresAt);
+                    redis.pExpire(key, leaseMillis);
+                });
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Failed to renew presence leases for {} users", statuses.size(), e);
+        }
+    }
+
+    @Override
+    public void remove(String nodeId, Long userId) {
+        try {
+            redisTemplate.opsForHash().delete(buildKey(userId), nodeId);
+        } catch (Exception e) {
+            // The lease expires on its own
+            log.debug("Failed to remove presence of user {}", userId, e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Long, String> findStatuses(Collection<Long> userIds) {
+        Map<Long, String> statuses = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return statuses;
+        }
+        List<Long> ids = new ArrayList<>(userIds);
+        List<Object> results;
+        try {
+            results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                ids.forEach(userId -> redis.hGetAll(buildKey(userId)));
+                return null;
+            });
+        } catch (Exception e) {
+            log.debug("Presence directory unavailable for {} users", ids.size(), e);
+            return statuses;
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < ids.size(); i++) {
+            if (!(results.get(i) instanceof Map<?, ?> nodes)) {
+                continue;
+            }
+            String status = null;
+            for (Object value : nodes.values()) {
+                String lease = String.valueOf(value);
+                int separator = lease.lastIndexOf(':');
+                if (separator > 0 && Long.parseLong(lease.substring(separator + 1)) > now) {
+                    status = PresenceDirectory.merge(status, lease.substring(0, separator));
+                }
+            }
+            if (status != null) {
+                statuses.put(ids.get(i), status);
+            }
+        }
+        return statuses;
+    }
+
+    private String buildKey(Long userId) {
+        return KEY_PREFIX + userId;
+    }
+}
@@ -0,0 +1,83 @@
+package com.teachandserve.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * {@link SessionDirectory} in Redis.
+ *
+ * Key "ws:directory:{userId}" is a sorted set of instance IDs scored by lease expiry
+ * (epoch millis). Lookups only return unexpired members; renewals drop expired ones and
+ * keep the key itself alive for one lease, so users who left entirely disappear.
+ * Lease lengths should leave room for clock skew between instances.
+ */
+@Service
+@ConditionalOnProperty(name = "messaging.cluster.transport", havingValue = "redis")
+public class RedisSessionDirectory implements SessionDirectory {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisSessionDirectory.class);
+
+    private static final String KEY_PREFIX = "ws:directory:";
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisSessionDirectory(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public void renew(String nodeId, Collection<Long> userIds, long leaseMillis) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                for (Long userId : userIds) {
+                    String key = buildKey(userId);
+                    redis.zAdd(key, now + leaseMillis, nodeId);
+                    redis.zRemRangeByScore(key, 0, now);
+                    redis.pExpire(key, leaseMillis);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Failed to renew session directory leases for {} users", userIds.size(), e);
+        }
+    }
+
+    @Override
+    public void remove(String nodeId, Long userId) {
+        try {
+            redisTemplate.opsForZSet().remove(buildKey(userId), nodeId);
+        } catch (Exception e) {
+            // The lease expires on its own
+            log.debug("Failed to remove session directory entry for user {}", userId, e);
+        }
+    }
+
+    @Override
+    public Set<String> findNodes(Long userId) {
+        try {
+            Set<String> nodes = redisTemplate.opsForZSet()
+                    .rangeByScore(buildKey(userId), System.currentTimeMillis(), Double.POSITIVE_INFINITY);
+            return nodes != null ? nodes : Set.of();
+        } catch (Exception e) {
+            log.debug("Session directory unavailable for user {}", userId, e);
+            return Set.of();
+        }
+    }
+
+    private String buildKey(Long userId) {
+        return KEY_PREFIX + userId;
+    }
+}
@@ -0,0 +1,35 @@
+package com.teachandserve.backend.service;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Cluster-wide directory of which application instances hold STOMP sessions for a user,
+ * used by {@link ClusterBroker} to route per-user publications to those instances only.
+ *
+ * Entries are leases: an instance renews the leases of its users periodically, so the
+ * entries of an instance that stops without cleaning up expire on their own.
+ *
+ * Selected with {@code messaging.cluster.transport}, like {@link ClusterTransport}.
+ */
+public interface SessionDirectory {
+
+    /**
+     * Register (or renew) an instance as holding sessions for the given users.
+     *
+     * @param nodeId      Instance ID
+     * @param userIds     Users with sessions on the instance
+     * @param leaseMillis How long the entries stay valid without renewal
+     */
+    void renew(String nodeId, Collection<Long> userIds, long leaseMillis);
+
+    /**
+     * Remove an instance's entry for a user, once the user's last session on it is gone.
+     */
+    void remove(String nodeId, Long userId);
+
+    /**
+     * @return IDs of the instances holding a live lease for the user
+     */
+    Set<String> findNodes(Long userId);
+}
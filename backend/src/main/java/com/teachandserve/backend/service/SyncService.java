@@ -0,0 +1,152 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.dto.ConversationHeadDTO;
+import com.teachandserve.backend.dto.ConversationResponse;
+import com.teachandserve.backend.dto.MessageResponse;
+import com.teachandserve.backend.dto.ReadStateDTO;
+import com.teachandserve.backend.dto.SyncCursor;
+import com.teachandserve.backend.dto.SyncMessageDTO;
+import com.teachandserve.backend.dto.SyncResponse;
+import com.teachandserve.backend.repository.ConversationParticipantRepository;
+import com.teachandserve.backend.repository.ConversationRepository;
+import com.teachandserve.backend.repository.MessageRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Reconnect delta sync: everything that changed for a user since a {@link SyncCursor},
+ * in one response, instead of reloading the inbox and every open conversation.
+ *
+ * A sync returns the messages of the user's conversations above the cursor's
+ * per-conversation watermarks (up to a page, continued with a continuation cursor),
+ * plus read watermarks that moved and conversations the user joined. Conversations
+ * with new messages are found from the conversation summaries, so only those are read.
+ *
+ * Message positions are ids, compared per conversation: the send path locks the
+ * conversation row before inserting, so within a conversation ids are assigned in
+ * commit order and a message can't commit below a watermark already handed out.
+ * Across conversations ids and creation times from each instance's clock give no such
+ * guarantee. Read watermarks are still found by the time they moved, starting
+ * {@code messaging.sync.overlap-ms} before the previous sync did; they only move
+ * forward, so applying one again is harmless.
+ */
+@Service
+public class SyncService {
+
+    @Value("${messaging.sync.overlap-ms:5000}")
+    private long overlapMillis;
+
+    @Value("${messaging.sync.max-messages:500}")
+    private int maxMessages;
+
+    private final MessageRepository messageRepository;
+    private final ConversationRepository conversationRepository;
+    private final ConversationParticipantRepository participantRepository;
+    private final ConversationService conversationService;
+    private final MessageService messageService;
+
+    public SyncService(MessageRepository messageRepository,
+                       ConversationRepository conversationRepository,
+                       ConversationParticipantRepository participantRepository,
+                       ConversationService conversationService,
+                       MessageService messageService) {
+        this.messageRepository = messageRepository;
+        this.conversationRepository = conversationRepository;
+        this.participantRepository = participantRepository;
+        this.conversationService = conversationService;
+        this.messageService = messageService;
+    }
+
+    /**
+     * Get what changed for a user since a cursor.
+     *
+     * @param userId User ID
+     * @param cursor Cursor from the previous sync, or null to start syncing from now
+     * @param limit  Maximum number of messages to return (capped at messaging.sync.max-messages)
+     * @return Changes with the cursor to continue or resume from
+     */
+    public SyncResponse sync(Long userId, SyncCursor cursor, int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<Long, Long> heads = new TreeMap<>();
+        for (ConversationHeadDTO head : conversationRepository.findHeadsByUserId(userId)) {
+            heads.put(head.getConversationId(), head.getLastMessageId() != null ? head.getLastMessageId() : 0L);
+        }
+        if (cursor == null) {
+            // Nothing to catch up on: the client loads its state and syncs from here
+            return new SyncResponse(List.of(), List.of(), List.of(), SyncCursor.resume(now, heads).encode(), false);
+        }
+        limit = Math.max(1, Math.min(limit, maxMessages));
+
+        // Conversations the user left drop out; joined ones start at their current head
+        Map<Long, Long> watermarks = new TreeMap<>();
+        List<Long> joined = new ArrayList<>();
+        heads.forEach((conversationId, head) -> {
+            Long watermark = cursor.getWatermarks().get(conversationId);
+            if (watermark == null) {
+                joined.add(conversationId);
+            }
+            watermarks.put(conversationId, watermark != null ? watermark : head);
+        });
+
+        LocalDateTime startedAt;
+        List<ReadStateDTO> readStates = List.of();
+        List<ConversationResponse> conversations = List.of();
+        if (cursor.isContinuation()) {
+            // Next page of messages; read states came with the first page
+            startedAt = cursor.getStartedAt();
+        } else {
+            startedAt = now;
+            readStates = participantRepository.findReadStatesChangedSince(
+                    userId, cursor.getStartedAt().minus(overlapMillis, ChronoUnit.MILLIS));
+        }
+        if (!joined.isEmpty()) {
+            conversations = conversationRepository.findWithParticipantsByIdIn(joined).stream()
+                    .map(conversation -> conversationService.toConversationResponse(conversation, userId))
+                    .collect(Collectors.toList());
+        }
+
+        // One range scan per conversation with new messages, until the page is full
+        List<SyncMessageDTO> dtos = new ArrayList<>();
+        boolean hasMore = false;
+        for (Map.Entry<Long, Long> entry : heads.entrySet()) {
+            Long conversationId = entry.getKey();
+            Long watermark = watermarks.get(conversationId);
+            if (entry.getValue() <= watermark) {
+                continue;
+            }
+            if (dtos.size() == limit) {
+                hasMore = true;
+                break;
+            }
+
+            Slice<SyncMessageDTO> slice = messageRepository.findMessagesAfter(
+                    conversationId, watermark, PageRequest.of(0, limit - dtos.size()));
+            List<SyncMessageDTO> page = slice.getContent();
+            dtos.addAll(page);
+            if (slice.hasNext()) {
+                watermarks.put(conversationId, page.get(page.size() - 1).getId());
+                hasMore = true;
+                break;
+            }
+            // Nothing at or below the head can still commit, so the whole range was read
+            long last = page.isEmpty() ? 0L : page.get(page.size() - 1).getId();
+            watermarks.put(conversationId, Math.max(entry.getValue(), last));
+        }
+        List<MessageResponse> messages = messageService.toMessageResponses(dtos);
+
+        SyncCursor next = hasMore
+                ? SyncCursor.continuation(startedAt, watermarks)
+                : SyncCursor.resume(startedAt, watermarks);
+        return new SyncResponse(messages, readStates, conversations, next.encode(), hasMore);
+    }
+}
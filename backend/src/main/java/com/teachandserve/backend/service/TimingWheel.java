@@ -0,0 +1,162 @@
+package com.teachandserve.backend.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel for expiring large numbers of timeouts in constant time.
+ *
+ * Time is divided into ticks of {@code tickMillis}. A timeout due at tick t sits in
+ * bucket {@code t mod size}, in an intrusive doubly linked list, so scheduling,
+ * rescheduling and cancelling are a few pointer updates however many timeouts are
+ * pending. Timeouts are created once by their owner and rescheduled in place, so
+ * keeping one alive allocates nothing. A timeout more than one rotation away stays in
+ * its bucket until its tick comes round.
+ *
+ * Expiry is at tick granularity and never early. Timeout tasks run on the thread
+ * calling {@link #advance}, after the wheel's lock is released, so a timeout can be
+ * rescheduled between expiring and its task running; tasks should check
+ * {@link #isScheduled} where that matters.
+ *
+ * Thread-safe, except that {@link #advance} must only be called from one thread.
+ */
+public class TimingWheel {
+
+    private final long tickMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+
+    // Guarded by this: last processed tick, and the number of pending timeouts
+    private long currentTick;
+    private int pending;
+
+    // Only used by the advancing thread
+    private final List<Timeout> expired = new ArrayList<>();
+
+    /**
+     * @param tickMillis Tick duration
+     * @param size       Number of buckets, a power of two
+     * @param nowMillis  Current time, in the same clock later passed to {@link #advance}
+     */
+    public TimingWheel(long tickMillis, int size, long nowMillis) {
+        if (tickMillis <= 0 || size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Tick must be positive and size a power of two");
+        }
+        this.tickMillis = tickMillis;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedule a timeout, or move it if it is already scheduled.
+     *
+     * @param timeout     Timeout to (re)schedule
+     * @param delayMillis Delay from now; rounded up to whole ticks
+     */
+    public synchronized void schedule(Timeout timeout, long delayMillis) {
+        unlink(timeout);
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        timeout.deadline = currentTick + ticks;
+        timeout.bucket = (int) (timeout.deadline & mask);
+        timeout.next = buckets[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        pending++;
+    }
+
+    /**
+     * Cancel a timeout; no-op if it isn't scheduled.
+     */
+    public synchronized void cancel(Timeout timeout) {
+        unlink(timeout);
+    }
+
+    public synchronized boolean isScheduled(Timeout timeout) {
+        return timeout.bucket >= 0;
+    }
+
+    /**
+     * @return Number of scheduled timeouts
+     */
+    public synchronized int size() {
+        return pending;
+    }
+
+    /**
+     * Expire every timeout due by {@code nowMillis} and run their tasks. If tasks throw,
+     * the others still run and the first exception is rethrown.
+     */
+    public void advance(long nowMillis) {
+        synchronized (this) {
+            long target = nowMillis / tickMillis;
+            // After a pause longer than a rotation, one pass over the buckets covers everything
+            long last = Math.min(target, currentTick + buckets.length);
+            for (long tick = currentTick + 1; tick <= last; tick++) {
+                Timeout timeout = buckets[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadline <= target) {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+            currentTick = Math.max(currentTick, target);
+        }
+
+        RuntimeException failure = null;
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        expired.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Caller holds the lock
+    private void unlink(Timeout timeout) {
+        if (timeout.bucket < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        pending--;
+    }
+
+    /**
+     * A reusable timeout: a task and its position on the wheel.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+
+        // Guarded by the wheel
+        private Timeout prev;
+        private Timeout next;
+        private long deadline;
+        private int bucket = -1;
+
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.dto.UnreadCountDTO;
+import com.teachandserve.backend.repository.ConversationParticipantRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user unread message counters kept in Redis, so the unread badge is a single HGET.
+ *
+ * Layout:
+ * - Key "unread:{userId}" is a hash of conversation id -> unread count, plus a
+ *   "total" field holding the sum across conversations
+ * - Key "unread:active" is a set of users whose counters were read recently and
+ *   are due for reconciliation
+ *
+ * The database (read watermarks) stays the source of truth. A missing hash is rebuilt
+ * from it on the next read, increments only touch hashes that already exist, and
+ * active users are periodically rebuilt to repair drift from races or lost updates.
+ * If Redis is unavailable, counts are served from the database.
+ */
+@Service
+public class UnreadCounterService {
+
+    private static final Logger log = LoggerFactory.getLogger(UnreadCounterService.class);
+
+    private static final String KEY_PREFIX = "unread:";
+    private static final String ACTIVE_USERS_KEY = "unread:active";
+    private static final String TOTAL_FIELD = "total";
+
+    // KEYS[1] = hash, ARGV[1] = conversation id, ARGV[2] = ttl seconds
+    // Returns the new count for the conversation, or 0 if the hash doesn't exist
+    private static final RedisScript<Long> INCREMENT_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call('EXISTS', KEYS[1]) == 0 then
+            return 0
+        end
+        local count = redis.call('HINCRBY', KEYS[1], ARGV[1], 1)
+        redis.call('HINCRBY', KEYS[1], 'total', 1)
+        redis.call('EXPIRE', KEYS[1], ARGV[2])
+        return count
+        """, Long.class);
+
+    // KEYS[1] = hash, ARGV[1] = conversation id, ARGV[2] = new count, ARGV[3] = ttl seconds
+    private static final RedisScript<Long> SET_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call('EXISTS', KEYS[1]) == 0 then
+            return 0
+        end
+        local previous = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '0')
+        local count = tonumber(ARGV[2])
+        if count > 0 then
+            redis.call('HSET', KEYS[1], ARGV[1], count)
+        else
+            redis.call('HDEL', KEYS[1], ARGV[1])
+        end
+        redis.call('HINCRBY', KEYS[1], 'total', count - previous)
+        redis.call('EXPIRE', KEYS[1], ARGV[3])
+        return 1
+        """, Long.class);
+
+    // KEYS[1] = hash, ARGV[1] = ttl seconds, ARGV[2] = total, then conversation id / count pairs
+    private static final RedisScript<Long> REBUILD_SCRIPT = new DefaultRedisScript<>("""
+        redis.call('DEL', KEYS[1])
+        redis.call('HSET', KEYS[1], 'total', ARGV[2])
+        for i = 3, #ARGV, 2 do
+            redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+        end
+        redis.call('EXPIRE', KEYS[1], ARGV[1])
+        return 1
+        """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ConversationParticipantRepository participantRepository;
+
+    @Value("${messaging.unread.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    @Value("${messaging.unread.reconcile-batch-size:200}")
+    private int reconcileBatchSize;
+
+    public UnreadCounterService(StringRedisTemplate redisTemplate,
+                                ConversationParticipantRepository participantRepository) {
+        this.redisTemplate = redisTemplate;
+        this.participantRepository = participantRepository;
+    }
+
+    /**
+     * Get a user's total unread message count across all conversations.
+     *
+     * @param userId User ID
+     * @return Total unread messages
+     */
+    public long getTotalUnread(Long userId) {
+        try {
+            redisTemplate.opsForSet().add(ACTIVE_USERS_KEY, userId.toString());
+
+            Object total = redisTemplate.opsForHash().get(buildKey(userId), TOTAL_FIELD);
+            if (total != null) {
+                return Math.max(Long.parseLong(total.toString()), 0);
+            }
+            return rebuild(userId);
+        } catch (Exception e) {
+            log.debug("Unread counters unavailable for user {}, counting in database", userId, e);
+            return countFromDatabase(userId);
+        }
+    }
+
+    /**
+     * Count a new message as unread for every participant except the sender.
+     *
+     * @param conversationId Conversation ID
+     * @param senderId       Sender user ID
+     * @param participantIds All participant user IDs of the conversation
+     * @return New unread counts for the conversation by recipient, for recipients whose counters are cached
+     */
+    public Map<Long, Long> messageSent(Long conversationId, Long senderId, Collection<Long> participantIds) {
+        Map<Long, Long> unreadCounts = new HashMap<>();
+        for (Long userId : participantIds) {
+            if (userId.equals(senderId)) {
+                continue;
+            }
+            try {
+                Long count = redisTemplate.execute(INCREMENT_SCRIPT, List.of(buildKey(userId)),
+                        conversationId.toString(), Long.toString(ttlSeconds));
+                if (count != null && count > 0) {
+                    unreadCounts.put(userId, count);
+                }
+            } catch (Exception e) {
+                // Counter drifts until the next rebuild; drop it so it is rebuilt on read
+                log.debug("Failed to increment unread counter for user {}", userId, e);
+                invalidate(userId);
+            }
+        }
+        return unreadCounts;
+    }
+
+    /**
+     * Set a user's unread count for one conversation, e.g. after they marked messages as read.
+     *
+     * @param userId         User ID
+     * @param conversationId Conversation ID
+     * @param unreadCount    Unread messages remaining in the conversation
+     */
+    public void setUnread(Long userId, Long conversationId, long unreadCount) {
+        try {
+            redisTemplate.execute(SET_SCRIPT, List.of(buildKey(userId)),
+                    conversationId.toString(), Long.toString(unreadCount), Long.toString(ttlSeconds));
+        } catch (Exception e) {
+            log.debug("Failed to update unread counter for user {}", userId, e);
+            invalidate(userId);
+        }
+    }
+
+    /**
+     * Rebuild the counters of recently active users from the database to repair drift.
+     */
+    @Scheduled(initialDelayString = "${messaging.unread.reconcile-interval-ms:60000}",
+               fixedDelayString = "${messaging.unread.reconcile-interval-ms:60000}")
+    public void reconcileActiveUsers() {
+        try {
+            List<String> userIds = redisTemplate.opsForSet().pop(ACTIVE_USERS_KEY, reconcileBatchSize);
+            if (userIds == null) {
+                return;
+            }
+            for (String userId : userIds) {
+                rebuild(Long.valueOf(userId));
+            }
+        } catch (Exception e) {
+            log.debug("Unread counter reconciliation skipped", e);
+        }
+    }
+
+    /**
+     * Replace a user's counters with counts computed from the read watermarks.
+     *
+     * @return Total unread messages
+     */
+    private long rebuild(Long userId) {
+        List<UnreadCountDTO> counts = participantRepository.findUnreadCountsByUserId(userId);
+
+        long total = 0;
+        List<String> args = new ArrayList<>(2 + counts.size() * 2);
+        args.add(Long.toString(ttlSeconds));
+        args.add(null); // total, filled in below
+        for (UnreadCountDTO count : counts) {
+            if (count.getUnreadCount() > 0) {
+                args.add(count.getConversationId().toString());
+                args.add(Long.toString(count.getUnreadCount()));
+                total += count.getUnreadCount();
+            }
+        }
+        args.set(1, Long.toString(total));
+
+        redisTemplate.execute(REBUILD_SCRIPT, List.of(buildKey(userId)), args.toArray());
+        return total;
+    }
+
+    private long countFromDatabase(Long userId) {
+        return participantRepository.findUnreadCountsByUserId(userId).stream()
+                .mapToLong(UnreadCountDTO::getUnreadCount)
+                .sum();
+    }
+
+    private void invalidate(Long userId) {
+        try {
+            redisTemplate.delete(buildKey(userId));
+        } catch (Exception ignored) {
+            // Redis is down; the key will be rebuilt once it is back
+        }
+    }
+
+    private String buildKey(Long userId) {
+        return KEY_PREFIX + userId;
+    }
+}
@@ -0,0 +1,12 @@
+-- Store encrypted message bodies as raw bytes instead of Base64 text
+-- Base64 inflates the ciphertext by a third, and the old char_length(body) <= 5000
+-- check was hit by the encoded ciphertext well before the plaintext reached 5000 chars
+
+ALTER TABLE messages DROP CONSTRAINT IF EXISTS messages_body_check;
+
+ALTER TABLE messages
+    ALTER COLUMN body TYPE BYTEA USING decode(body, 'base64');
+
+-- 5000 UTF-16 chars encode to at most 15000 UTF-8 bytes, plus the encryption envelope
+ALTER TABLE messages
+    ADD CONSTRAINT messages_body_check CHECK (octet_length(body) <= 16384);
@@ -0,0 +1,19 @@
+-- Online master key rotation
+-- The re-encryption job walks messages in (conversation_id, id) order so it can resume
+-- from a checkpoint with an index range scan and derive each conversation key only once
+
+CREATE INDEX IF NOT EXISTS idx_messages_conversation_id_id ON messages(conversation_id, id);
+
+-- One row per target master key id, tracking how far re-encryption has progressed
+-- The lease columns keep a single instance running the job at a time
+CREATE TABLE IF NOT EXISTS encryption_key_rotations (
+    key_id INTEGER PRIMARY KEY,
+    last_conversation_id BIGINT NOT NULL DEFAULT 0,
+    last_message_id BIGINT NOT NULL DEFAULT 0,
+    rows_re_encrypted BIGINT NOT NULL DEFAULT 0,
+    lease_owner VARCHAR(255),
+    lease_expires_at TIMESTAMP,
+    started_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    completed_at TIMESTAMP
+);
@@ -0,0 +1,27 @@
+-- Pooled sequence ids for conversations, participants and matches, so Hibernate can
+-- batch their inserts (a new conversation inserts the conversation and its participants)
+-- Entities allocate ids in blocks of 50 (allocationSize = 50): each nextval returns the
+-- top of a block and Hibernate hands out the 49 ids below it without another round trip.
+-- The existing serial/identity sequences are reused and moved past the current max id,
+-- so existing ids are kept and the column defaults keep working for plain SQL inserts.
+-- messages stays on its single-step sequence: ids are handed out per instance from a
+-- block, so pooled message ids would stop following insert order, which history pages,
+-- read watermarks and the conversation summary rely on.
+-- Apply before deploying the entity change.
+
+DO $$
+DECLARE
+    tbl TEXT;
+    seq TEXT;
+BEGIN
+    FOREACH tbl IN ARRAY ARRAY['conversations', 'conversation_participants', 'matches']
+    LOOP
+        seq := pg_get_serial_sequence(tbl, 'id');
+        IF seq IS NULL THEN
+            RAISE EXCEPTION 'No id sequence found for table %', tbl;
+        END IF;
+
+        EXECUTE format('ALTER SEQUENCE %s INCREMENT BY 50', seq);
+        EXECUTE format('SELECT setval(%L, GREATEST((SELECT COALESCE(MAX(id), 0) FROM %I), 1))', seq, tbl);
+    END LOOP;
+END $$;
@@ -0,0 +1,21 @@
+-- Replace per-message read receipts with a per-participant read watermark
+-- message_read_receipts grew by one row per message per reader; a watermark is one
+-- column per participant, and unread counts become range counts on (conversation_id, id).
+
+ALTER TABLE conversation_participants
+    ADD COLUMN IF NOT EXISTS last_read_message_id BIGINT NOT NULL DEFAULT 0;
+
+-- Messages are always marked read up to an id, so the highest receipt is the watermark
+UPDATE conversation_participants cp
+SET last_read_message_id = r.max_message_id
+FROM (
+    SELECT m.conversation_id, mrr.user_id, MAX(mrr.message_id) AS max_message_id
+    FROM message_read_receipts mrr
+    JOIN messages m ON m.id = mrr.message_id
+    GROUP BY m.conversation_id, mrr.user_id
+) r
+WHERE cp.conversation_id = r.conversation_id
+AND cp.user_id = r.user_id
+AND cp.last_read_message_id < r.max_message_id;
+
+DROP TABLE message_read_receipts;
@@ -0,0 +1,25 @@
+-- Denormalized last-message summary on conversations
+-- The inbox reads one row per conversation instead of searching messages for the latest one.
+-- The send path updates the summary (and updated_at) itself, so the insert trigger is dropped.
+
+ALTER TABLE conversations
+    ADD COLUMN IF NOT EXISTS last_message_id BIGINT,
+    ADD COLUMN IF NOT EXISTS last_message_sender_id BIGINT,
+    ADD COLUMN IF NOT EXISTS last_message_at TIMESTAMP,
+    ADD COLUMN IF NOT EXISTS last_message_preview BYTEA;
+
+-- Previews are encrypted by the application; PreviewBackfillService fills them in after deploy
+UPDATE conversations c
+SET last_message_id = m.id,
+    last_message_sender_id = m.sender_id,
+    last_message_at = m.created_at
+FROM (
+    SELECT DISTINCT ON (conversation_id) conversation_id, id, sender_id, created_at
+    FROM messages
+    ORDER BY conversation_id, id DESC
+) m
+WHERE c.id = m.conversation_id
+AND c.last_message_id IS NULL;
+
+DROP TRIGGER IF EXISTS trigger_update_conversation_timestamp ON messages;
+DROP FUNCTION IF EXISTS update_conversation_timestamp();
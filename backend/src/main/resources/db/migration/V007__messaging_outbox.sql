@@ -0,0 +1,10 @@
+-- Transactional outbox for WebSocket publications (used when messaging.outbox.enabled=true)
+-- Rows are inserted in the same transaction as the message they announce and deleted by
+-- the relay once dispatched, so the table stays small.
+
+CREATE TABLE IF NOT EXISTS messaging_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    destination VARCHAR(255) NOT NULL,
+    payload TEXT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
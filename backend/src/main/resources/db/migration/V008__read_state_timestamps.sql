@@ -0,0 +1,6 @@
+-- Record when each participant's read watermark last moved
+-- Reconnect delta sync (GET /api/sync) returns the watermarks that moved after the
+-- client's cursor. NULL means the watermark never moved since this migration.
+
+ALTER TABLE conversation_participants
+    ADD COLUMN IF NOT EXISTS last_read_at TIMESTAMP;
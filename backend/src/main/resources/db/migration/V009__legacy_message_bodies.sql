@@ -0,0 +1,16 @@
+-- Flag message bodies that may still be legacy AES/ECB ciphertexts
+-- EncryptionService only uses the unauthenticated ECB decoder for flagged rows, so a
+-- tampered or wrong-key envelope can never be read back as garbage plaintext. ECB with
+-- PKCS5 padding always produces whole 16-byte blocks, so only rows of that length are
+-- flagged; this includes some envelopes (30 bytes of overhead plus the payload), which
+-- still open as envelopes because they carry a valid header. Rows are unflagged when
+-- KeyRotationService rewrites them, and new rows are never flagged.
+-- Apply before deploying the entity change.
+
+ALTER TABLE messages
+    ADD COLUMN IF NOT EXISTS legacy_body BOOLEAN NOT NULL DEFAULT FALSE;
+
+UPDATE messages SET legacy_body = TRUE WHERE octet_length(body) % 16 = 0;
+
+CREATE INDEX IF NOT EXISTS idx_messages_legacy_body
+    ON messages(conversation_id, id) WHERE legacy_body;
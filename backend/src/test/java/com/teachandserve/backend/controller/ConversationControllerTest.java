@@ -0,0 +1,92 @@
+package com.teachandserve.backend.controller;
+
+import com.teachandserve.backend.dto.ConversationListSnapshot;
+import com.teachandserve.backend.dto.ConversationResponse;
+import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.service.ConversationListCache;
+import com.teachandserve.backend.service.ConversationService;
+import com.teachandserve.backend.service.InboxEventPublisher;
+import com.teachandserve.backend.service.MessageService;
+import com.teachandserve.backend.service.UnreadCounterService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ConversationControllerTest {
+
+    private static final Long USER_ID = 7L;
+    private static final String ETAG = "\"abc123\"";
+
+    private final ConversationListCache conversationListCache = mock(ConversationListCache.class);
+    private final InboxEventPublisher inboxEventPublisher = mock(InboxEventPublisher.class);
+    private final ConversationController controller = new ConversationController(
+            mock(ConversationService.class), mock(MessageService.class), mock(UnreadCounterService.class),
+            conversationListCache, inboxEventPublisher);
+
+    private final List<ConversationResponse> conversations = List.of(new ConversationResponse(
+            1L, List.of(), null, 0, LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 1, 1, 0, 0)));
+    private final User user = new User();
+
+    @BeforeEach
+    void setUp() {
+        user.setId(USER_ID);
+        when(conversationListCache.getConversations(USER_ID))
+                .thenReturn(new ConversationListSnapshot(conversations, ETAG));
+        when(inboxEventPublisher.getCurrentSeq(USER_ID)).thenReturn(42L);
+    }
+
+    @Test
+    void withoutIfNoneMatchReturnsTheListAndItsEtag() {
+        ResponseEntity<List<ConversationResponse>> response = controller.getUserConversations(null, user);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(conversations, response.getBody());
+        assertEquals(ETAG, response.getHeaders().getETag());
+        assertEquals("no-cache, private", response.getHeaders().getCacheControl());
+        assertEquals("42", response.getHeaders().getFirst(ConversationController.INBOX_SEQ_HEADER));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {ETAG, "W/" + ETAG, "\"other\", " + ETAG, "\"other\",W/" + ETAG, "*"})
+    void matchingIfNoneMatchReturnsNotModifiedWithHeaders(String ifNoneMatch) {
+        ResponseEntity<List<ConversationResponse>> response = controller.getUserConversations(ifNoneMatch, user);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertNull(response.getBody());
+        // A 304 still carries the validators and the sequence the unchanged list reflects
+        assertEquals(ETAG, response.getHeaders().getETag());
+        assertEquals("no-cache, private", response.getHeaders().getCacheControl());
+        assertEquals("42", response.getHeaders().getFirst(ConversationController.INBOX_SEQ_HEADER));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"\"other\"", "abc123", "\"abc123", "W/\"other\", \"abc1234\"", ""})
+    void otherEtagsReturnTheList(String ifNoneMatch) {
+        ResponseEntity<List<ConversationResponse>> response = controller.getUserConversations(ifNoneMatch, user);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(conversations, response.getBody());
+    }
+
+    @Test
+    void missingSequenceLeavesOutTheHeader() {
+        when(inboxEventPublisher.getCurrentSeq(USER_ID)).thenReturn(null);
+
+        HttpHeaders headers = controller.getUserConversations(ETAG, user).getHeaders();
+        assertFalse(headers.containsKey(ConversationController.INBOX_SEQ_HEADER));
+        assertEquals(ETAG, headers.getETag());
+    }
+}
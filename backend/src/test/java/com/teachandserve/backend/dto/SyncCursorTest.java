@@ -0,0 +1,99 @@
+package com.teachandserve.backend.dto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncCursorTest {
+
+    private static final LocalDateTime STARTED_AT = LocalDateTime.of(2025, 3, 14, 15, 9, 26, 535_897_000);
+
+    @Test
+    void resumeCursorRoundTrips() {
+        Map<Long, Long> watermarks = Map.of(7L, 120L, 3L, 0L, 1_000_000L, 987_654_321L);
+        SyncCursor decoded = SyncCursor.decode(SyncCursor.resume(STARTED_AT, watermarks).encode());
+
+        assertFalse(decoded.isContinuation());
+        assertEquals(STARTED_AT, decoded.getStartedAt());
+        assertEquals(watermarks, decoded.getWatermarks());
+    }
+
+    @Test
+    void continuationCursorRoundTrips() {
+        SyncCursor decoded = SyncCursor.decode(SyncCursor.continuation(STARTED_AT, Map.of(42L, 987L)).encode());
+
+        assertTrue(decoded.isContinuation());
+        assertEquals(STARTED_AT, decoded.getStartedAt());
+        assertEquals(Map.of(42L, 987L), decoded.getWatermarks());
+    }
+
+    @Test
+    void cursorWithoutConversationsRoundTrips() {
+        SyncCursor decoded = SyncCursor.decode(SyncCursor.resume(STARTED_AT, Map.of()).encode());
+
+        assertEquals(STARTED_AT, decoded.getStartedAt());
+        assertTrue(decoded.getWatermarks().isEmpty());
+    }
+
+    @Test
+    void watermarksAreCopied() {
+        Map<Long, Long> watermarks = new HashMap<>(Map.of(1L, 10L));
+        SyncCursor cursor = SyncCursor.resume(STARTED_AT, watermarks);
+        watermarks.put(1L, 20L);
+
+        assertEquals(10L, cursor.getWatermarks().get(1L));
+        assertThrows(UnsupportedOperationException.class, () -> cursor.getWatermarks().put(2L, 1L));
+    }
+
+    @Test
+    void timesBeforeTheEpochRoundTrip() {
+        LocalDateTime before = LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_999_000);
+        assertEquals(before, SyncCursor.decode(SyncCursor.resume(before, Map.of()).encode()).getStartedAt());
+    }
+
+    @Test
+    void encodedCursorIsUrlSafe() {
+        String cursor = SyncCursor.continuation(STARTED_AT, Map.of(Long.MAX_VALUE, Long.MAX_VALUE, 1L, 2L)).encode();
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"), cursor);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "s",
+            "s:",
+            "s:1",
+            "s:abc:",
+            "s:1:2",
+            "s:1:2.",
+            "s:1:.2",
+            "s:1:2.3.4",
+            "s:1:2.3,",
+            "s:1:2.3,2.4",
+            "s:1:2.-3",
+            "s:1:2.3:4",
+            "c:1:2.x!",
+            "x:1:",
+    })
+    void rejectsMalformedContents(String value) {
+        String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> SyncCursor.decode(cursor));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"not base64!", "a", "czox+/=="})
+    void rejectsInvalidBase64(String cursor) {
+        assertThrows(IllegalArgumentException.class, () -> SyncCursor.decode(cursor));
+    }
+}
@@ -0,0 +1,226 @@
+package com.teachandserve.backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ClusterBrokerTest {
+
+    private static final String TOPIC = "/topic/conversations.5";
+    private static final Long USER_ID = 7L;
+    private static final String USER_TOPIC = "/topic/users.7.messages";
+    private static final String JSON = "{\"id\":1}";
+
+    // Instances sharing a bus, as if they shared a Redis server
+    private final LocalClusterTransport.Bus bus = new LocalClusterTransport.Bus();
+    private final SessionDirectory directory = new LocalSessionDirectory(bus);
+
+    private final SimpMessagingTemplate templateA = mock(SimpMessagingTemplate.class);
+    private final SimpMessagingTemplate templateB = mock(SimpMessagingTemplate.class);
+    private final SimpMessagingTemplate templateC = mock(SimpMessagingTemplate.class);
+
+    private final ClusterBroker brokerA = newBroker(templateA);
+    private final ClusterBroker brokerB = newBroker(templateB);
+    private final ClusterBroker brokerC = newBroker(templateC);
+
+    private ClusterBroker newBroker(SimpMessagingTemplate template) {
+        ClusterBroker broker = new ClusterBroker(template, new LocalClusterTransport(bus),
+                new LocalSessionDirectory(bus), new ObjectMapper());
+        ReflectionTestUtils.setField(broker, "leaseMillis", 30_000L);
+        // Every routed send looks the directory up again
+        ReflectionTestUtils.setField(broker, "directoryCacheMillis", 0L);
+        ReflectionTestUtils.setField(broker, "directoryCacheSize", 100);
+        broker.init();
+        return broker;
+    }
+
+    private static String nodeId(ClusterBroker broker) {
+        return (String) ReflectionTestUtils.getField(broker, "nodeId");
+    }
+
+    private boolean registered(ClusterBroker broker) {
+        return directory.findNodes(USER_ID).contains(nodeId(broker));
+    }
+
+    private static Message<byte[]> stomp(StompCommand command, String sessionId, String subscriptionId,
+                                         String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        if (destination != null) {
+            accessor.setDestination(destination);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static void subscribe(ClusterBroker broker, String sessionId, String subscriptionId, String destination) {
+        broker.onSubscribe(new SessionSubscribeEvent(broker,
+                stomp(StompCommand.SUBSCRIBE, sessionId, subscriptionId, destination)));
+    }
+
+    private static void unsubscribe(ClusterBroker broker, String sessionId, String subscriptionId) {
+        broker.onUnsubscribe(new SessionUnsubscribeEvent(broker,
+                stomp(StompCommand.UNSUBSCRIBE, sessionId, subscriptionId, null)));
+    }
+
+    private static void disconnect(ClusterBroker broker, String sessionId) {
+        broker.onDisconnect(new SessionDisconnectEvent(broker,
+                stomp(StompCommand.DISCONNECT, sessionId, null, null), sessionId, CloseStatus.NORMAL));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<byte[]> delivered(SimpMessagingTemplate template, String destination) {
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+        verify(template, atLeast(0)).send(eq(destination), captor.capture());
+        List<byte[]> payloads = new ArrayList<>();
+        captor.getAllValues().forEach(message -> payloads.add((byte[]) message.getPayload()));
+        return payloads;
+    }
+
+    @Test
+    void topicChannelIsJoinedOnFirstSubscriberAndLeftAfterLast() {
+        subscribe(brokerB, "s1", "sub-1", TOPIC);
+        subscribe(brokerB, "s2", "sub-1", TOPIC);
+        assertEquals(1, brokerB.getSubscribedDestinationCount());
+
+        brokerA.send(TOPIC, JSON);
+        List<byte[]> payloads = delivered(templateB, TOPIC);
+        assertEquals(1, payloads.size());
+        assertArrayEquals(JSON.getBytes(StandardCharsets.UTF_8), payloads.get(0));
+
+        // One subscriber left: still relayed
+        unsubscribe(brokerB, "s1", "sub-1");
+        clearInvocations(templateB);
+        brokerA.send(TOPIC, JSON);
+        verify(templateB).send(eq(TOPIC), any(Message.class));
+
+        // Last subscriber gone: the channel is left
+        disconnect(brokerB, "s2");
+        assertEquals(0, brokerB.getSubscribedDestinationCount());
+        clearInvocations(templateB);
+        brokerA.send(TOPIC, JSON);
+        verify(templateB, never()).send(anyString(), any(Message.class));
+    }
+
+    @Test
+    void instanceIgnoresItsOwnPublications() {
+        subscribe(brokerA, "s1", "sub-1", TOPIC);
+
+        brokerA.send(TOPIC, JSON);
+
+        // Delivered locally once, not again when the publication loops back
+        verify(templateA, times(1)).send(eq(TOPIC), any(Message.class));
+    }
+
+    @Test
+    void resubscribingASubscriptionIdReleasesItsPreviousDestination() {
+        subscribe(brokerB, "s1", "sub-1", TOPIC);
+        subscribe(brokerB, "s1", "sub-1", "/topic/conversations.6");
+
+        assertEquals(1, brokerB.getSubscribedDestinationCount());
+        brokerA.send(TOPIC, JSON);
+        verify(templateB, never()).send(anyString(), any(Message.class));
+    }
+
+    @Test
+    void userStaysRegisteredUntilItsLastReleaseIsBalanced() {
+        brokerB.acquireUser(USER_ID);
+        brokerB.acquireUser(USER_ID);
+        assertTrue(registered(brokerB));
+        assertEquals(1, brokerB.getDirectoryUserCount());
+
+        brokerB.releaseUser(USER_ID);
+        assertTrue(registered(brokerB));
+
+        brokerB.releaseUser(USER_ID);
+        assertEquals(Set.of(), directory.findNodes(USER_ID));
+        assertEquals(0, brokerB.getDirectoryUserCount());
+    }
+
+    @Test
+    void stompSubscriptionsAndAcquiredUsersShareTheCount() {
+        subscribe(brokerB, "s1", "sub-1", USER_TOPIC);
+        subscribe(brokerB, "s1", "sub-2", "/topic/users.7.notifications");
+        brokerB.acquireUser(USER_ID);
+
+        disconnect(brokerB, "s1");
+        assertTrue(registered(brokerB));
+
+        brokerB.releaseUser(USER_ID);
+        assertEquals(Set.of(), directory.findNodes(USER_ID));
+    }
+
+    @Test
+    void perUserPublicationIsRoutedOnlyToInstancesHoldingTheUser() {
+        List<String> notified = new ArrayList<>();
+        brokerB.addUserTopicListener((userId, destination, json) ->
+                notified.add(userId + " " + destination + " " + new String(json, StandardCharsets.UTF_8)));
+        brokerB.acquireUser(USER_ID);
+
+        brokerA.send(USER_TOPIC, JSON);
+
+        List<byte[]> payloads = delivered(templateB, USER_TOPIC);
+        assertEquals(1, payloads.size());
+        assertArrayEquals(JSON.getBytes(StandardCharsets.UTF_8), payloads.get(0));
+        assertEquals(List.of("7 " + USER_TOPIC + " " + JSON), notified);
+        verify(templateC, never()).send(anyString(), any(Message.class));
+
+        brokerB.releaseUser(USER_ID);
+        clearInvocations(templateB);
+        brokerA.send(USER_TOPIC, JSON);
+        verify(templateB, never()).send(anyString(), any(Message.class));
+        assertEquals(1, notified.size());
+    }
+
+    @Test
+    void publisherHoldingTheUserDeliversLocallyOnce() {
+        brokerA.acquireUser(USER_ID);
+        brokerB.acquireUser(USER_ID);
+
+        brokerA.send(USER_TOPIC, JSON);
+
+        verify(templateA, times(1)).send(eq(USER_TOPIC), any(Message.class));
+        verify(templateB, times(1)).send(eq(USER_TOPIC), any(Message.class));
+    }
+
+    @Test
+    void shutdownRemovesTheInstanceFromTheDirectory() {
+        brokerA.acquireUser(USER_ID);
+        brokerB.acquireUser(USER_ID);
+
+        brokerB.shutdown();
+
+        assertEquals(Set.of(nodeId(brokerA)), directory.findNodes(USER_ID));
+        clearInvocations(templateB);
+        brokerA.send(USER_TOPIC, JSON);
+        verify(templateB, never()).send(anyString(), any(Message.class));
+    }
+}
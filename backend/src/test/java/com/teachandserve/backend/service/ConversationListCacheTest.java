@@ -0,0 +1,92 @@
+package com.teachandserve.backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.teachandserve.backend.dto.ConversationListSnapshot;
+import com.teachandserve.backend.dto.ConversationResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConversationListCacheTest {
+
+    private static final Long USER_ID = 7L;
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    private final LocalClusterTransport.Bus bus = new LocalClusterTransport.Bus();
+    private final ConversationService conversationService = mock(ConversationService.class);
+
+    private ConversationListCache newCache() {
+        ConversationListCache cache = new ConversationListCache(conversationService,
+                new ObjectMapper().findAndRegisterModules(), new LocalClusterTransport(bus));
+        ReflectionTestUtils.setField(cache, "cacheSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+        cache.init();
+        return cache;
+    }
+
+    private static List<ConversationResponse> listWithUnread(long unreadCount) {
+        return List.of(new ConversationResponse(1L, List.of(), null, unreadCount, CREATED_AT, CREATED_AT));
+    }
+
+    @Test
+    void etagIsAQuotedHashOfTheContent() {
+        when(conversationService.getUserConversations(USER_ID)).thenReturn(listWithUnread(0));
+        ConversationListCache first = newCache();
+        ConversationListCache second = newCache();
+
+        String etag = first.getConversations(USER_ID).getEtag();
+        assertTrue(etag.matches("\"[A-Za-z0-9_-]+\""), etag);
+        // Same list, same tag, on any instance, so a 304 holds across instances
+        assertEquals(etag, second.getConversations(USER_ID).getEtag());
+    }
+
+    @Test
+    void cachedListIsServedUntilEvicted() {
+        when(conversationService.getUserConversations(USER_ID)).thenReturn(listWithUnread(0), listWithUnread(1));
+        ConversationListCache cache = newCache();
+
+        ConversationListSnapshot before = cache.getConversations(USER_ID);
+        assertEquals(before.getEtag(), cache.getConversations(USER_ID).getEtag());
+        verify(conversationService, times(1)).getUserConversations(USER_ID);
+
+        cache.evict(List.of(USER_ID));
+        ConversationListSnapshot after = cache.getConversations(USER_ID);
+        assertNotEquals(before.getEtag(), after.getEtag());
+        assertEquals(1, after.getConversations().get(0).getUnreadCount());
+    }
+
+    @Test
+    void evictionReachesOtherInstances() {
+        when(conversationService.getUserConversations(USER_ID)).thenReturn(listWithUnread(0));
+        ConversationListCache local = newCache();
+        ConversationListCache remote = newCache();
+        String stale = remote.getConversations(USER_ID).getEtag();
+
+        when(conversationService.getUserConversations(USER_ID)).thenReturn(listWithUnread(3));
+        local.evict(List.of(USER_ID));
+
+        // The remote instance must not keep answering 304 for the old tag
+        assertNotEquals(stale, remote.getConversations(USER_ID).getEtag());
+    }
+
+    @Test
+    void expiredEntryIsRecomputed() {
+        when(conversationService.getUserConversations(USER_ID)).thenReturn(listWithUnread(0));
+        ConversationListCache cache = newCache();
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 0L);
+
+        cache.getConversations(USER_ID);
+        cache.getConversations(USER_ID);
+        verify(conversationService, times(2)).getUserConversations(USER_ID);
+    }
+}
@@ -0,0 +1,95 @@
+package com.teachandserve.backend.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH comparison of decrypting a message history page one message at a time
+ * (the previous MessageService path) against {@link EncryptionService#decryptBatch}.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *       com.teachandserve.backend.service.EncryptionServiceBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class EncryptionServiceBenchmark {
+
+    private static final Long CONVERSATION_ID = 42L;
+
+    @Param({"20", "50", "100"})
+    private int pageSize;
+
+    private EncryptionService encryptionService;
+    private List<byte[]> page;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "keySize", 256);
+        ReflectionTestUtils.setField(encryptionService, "masterSecret", "benchmarkSecret");
+        ReflectionTestUtils.setField(encryptionService, "activeKeyId", 1);
+        ReflectionTestUtils.setField(encryptionService, "parallelThreshold", 32);
+        encryptionService.init();
+
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            page.add(encryptionService.encrypt(sampleMessage(i), CONVERSATION_ID));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encryptionService.shutdown();
+    }
+
+    @Benchmark
+    public void perMessage(Blackhole blackhole) {
+        for (byte[] ciphertext : page) {
+            blackhole.consume(encryptionService.decryptAndCheck(ciphertext, CONVERSATION_ID));
+        }
+    }
+
+    @Benchmark
+    public void batch(Blackhole blackhole) {
+        blackhole.consume(encryptionService.decryptBatch(page, CONVERSATION_ID));
+    }
+
+    private static String sampleMessage(int i) {
+        return "Message " + i + ": thanks for the feedback on my resume, I updated the projects "
+                + "section and would love another look before Friday's application deadline.";
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EncryptionServiceBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,413 @@
+package com.teachandserve.backend.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EncryptionServiceTest {
+
+    private static final Long CONVERSATION_ID = 42L;
+    private static final String OLD_SECRET = "oldSecret";
+    private static final String NEW_SECRET = "newSecret";
+    private static final int COMPRESSION_MIN_BYTES = 512;
+    private static final int FLAG_DEFLATE = 0x10;
+
+    private final List<EncryptionService> services = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(EncryptionService::shutdown);
+    }
+
+    private EncryptionService newService(int activeKeyId, String secret, String previousSecrets, int legacyKeyId) {
+        return newService(activeKeyId, secret, previousSecrets, legacyKeyId, 1, 32);
+    }
+
+    private EncryptionService newService(int activeKeyId, String secret, String previousSecrets, int legacyKeyId,
+                                         int batchThreads, int parallelThreshold) {
+        EncryptionService service = new EncryptionService();
+        ReflectionTestUtils.setField(service, "keySize", 256);
+        ReflectionTestUtils.setField(service, "masterSecret", secret);
+        ReflectionTestUtils.setField(service, "activeKeyId", activeKeyId);
+        ReflectionTestUtils.setField(service, "previousSecrets", previousSecrets);
+        ReflectionTestUtils.setField(service, "legacyKeyId", legacyKeyId);
+        ReflectionTestUtils.setField(service, "keyCacheSize", 16);
+        ReflectionTestUtils.setField(service, "batchThreads", batchThreads);
+        ReflectionTestUtils.setField(service, "parallelThreshold", parallelThreshold);
+        ReflectionTestUtils.setField(service, "compressionEnabled", true);
+        ReflectionTestUtils.setField(service, "compressionMinBytes", COMPRESSION_MIN_BYTES);
+        service.init();
+        services.add(service);
+        return service;
+    }
+
+    // A ciphertext as written by the original AES/ECB implementation
+    private static byte[] legacyEncrypt(SecretKey key, String plaintext) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        return cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static SecretKey conversationKey(EncryptionService service, String secret) {
+        return ReflectionTestUtils.invokeMethod(service, "deriveKey", secret, CONVERSATION_ID);
+    }
+
+    @Test
+    void envelopeUnderActiveKeyNeedsNoReEncryption() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        byte[] envelope = service.encrypt("hello", CONVERSATION_ID);
+
+        assertEquals(1, service.keyIdOf(envelope));
+        EncryptionService.DecryptedMessage decrypted = service.decryptAndCheck(envelope, CONVERSATION_ID);
+        assertEquals("hello", decrypted.plaintext());
+        assertFalse(decrypted.needsReEncryption());
+    }
+
+    @Test
+    void envelopeIsDecryptedWithTheKeyNamedInItsHeader() {
+        byte[] envelope = newService(1, OLD_SECRET, "", 1).encrypt("written before rotation", CONVERSATION_ID);
+        EncryptionService rotated = newService(2, NEW_SECRET, "1:" + OLD_SECRET, 1);
+
+        assertEquals(1, rotated.keyIdOf(envelope));
+        EncryptionService.DecryptedMessage decrypted = rotated.decryptAndCheck(envelope, CONVERSATION_ID);
+        assertEquals("written before rotation", decrypted.plaintext());
+        assertTrue(decrypted.needsReEncryption());
+
+        byte[] rewritten = rotated.encrypt(decrypted.plaintext(), CONVERSATION_ID);
+        assertEquals(2, rotated.keyIdOf(rewritten));
+        assertFalse(rotated.decryptAndCheck(rewritten, CONVERSATION_ID).needsReEncryption());
+    }
+
+    @Test
+    void envelopeUnderUnknownKeyIdIsRejected() {
+        byte[] envelope = newService(3, OLD_SECRET, "", 3).encrypt("hello", CONVERSATION_ID);
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+
+        assertThrows(RuntimeException.class, () -> service.decrypt(envelope, CONVERSATION_ID));
+    }
+
+    @Test
+    void tamperedEnvelopeIsRejected() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        byte[] envelope = service.encrypt("hello", CONVERSATION_ID);
+        envelope[envelope.length - 1] ^= 1;
+
+        assertThrows(RuntimeException.class, () -> service.decrypt(envelope, CONVERSATION_ID));
+    }
+
+    @Test
+    void envelopeIsBoundToItsConversation() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        byte[] envelope = service.encrypt("hello", CONVERSATION_ID);
+
+        assertThrows(RuntimeException.class, () -> service.decrypt(envelope, CONVERSATION_ID + 1));
+    }
+
+    @Test
+    void tamperedBlockAlignedEnvelopeIsRejected() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        // 30 bytes of overhead + 2: a whole number of AES blocks, like a legacy ciphertext
+        byte[] envelope = service.encrypt("hi", CONVERSATION_ID);
+        assertEquals(32, envelope.length);
+
+        for (int i = 0; i < envelope.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] tampered = envelope.clone();
+                tampered[i] ^= (byte) (1 << bit);
+                assertThrows(RuntimeException.class, () -> service.decrypt(tampered, CONVERSATION_ID),
+                        "byte " + i + ", bit " + bit);
+            }
+        }
+    }
+
+    @Test
+    void tamperedEnvelopeInFlaggedRowIsNeverReadWithEcb() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        byte[] envelope = service.encrypt("hi", CONVERSATION_ID);
+
+        // Header intact, so the row is opened as an envelope and GCM failure is final
+        for (int i = 2; i < envelope.length; i++) {
+            byte[] tampered = envelope.clone();
+            tampered[i] ^= 1;
+            assertThrows(RuntimeException.class,
+                    () -> service.decryptAndCheck(tampered, CONVERSATION_ID, true), "byte " + i);
+        }
+    }
+
+    @Test
+    void flaggedRowWithEnvelopeIsReadAsEnvelope() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        byte[] envelope = service.encrypt("hi", CONVERSATION_ID);
+
+        EncryptionService.DecryptedMessage decrypted = service.decryptAndCheck(envelope, CONVERSATION_ID, true);
+        assertEquals("hi", decrypted.plaintext());
+        // Rewritten anyway, which clears the row's flag
+        assertTrue(decrypted.needsReEncryption());
+    }
+
+    @Test
+    void flaggedLegacyCiphertextIsReadWithTheLegacyKeyId() throws Exception {
+        EncryptionService service = newService(2, NEW_SECRET, "1:" + OLD_SECRET, 1);
+        byte[] legacy = legacyEncrypt(conversationKey(service, OLD_SECRET), "legacy message");
+
+        EncryptionService.DecryptedMessage decrypted = service.decryptAndCheck(legacy, CONVERSATION_ID, true);
+        assertEquals("legacy message", decrypted.plaintext());
+        assertTrue(decrypted.needsReEncryption());
+    }
+
+    @Test
+    void unflaggedLegacyCiphertextIsRejected() throws Exception {
+        EncryptionService service = newService(2, NEW_SECRET, "1:" + OLD_SECRET, 1);
+        byte[] legacy = legacyEncrypt(conversationKey(service, OLD_SECRET), "legacy message");
+
+        assertThrows(RuntimeException.class, () -> service.decrypt(legacy, CONVERSATION_ID));
+    }
+
+    @Test
+    void flaggedLegacyCiphertextWithHeaderForUnknownKeyIsReadWithEcb() throws Exception {
+        EncryptionService service = newService(2, NEW_SECRET, "1:" + OLD_SECRET, 1);
+        SecretKey legacyKey = conversationKey(service, OLD_SECRET);
+
+        // A legacy ciphertext whose first byte carries the envelope version, but whose
+        // key id isn't configured; ECB encrypts the first block on its own, so vary it
+        String plaintext = null;
+        byte[] legacy = null;
+        for (int i = 0; legacy == null || service.keyIdOf(legacy) < 0 || service.keyIdOf(legacy) <= 2; i++) {
+            plaintext = i + ": legacy message";
+            legacy = legacyEncrypt(legacyKey, plaintext);
+        }
+
+        EncryptionService.DecryptedMessage decrypted = service.decryptAndCheck(legacy, CONVERSATION_ID, true);
+        assertEquals(plaintext, decrypted.plaintext());
+        assertTrue(decrypted.needsReEncryption());
+    }
+
+    @Test
+    void flaggedLegacyCiphertextWithValidHeaderIsNotRetriedWithEcb() throws Exception {
+        EncryptionService service = newService(2, NEW_SECRET, "1:" + OLD_SECRET, 1);
+        SecretKey legacyKey = conversationKey(service, OLD_SECRET);
+
+        // A legacy ciphertext that is indistinguishable from an envelope under key 1 or 2
+        byte[] legacy = null;
+        for (int i = 0; legacy == null || !looksLikeEnvelope(service, legacy); i++) {
+            legacy = legacyEncrypt(legacyKey, i + ": legacy message");
+        }
+        byte[] ambiguous = legacy;
+
+        assertThrows(RuntimeException.class, () -> service.decryptAndCheck(ambiguous, CONVERSATION_ID, true));
+    }
+
+    private static boolean looksLikeEnvelope(EncryptionService service, byte[] ciphertext) {
+        int keyId = service.keyIdOf(ciphertext);
+        return (keyId == 1 || keyId == 2) && (ciphertext[0] & 0xE0) == 0;
+    }
+
+    @Test
+    void batchResultsFollowInputOrderAcrossChunks() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1, 3, 4);
+
+        // Every size around the chunk boundaries of a 4-way split (caller plus 3 workers)
+        for (int size = 0; size <= 21; size++) {
+            List<byte[]> ciphertexts = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                ciphertexts.add(service.encrypt("message " + i, CONVERSATION_ID));
+            }
+
+            List<EncryptionService.DecryptedMessage> decrypted = service.decryptBatch(ciphertexts, CONVERSATION_ID);
+            assertEquals(size, decrypted.size());
+            for (int i = 0; i < size; i++) {
+                assertEquals("message " + i, decrypted.get(i).plaintext(), "size " + size + ", entry " + i);
+            }
+        }
+    }
+
+    @Test
+    void failedEntriesAreNullInPlace() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1, 3, 4);
+        Set<Integer> broken = Set.of(0, 7, 8, 19);
+
+        List<byte[]> ciphertexts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] envelope = service.encrypt("message " + i, CONVERSATION_ID);
+            if (broken.contains(i)) {
+                envelope[envelope.length - 1] ^= 1;
+            }
+            ciphertexts.add(envelope);
+        }
+
+        List<EncryptionService.DecryptedMessage> decrypted = service.decryptBatch(ciphertexts, CONVERSATION_ID);
+        for (int i = 0; i < 20; i++) {
+            if (broken.contains(i)) {
+                assertNull(decrypted.get(i), "entry " + i);
+            } else {
+                assertEquals("message " + i, decrypted.get(i).plaintext(), "entry " + i);
+            }
+        }
+    }
+
+    @Test
+    void smallBatchIsDecryptedOnTheCallingThreadWithTheSameResults() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1, 3, 32);
+        byte[] tampered = service.encrypt("broken", CONVERSATION_ID);
+        tampered[tampered.length - 1] ^= 1;
+
+        List<EncryptionService.DecryptedMessage> decrypted = service.decryptBatch(
+                List.of(service.encrypt("first", CONVERSATION_ID), tampered, service.encrypt("last", CONVERSATION_ID)),
+                CONVERSATION_ID);
+
+        assertEquals("first", decrypted.get(0).plaintext());
+        assertNull(decrypted.get(1));
+        assertEquals("last", decrypted.get(2).plaintext());
+    }
+
+    @Test
+    void legacyFlagsApplyToTheirOwnEntryInEveryChunk() throws Exception {
+        EncryptionService service = newService(2, NEW_SECRET, "1:" + OLD_SECRET, 1, 3, 4);
+        SecretKey legacyKey = conversationKey(service, OLD_SECRET);
+
+        List<byte[]> ciphertexts = new ArrayList<>();
+        BitSet legacy = new BitSet();
+        for (int i = 0; i < 16; i++) {
+            if (i % 5 == 3) {
+                byte[] ecb = legacyEncrypt(legacyKey, i + ": legacy message");
+                if (service.keyIdOf(ecb) >= 0) {
+                    // Would be ambiguous with an envelope; not what this test is about
+                    ecb = legacyEncrypt(legacyKey, i + ": legacy message, again");
+                }
+                ciphertexts.add(ecb);
+                legacy.set(i);
+            } else {
+                ciphertexts.add(service.encrypt(i + ": envelope", CONVERSATION_ID));
+            }
+        }
+
+        List<EncryptionService.DecryptedMessage> decrypted = service.decryptBatch(ciphertexts, legacy, CONVERSATION_ID);
+        for (int i = 0; i < 16; i++) {
+            EncryptionService.DecryptedMessage message = decrypted.get(i);
+            if (legacy.get(i)) {
+                assertTrue(message.plaintext().startsWith(i + ": legacy message"), "entry " + i);
+                assertTrue(message.needsReEncryption());
+            } else {
+                assertEquals(i + ": envelope", message.plaintext());
+                assertFalse(message.needsReEncryption());
+            }
+        }
+        // Unflagged, the same ECB ciphertexts are rejected
+        assertNull(service.decryptBatch(ciphertexts, CONVERSATION_ID).get(3));
+    }
+
+    @Test
+    void bodyAtTheThresholdIsDeflated() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        String body = "a".repeat(COMPRESSION_MIN_BYTES);
+        byte[] envelope = service.encrypt(body, CONVERSATION_ID);
+
+        assertEquals(FLAG_DEFLATE, envelope[0] & FLAG_DEFLATE);
+        assertTrue(envelope.length < body.length());
+        assertEquals(body, service.decrypt(envelope, CONVERSATION_ID));
+    }
+
+    @Test
+    void bodyBelowTheThresholdIsStoredAsIs() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        String body = "a".repeat(COMPRESSION_MIN_BYTES - 1);
+        byte[] envelope = service.encrypt(body, CONVERSATION_ID);
+
+        assertEquals(0, envelope[0] & FLAG_DEFLATE);
+        // 30 bytes of header, IV and tag
+        assertEquals(body.length() + 30, envelope.length);
+        assertEquals(body, service.decrypt(envelope, CONVERSATION_ID));
+    }
+
+    @Test
+    void disabledCompressionStoresBodiesAsIs() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        ReflectionTestUtils.setField(service, "compressionEnabled", false);
+        String body = "a".repeat(4 * COMPRESSION_MIN_BYTES);
+
+        assertEquals(0, service.encrypt(body, CONVERSATION_ID)[0] & FLAG_DEFLATE);
+    }
+
+    @Test
+    void incompressibleBytesAreNotDeflated() {
+        byte[] random = new byte[4 * COMPRESSION_MIN_BYTES];
+        new Random(7).nextBytes(random);
+
+        byte[] deflated = ReflectionTestUtils.invokeMethod(EncryptionService.class, "deflate", (Object) random);
+        assertNull(deflated);
+    }
+
+    @Test
+    void flagInTheHeaderDecidesInflationRegardlessOfSettings() {
+        EncryptionService writer = newService(1, NEW_SECRET, "", 1);
+        EncryptionService reader = newService(1, NEW_SECRET, "", 1);
+        ReflectionTestUtils.setField(reader, "compressionEnabled", false);
+
+        // A maximum-size body compresses far more than the initial 4x inflate buffer, so the buffer has to grow
+        String body = "The same sentence over and over. ".repeat(160).substring(0, 5000);
+        byte[] envelope = writer.encrypt(body, CONVERSATION_ID);
+
+        assertEquals(FLAG_DEFLATE, envelope[0] & FLAG_DEFLATE);
+        assertTrue(envelope.length * 4 < body.length());
+        assertEquals(body, reader.decrypt(envelope, CONVERSATION_ID));
+    }
+
+    @Test
+    void multiByteBodiesRoundTripThroughDeflate() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        String body = "h\u00e9llo w\u00f6rld \uD83D\uDC4B ".repeat(100);
+
+        byte[] envelope = service.encrypt(body, CONVERSATION_ID);
+        assertEquals(FLAG_DEFLATE, envelope[0] & FLAG_DEFLATE);
+        assertEquals(body, service.decrypt(envelope, CONVERSATION_ID));
+    }
+
+    @Test
+    void deflateBombIsRejected() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        // Far beyond any real body (5000 characters), so it must not be inflated in full
+        String body = "a".repeat(1024 * 1024);
+
+        byte[] envelope = service.encrypt(body, CONVERSATION_ID);
+        assertThrows(RuntimeException.class, () -> service.decrypt(envelope, CONVERSATION_ID));
+    }
+
+    @Test
+    void flippedDeflateFlagIsRejected() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+        byte[] deflated = service.encrypt("a".repeat(COMPRESSION_MIN_BYTES), CONVERSATION_ID);
+        byte[] raw = service.encrypt("hello", CONVERSATION_ID);
+        deflated[0] ^= FLAG_DEFLATE;
+        raw[0] ^= FLAG_DEFLATE;
+
+        // The header is authenticated, so the flag can't be changed without failing GCM
+        assertThrows(RuntimeException.class, () -> service.decrypt(deflated, CONVERSATION_ID));
+        assertThrows(RuntimeException.class, () -> service.decrypt(raw, CONVERSATION_ID));
+    }
+
+    @Test
+    void keyIdOfRejectsNonEnvelopes() {
+        EncryptionService service = newService(1, NEW_SECRET, "", 1);
+
+        assertEquals(-1, service.keyIdOf(null));
+        assertEquals(-1, service.keyIdOf(new byte[10]));
+        byte[] wrongVersion = service.encrypt("hello", CONVERSATION_ID);
+        wrongVersion[0] = 0x02;
+        assertEquals(-1, service.keyIdOf(wrongVersion));
+    }
+}
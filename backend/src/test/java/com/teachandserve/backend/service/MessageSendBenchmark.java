@@ -0,0 +1,163 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.model.Conversation;
+import com.teachandserve.backend.model.Message;
+import com.teachandserve.backend.model.Role;
+import com.teachandserve.backend.model.User;
+import com.teachandserve.backend.repository.ConversationParticipantRepository;
+import com.teachandserve.backend.repository.ConversationRepository;
+import com.teachandserve.backend.repository.MessageRepository;
+import com.teachandserve.backend.repository.UserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * JMH throughput benchmark of the in-process cost of {@link MessageService#sendMessage}:
+ * membership check, sanitization, encryption, response building and fan-out.
+ *
+ * Repositories, rate limiting, the event publisher and the WebSocket publisher are
+ * stub-only mocks, so the numbers exclude database and broker round trips. With a warm
+ * membership cache the send transaction makes four database round trips: the
+ * conversation row lock (SELECT ... FOR UPDATE), the message INSERT, the conversation
+ * summary UPDATE and the COMMIT (plus the outbox INSERT when the outbox is enabled).
+ * Publication happens after commit.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *       com.teachandserve.backend.service.MessageSendBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class MessageSendBenchmark {
+
+    private static final Long CONVERSATION_ID = 42L;
+    private static final Long SENDER_ID = 1L;
+    private static final Long RECIPIENT_ID = 2L;
+
+    @Param({"80", "2000"})
+    private int bodyLength;
+
+    private MessageService messageService;
+    private EncryptionService encryptionService;
+    private User sender;
+    private String body;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "keySize", 256);
+        ReflectionTestUtils.setField(encryptionService, "masterSecret", "benchmarkSecret");
+        ReflectionTestUtils.setField(encryptionService, "activeKeyId", 1);
+        ReflectionTestUtils.setField(encryptionService, "keyCacheSize", 100);
+        ReflectionTestUtils.setField(encryptionService, "compressionEnabled", true);
+        ReflectionTestUtils.setField(encryptionService, "compressionMinBytes", 512);
+        encryptionService.init();
+
+        ConversationRepository conversationRepository = stub(ConversationRepository.class);
+        when(conversationRepository.findParticipantIdsByConversationId(CONVERSATION_ID))
+                .thenReturn(List.of(SENDER_ID, RECIPIENT_ID));
+        when(conversationRepository.getReferenceById(anyLong())).thenReturn(new Conversation());
+        when(conversationRepository.lockForMessageInsert(CONVERSATION_ID)).thenReturn(Optional.of(CONVERSATION_ID));
+
+        ConversationMembershipCache membershipCache =
+                new ConversationMembershipCache(conversationRepository, new LocalClusterTransport());
+        ReflectionTestUtils.setField(membershipCache, "cacheSize", 100);
+        ReflectionTestUtils.setField(membershipCache, "ttlSeconds", 300L);
+        membershipCache.init();
+
+        UserRepository userRepository = stub(UserRepository.class);
+        when(userRepository.getReferenceById(anyLong())).thenReturn(new User());
+
+        AtomicLong ids = new AtomicLong();
+        MessageRepository messageRepository = stub(MessageRepository.class);
+        when(messageRepository.save(any(Message.class))).thenAnswer(invocation -> {
+            Message message = invocation.getArgument(0);
+            message.setId(ids.incrementAndGet());
+            return message;
+        });
+
+        RateLimitingService rateLimitingService = stub(RateLimitingService.class);
+        when(rateLimitingService.allowMessage(anyLong())).thenReturn(true);
+
+        messageService = new MessageService(
+                messageRepository,
+                conversationRepository,
+                userRepository,
+                stub(ConversationParticipantRepository.class),
+                stub(ConversationService.class),
+                stub(MessagingPublisher.class),
+                rateLimitingService,
+                encryptionService,
+                new SanitizationService(),
+                membershipCache,
+                stub(ApplicationEventPublisher.class),
+                stub(RecentMessageCache.class));
+
+        sender = new User("mentee@example.com", "password", Role.MENTEE);
+        sender.setId(SENDER_ID);
+        sender.setFirstName("Alex");
+
+        StringBuilder text = new StringBuilder(bodyLength);
+        while (text.length() < bodyLength) {
+            text.append("Thanks for the resume feedback, I reworked the projects section. ");
+        }
+        body = text.substring(0, bodyLength);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encryptionService.shutdown();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object send() {
+        return messageService.sendMessage(CONVERSATION_ID, sender, body);
+    }
+
+    // Stub-only mocks don't record invocations, so they don't grow during the run
+    private static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MessageSendBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,173 @@
+package com.teachandserve.backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs the outbox SQL against H2 in PostgreSQL mode, with the advisory lock function
+ * standing in as an alias.
+ */
+class MessagingPublisherTest {
+
+    private final ClusterBroker clusterBroker = mock(ClusterBroker.class);
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private MessagingPublisher publisher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:outbox;MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        try (Connection connection = dataSource.getConnection()) {
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource("db/migration/V007__messaging_outbox.sql"));
+        }
+        jdbcTemplate.execute("CREATE ALIAS IF NOT EXISTS pg_try_advisory_xact_lock FOR \""
+                + AdvisoryLock.class.getName() + ".tryLock\"");
+        AdvisoryLock.available = true;
+
+        publisher = new MessagingPublisher(clusterBroker, jdbcTemplate, new ObjectMapper(), transactionTemplate);
+        ReflectionTestUtils.setField(publisher, "queueCapacity", 100);
+        ReflectionTestUtils.setField(publisher, "outboxEnabled", true);
+        ReflectionTestUtils.setField(publisher, "batchSize", 2);
+        publisher.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        publisher.shutdown();
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    private void insert(String... destinations) {
+        for (String destination : destinations) {
+            jdbcTemplate.update("INSERT INTO messaging_outbox (destination, payload) VALUES (?, ?)",
+                    destination, "{\"to\":\"" + destination + "\"}");
+        }
+    }
+
+    private List<String> pending() {
+        return jdbcTemplate.queryForList("SELECT destination FROM messaging_outbox ORDER BY id", String.class);
+    }
+
+    @Test
+    void publicationsAreWrittenAtCommitInsteadOfDispatched() {
+        transactionTemplate.executeWithoutResult(status -> {
+            publisher.publishAfterCommit("/topic/a", Map.of("n", 1));
+            publisher.publishAfterCommit("/topic/b", "{\"raw\":true}");
+            // Nothing is written until the transaction commits
+            assertTrue(pending().isEmpty());
+        });
+
+        assertEquals(List.of("/topic/a", "/topic/b"), pending());
+        assertEquals(List.of("{\"n\":1}", "{\"raw\":true}"),
+                jdbcTemplate.queryForList("SELECT payload FROM messaging_outbox ORDER BY id", String.class));
+        verify(clusterBroker, never()).send(anyString(), any());
+    }
+
+    @Test
+    void rolledBackPublicationsLeaveNoRows() {
+        transactionTemplate.executeWithoutResult(status -> {
+            publisher.publishAfterCommit("/topic/a", Map.of("n", 1));
+            status.setRollbackOnly();
+        });
+
+        assertTrue(pending().isEmpty());
+    }
+
+    @Test
+    void relaySendsEveryRowInIdOrderAcrossBatchesAndDeletesThem() {
+        insert("/topic/1", "/topic/2", "/topic/3", "/topic/4", "/topic/5");
+
+        publisher.relayOutbox();
+
+        InOrder order = inOrder(clusterBroker);
+        for (int i = 1; i <= 5; i++) {
+            order.verify(clusterBroker).send("/topic/" + i, "{\"to\":\"/topic/" + i + "\"}");
+        }
+        assertTrue(pending().isEmpty());
+    }
+
+    @Test
+    void relayStopsAtTheFirstFailureAndKeepsTheRest() {
+        insert("/topic/1", "/topic/2", "/topic/3", "/topic/4");
+        doThrow(new IllegalStateException("broker down")).when(clusterBroker).send(eq("/topic/3"), any());
+
+        publisher.relayOutbox();
+
+        verify(clusterBroker, never()).send(eq("/topic/4"), any());
+        assertEquals(List.of("/topic/3", "/topic/4"), pending());
+
+        // Once the broker recovers, the failed row goes out before the ones after it
+        doNothing().when(clusterBroker).send(eq("/topic/3"), any());
+        publisher.relayOutbox();
+
+        InOrder order = inOrder(clusterBroker);
+        order.verify(clusterBroker, times(2)).send(eq("/topic/3"), any());
+        order.verify(clusterBroker).send(eq("/topic/4"), any());
+        assertTrue(pending().isEmpty());
+    }
+
+    @Test
+    void relayBacksOffWhileAnotherInstanceHoldsTheLock() {
+        insert("/topic/1");
+        AdvisoryLock.available = false;
+
+        publisher.relayOutbox();
+
+        verify(clusterBroker, never()).send(anyString(), any());
+        assertEquals(List.of("/topic/1"), pending());
+    }
+
+    @Test
+    void relayDoesNothingWithTheOutboxDisabled() {
+        insert("/topic/1");
+        ReflectionTestUtils.setField(publisher, "outboxEnabled", false);
+
+        publisher.relayOutbox();
+
+        verify(clusterBroker, never()).send(anyString(), any());
+        assertEquals(List.of("/topic/1"), pending());
+    }
+
+    /**
+     * Stand-in for PostgreSQL's pg_try_advisory_xact_lock.
+     */
+    public static class AdvisoryLock {
+
+        static volatile boolean available = true;
+
+        public static boolean tryLock(long key) {
+            return available;
+        }
+    }
+}
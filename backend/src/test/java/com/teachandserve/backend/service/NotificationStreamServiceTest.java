@@ -0,0 +1,257 @@
+package com.teachandserve.backend.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class NotificationStreamServiceTest {
+
+    private static final Long USER_ID = 7L;
+    private static final int REPLAY_SIZE = 3;
+
+    private final ClusterBroker clusterBroker = mock(ClusterBroker.class);
+    private final ManualExecutor writer = new ManualExecutor();
+
+    private NotificationStreamService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new NotificationStreamService(clusterBroker);
+        ReflectionTestUtils.setField(service, "timeoutMillis", 60_000L);
+        ReflectionTestUtils.setField(service, "retryMillis", 3000L);
+        ReflectionTestUtils.setField(service, "replaySize", REPLAY_SIZE);
+        ReflectionTestUtils.setField(service, "resumeWindowMillis", 60_000L);
+        ReflectionTestUtils.setField(service, "maxQueuedPerStream", 200);
+        ReflectionTestUtils.setField(service, "maxStreamsPerUser", 5);
+        // Not init(): writes run on the calling thread instead of virtual threads
+        ReflectionTestUtils.setField(service, "writer", writer);
+    }
+
+    private void publish(String topic, String json) {
+        ReflectionTestUtils.invokeMethod(service, "onUserMessage",
+                USER_ID, "/topic/users." + USER_ID + "." + topic, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // What the stream has written; the emitter holds it until a response is attached
+    @SuppressWarnings("unchecked")
+    private static List<SseEvent> events(SseEmitter emitter) {
+        StringBuilder raw = new StringBuilder();
+        for (ResponseBodyEmitter.DataWithMediaType part
+                : (Set<ResponseBodyEmitter.DataWithMediaType>) ReflectionTestUtils.getField(emitter, "earlySendAttempts")) {
+            Object data = part.getData();
+            raw.append(data instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : data);
+        }
+        List<SseEvent> events = new ArrayList<>();
+        for (String block : raw.toString().split("\n\n")) {
+            String id = null;
+            String name = null;
+            String data = null;
+            for (String line : block.split("\n")) {
+                if (line.startsWith("id:")) {
+                    id = line.substring(3);
+                } else if (line.startsWith("event:")) {
+                    name = line.substring(6);
+                } else if (line.startsWith("data:")) {
+                    data = line.substring(5);
+                }
+            }
+            if (id != null) {
+                events.add(new SseEvent(id, name, data));
+            }
+        }
+        return events;
+    }
+
+    private static List<String> names(SseEmitter emitter) {
+        return events(emitter).stream().map(SseEvent::name).toList();
+    }
+
+    private static SseEvent last(SseEmitter emitter) {
+        List<SseEvent> events = events(emitter);
+        return events.get(events.size() - 1);
+    }
+
+    private static boolean completed(SseEmitter emitter) {
+        return (boolean) ReflectionTestUtils.getField(emitter, "complete");
+    }
+
+    // Runs the emitter's completion callbacks, as the servlet container does when the response ends
+    private static void closeResponse(SseEmitter emitter) {
+        ((Runnable) ReflectionTestUtils.getField(emitter, "completionCallback")).run();
+    }
+
+    @Test
+    void freshStreamStartsWithReadyAndReceivesTheUsersTopics() {
+        SseEmitter emitter = service.open(USER_ID, null);
+        publish("messages", "{\"id\":1}");
+        publish("read-receipts", "{\"id\":2}");
+
+        List<SseEvent> events = events(emitter);
+        assertEquals(List.of("ready", "messages", "read-receipts"), names(emitter));
+        String epoch = events.get(0).id().substring(0, events.get(0).id().indexOf('-'));
+        assertEquals(List.of(epoch + "-0", epoch + "-1", epoch + "-2"), events.stream().map(SseEvent::id).toList());
+        assertEquals("{\"id\":1}", events.get(1).data());
+        verify(clusterBroker, times(1)).acquireUser(USER_ID);
+    }
+
+    @Test
+    void reconnectReplaysTheEventsAfterLastEventId() {
+        SseEmitter first = service.open(USER_ID, null);
+        publish("messages", "{\"id\":1}");
+        String lastSeen = last(first).id();
+        publish("messages", "{\"id\":2}");
+        publish("messages", "{\"id\":3}");
+        closeResponse(first);
+
+        SseEmitter second = service.open(USER_ID, lastSeen);
+
+        List<SseEvent> events = events(second);
+        assertEquals(List.of("messages", "messages", "ready"), names(second));
+        assertEquals(List.of("{\"id\":2}", "{\"id\":3}"), List.of(events.get(0).data(), events.get(1).data()));
+        assertEquals(events.get(1).id(), events.get(2).id());
+        verify(clusterBroker, times(1)).acquireUser(USER_ID);
+    }
+
+    @Test
+    void upToDateClientOnlyGetsReady() {
+        SseEmitter first = service.open(USER_ID, null);
+        publish("messages", "{\"id\":1}");
+
+        SseEmitter second = service.open(USER_ID, last(first).id());
+
+        assertEquals(List.of("ready"), names(second));
+        assertEquals(last(first).id(), last(second).id());
+    }
+
+    @Test
+    void eventsNoLongerBufferedGiveReset() {
+        SseEmitter first = service.open(USER_ID, null);
+        publish("messages", "{\"id\":1}");
+        String evicted = last(first).id();
+        publish("messages", "{\"id\":2}");
+        String oldestMissing = last(first).id();
+        for (int i = 3; i <= 2 + REPLAY_SIZE; i++) {
+            publish("messages", "{\"id\":" + i + "}");
+        }
+
+        SseEmitter reset = service.open(USER_ID, evicted);
+        assertEquals(List.of("reset"), names(reset));
+        assertEquals(last(first).id(), last(reset).id());
+
+        // The event after the oldest missing one is still buffered
+        SseEmitter replayed = service.open(USER_ID, oldestMissing);
+        assertEquals(List.of("messages", "messages", "messages", "ready"), names(replayed));
+    }
+
+    @Test
+    void idsFromAnotherBufferGiveReset() {
+        SseEmitter first = service.open(USER_ID, null);
+        publish("messages", "{\"id\":1}");
+        String id = last(first).id();
+        String epoch = id.substring(0, id.indexOf('-'));
+
+        for (String lastEventId : List.of("other-1", epoch + "-99", epoch + "-x", "garbage")) {
+            assertEquals(List.of("reset"), names(service.open(USER_ID, lastEventId)), lastEventId);
+        }
+    }
+
+    @Test
+    void bufferSurvivesTheResumeWindow() {
+        SseEmitter first = service.open(USER_ID, null);
+        publish("messages", "{\"id\":1}");
+        String lastSeen = last(first).id();
+        closeResponse(first);
+        assertEquals(0, service.getStreamCount());
+
+        service.keepAlive();
+        verify(clusterBroker, never()).releaseUser(USER_ID);
+
+        assertEquals(List.of("ready"), names(service.open(USER_ID, lastSeen)));
+    }
+
+    @Test
+    void userIsReleasedAfterTheResumeWindowAndLaterIdsAreReset() {
+        ReflectionTestUtils.setField(service, "resumeWindowMillis", 0L);
+        SseEmitter first = service.open(USER_ID, null);
+        publish("messages", "{\"id\":1}");
+        String lastSeen = last(first).id();
+        closeResponse(first);
+
+        service.keepAlive();
+        verify(clusterBroker).releaseUser(USER_ID);
+
+        // A new buffer with a new epoch
+        SseEmitter second = service.open(USER_ID, lastSeen);
+        assertEquals(List.of("reset"), names(second));
+        assertFalse(last(second).id().equals(lastSeen));
+        verify(clusterBroker, times(2)).acquireUser(USER_ID);
+    }
+
+    @Test
+    void oldestStreamIsClosedOverThePerUserLimit() {
+        ReflectionTestUtils.setField(service, "maxStreamsPerUser", 1);
+        SseEmitter first = service.open(USER_ID, null);
+        SseEmitter second = service.open(USER_ID, null);
+
+        assertTrue(completed(first));
+        assertFalse(completed(second));
+        assertEquals(1, service.getStreamCount());
+    }
+
+    @Test
+    void laggingStreamIsClosedInsteadOfQueueingFurther() {
+        ReflectionTestUtils.setField(service, "maxQueuedPerStream", 2);
+        writer.paused = true;
+        SseEmitter emitter = service.open(USER_ID, null);
+
+        publish("messages", "{\"id\":1}");
+        assertFalse(completed(emitter));
+        publish("messages", "{\"id\":2}");
+
+        assertTrue(completed(emitter));
+        writer.resume();
+        assertTrue(events(emitter).isEmpty());
+    }
+
+    private record SseEvent(String id, String name, String data) {
+    }
+
+    /**
+     * Runs writes on the calling thread, or holds them while paused.
+     */
+    private static final class ManualExecutor extends SimpleAsyncTaskExecutor {
+        private final List<Runnable> pending = new ArrayList<>();
+        boolean paused;
+
+        @Override
+        public void execute(Runnable task) {
+            if (paused) {
+                pending.add(task);
+            } else {
+                task.run();
+            }
+        }
+
+        void resume() {
+            paused = false;
+            pending.forEach(Runnable::run);
+            pending.clear();
+        }
+    }
+}
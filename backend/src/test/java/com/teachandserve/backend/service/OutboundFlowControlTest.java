@@ -0,0 +1,176 @@
+package com.teachandserve.backend.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OutboundFlowControlTest {
+
+    private static final String SESSION_ID = "s1";
+    private static final int BUFFER_LIMIT = 10;
+
+    private final WebSocketSession client = mock(WebSocketSession.class);
+    private final WebSocketHandler stompHandler = mock(WebSocketHandler.class);
+
+    // Frames written to the client, and a write that stays in progress until released
+    private final List<String> written = new CopyOnWriteArrayList<>();
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private CompletableFuture<Void> inFlight;
+
+    private OutboundFlowControl newFlowControl(String policy, int sendTimeLimitMs) {
+        OutboundFlowControl flowControl = new OutboundFlowControl();
+        ReflectionTestUtils.setField(flowControl, "sendTimeLimitMs", sendTimeLimitMs);
+        ReflectionTestUtils.setField(flowControl, "sendBufferSizeLimit", BUFFER_LIMIT);
+        ReflectionTestUtils.setField(flowControl, "slowConsumerPolicy", policy);
+        return flowControl;
+    }
+
+    private WebSocketSession connect(OutboundFlowControl flowControl) throws Exception {
+        when(client.getId()).thenReturn(SESSION_ID);
+        doAnswer(invocation -> {
+            written.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            writing.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            return null;
+        }).when(client).sendMessage(any());
+
+        flowControl.decorate(stompHandler).afterConnectionEstablished(client);
+        ArgumentCaptor<WebSocketSession> decorated = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(stompHandler).afterConnectionEstablished(decorated.capture());
+        return decorated.getValue();
+    }
+
+    // Start a write the client doesn't complete, so later frames are buffered
+    private void stallClient(WebSocketSession session) throws InterruptedException {
+        inFlight = CompletableFuture.runAsync(() -> {
+            try {
+                session.sendMessage(new TextMessage("x"));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+    }
+
+    private void resumeClient() throws Exception {
+        release.countDown();
+        inFlight.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void send(WebSocketSession session, String payload) throws Exception {
+        session.sendMessage(new TextMessage(payload));
+    }
+
+    @AfterEach
+    void releaseClient() {
+        release.countDown();
+    }
+
+    @Test
+    void framesBufferedBehindASlowWriteAreFlushedInOrder() throws Exception {
+        OutboundFlowControl flowControl = newFlowControl("disconnect", 10_000);
+        WebSocketSession session = connect(flowControl);
+        stallClient(session);
+
+        send(session, "aaa");
+        send(session, "bbb");
+        assertEquals(6, flowControl.getBufferedBytes(SESSION_ID));
+
+        resumeClient();
+        assertEquals(List.of("x", "aaa", "bbb"), written);
+        assertEquals(0, flowControl.getBufferedBytes(SESSION_ID));
+    }
+
+    @Test
+    void disconnectPolicyRejectsTheSessionOverTheBufferLimit() throws Exception {
+        OutboundFlowControl flowControl = newFlowControl("disconnect", 10_000);
+        WebSocketSession session = connect(flowControl);
+        stallClient(session);
+
+        send(session, "aaaaaa");
+        SessionLimitExceededException e = assertThrows(SessionLimitExceededException.class,
+                () -> send(session, "bbbbbb"));
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE, e.getStatus());
+
+        // Later frames are ignored while the session is closed
+        send(session, "c");
+        resumeClient();
+        assertEquals(List.of("x"), written);
+    }
+
+    @Test
+    void dropPolicyDiscardsTheOldestFramesAndKeepsTheSession() throws Exception {
+        OutboundFlowControl flowControl = newFlowControl("drop", 10_000);
+        WebSocketSession session = connect(flowControl);
+        stallClient(session);
+
+        send(session, "aaaaaa");
+        send(session, "bbbbbb");
+        assertEquals(6, flowControl.getBufferedBytes(SESSION_ID));
+        send(session, "cccccc");
+        assertEquals(6, flowControl.getBufferedBytes(SESSION_ID));
+
+        resumeClient();
+        assertEquals(List.of("x", "cccccc"), written);
+        verify(client, never()).close(any());
+    }
+
+    @Test
+    void writeOverTheTimeLimitRejectsTheSessionUnderEitherPolicy() throws Exception {
+        OutboundFlowControl flowControl = newFlowControl("drop", 50);
+        WebSocketSession session = connect(flowControl);
+        stallClient(session);
+
+        Thread.sleep(100);
+        assertThrows(SessionLimitExceededException.class, () -> send(session, "a"));
+    }
+
+    @Test
+    void closedSessionIsNoLongerTracked() throws Exception {
+        OutboundFlowControl flowControl = newFlowControl("disconnect", 10_000);
+        WebSocketHandler decorated = flowControl.decorate(stompHandler);
+        when(client.getId()).thenReturn(SESSION_ID);
+        decorated.afterConnectionEstablished(client);
+        assertEquals(Map.of(SESSION_ID, 0), flowControl.getBufferedBytes());
+
+        decorated.afterConnectionClosed(client, CloseStatus.NORMAL);
+
+        assertEquals(Map.of(), flowControl.getBufferedBytes());
+        verify(stompHandler).afterConnectionClosed(any(), any());
+    }
+
+    @Test
+    void unknownPolicyFallsBackToDisconnect() throws Exception {
+        OutboundFlowControl flowControl = newFlowControl("bogus", 10_000);
+        WebSocketSession session = connect(flowControl);
+        stallClient(session);
+
+        send(session, "aaaaaa");
+        assertThrows(SessionLimitExceededException.class, () -> send(session, "bbbbbb"));
+    }
+}
@@ -0,0 +1,247 @@
+package com.teachandserve.backend.service;
+
+import com.teachandserve.backend.dto.MessagePage;
+import com.teachandserve.backend.dto.MessageResponse;
+import com.teachandserve.backend.events.MessageSentEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentMessageCacheTest {
+
+    private static final Long CONVERSATION_ID = 42L;
+    private static final int CAPACITY = 5;
+
+    private final LocalClusterTransport.Bus bus = new LocalClusterTransport.Bus();
+
+    // Stored messages, newest first, as the database would return them
+    private final List<MessageResponse> stored = new ArrayList<>();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private RecentMessageCache newCache() {
+        RecentMessageCache cache = new RecentMessageCache(new LocalClusterTransport(bus));
+        ReflectionTestUtils.setField(cache, "capacity", CAPACITY);
+        ReflectionTestUtils.setField(cache, "maxConversations", 100);
+        ReflectionTestUtils.setField(cache, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+        cache.init();
+        return cache;
+    }
+
+    private static MessageResponse message(long id, String body) {
+        return new MessageResponse(id, CONVERSATION_ID, 1L, "sender", body,
+                LocalDateTime.of(2025, 1, 1, 0, 0).plusSeconds(id), null, null, List.of());
+    }
+
+    private void store(long id) {
+        stored.add(0, message(id, "message " + id));
+    }
+
+    private MessagePage load(int limit) {
+        loads.incrementAndGet();
+        List<MessageResponse> page = List.copyOf(stored.subList(0, Math.min(limit, stored.size())));
+        return new MessagePage(page, null, stored.size() > limit);
+    }
+
+    private MessageSentEvent sent(long id) {
+        store(id);
+        return new MessageSentEvent(this, stored.get(0), Set.of(1L, 2L));
+    }
+
+    private static List<Long> ids(MessagePage page) {
+        return page.getMessages().stream().map(MessageResponse::getId).toList();
+    }
+
+    @Test
+    void secondReadIsServedFromTheBuffer() {
+        RecentMessageCache cache = newCache();
+        for (long id = 1; id <= 3; id++) {
+            store(id);
+        }
+
+        // The first read fills the whole buffer, whatever its page size
+        assertEquals(List.of(3L, 2L), ids(cache.getLatest(CONVERSATION_ID, 2, this::load)));
+        assertEquals(List.of(3L, 2L, 1L), ids(cache.getLatest(CONVERSATION_ID, 3, this::load)));
+        assertEquals(1, loads.get());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    void sendExtendsTheBufferAndDropsTheOldest() {
+        RecentMessageCache cache = newCache();
+        for (long id = 1; id <= CAPACITY; id++) {
+            store(id);
+        }
+        cache.getLatest(CONVERSATION_ID, CAPACITY, this::load);
+
+        cache.onMessageSent(sent(6));
+        MessagePage page = cache.getLatest(CONVERSATION_ID, CAPACITY, this::load);
+
+        assertEquals(List.of(6L, 5L, 4L, 3L, 2L), ids(page));
+        assertTrue(page.isHasMore());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void sendDuringFillDiscardsTheFill() {
+        RecentMessageCache cache = newCache();
+        store(1);
+
+        // The page is read before the send commits, so it lacks message 2
+        MessagePage page = cache.getLatest(CONVERSATION_ID, CAPACITY, limit -> {
+            MessagePage loaded = load(limit);
+            cache.onMessageSent(sent(2));
+            return loaded;
+        });
+        assertEquals(List.of(1L), ids(page));
+
+        assertEquals(List.of(2L, 1L), ids(cache.getLatest(CONVERSATION_ID, CAPACITY, this::load)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void remoteInvalidationDuringFillDiscardsTheFill() {
+        RecentMessageCache cache = newCache();
+        RecentMessageCache remote = newCache();
+        store(1);
+
+        cache.getLatest(CONVERSATION_ID, CAPACITY, limit -> {
+            MessagePage loaded = load(limit);
+            remote.onMessageSent(sent(2));
+            return loaded;
+        });
+
+        assertEquals(List.of(2L, 1L), ids(cache.getLatest(CONVERSATION_ID, CAPACITY, this::load)));
+    }
+
+    @Test
+    void remoteSendEvictsTheBufferButOwnSendDoesNot() {
+        RecentMessageCache cache = newCache();
+        RecentMessageCache remote = newCache();
+        store(1);
+        cache.getLatest(CONVERSATION_ID, CAPACITY, this::load);
+
+        // Own invalidations loop back over the transport and must be ignored
+        cache.onMessageSent(sent(2));
+        assertEquals(List.of(2L, 1L), ids(cache.getLatest(CONVERSATION_ID, CAPACITY, this::load)));
+        assertEquals(1, loads.get());
+
+        remote.onMessageSent(sent(3));
+        assertEquals(List.of(3L, 2L, 1L), ids(cache.getLatest(CONVERSATION_ID, CAPACITY, this::load)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void readDuringFillGoesToTheDatabase() {
+        RecentMessageCache cache = newCache();
+        store(1);
+        List<Integer> nestedLimits = new ArrayList<>();
+
+        cache.getLatest(CONVERSATION_ID, 2, limit -> {
+            // A second reader doesn't wait for the fill in progress
+            cache.getLatest(CONVERSATION_ID, 2, nested -> {
+                nestedLimits.add(nested);
+                return load(nested);
+            });
+            return load(limit);
+        });
+
+        assertEquals(List.of(2), nestedLimits);
+        cache.getLatest(CONVERSATION_ID, 2, this::load);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void concurrentSendWhileAnotherThreadFillsIsNotLost() throws Exception {
+        RecentMessageCache cache = newCache();
+        store(1);
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch sendDone = new CountDownLatch(1);
+
+        CompletableFuture<MessagePage> fill = CompletableFuture.supplyAsync(() ->
+                cache.getLatest(CONVERSATION_ID, CAPACITY, limit -> {
+                    MessagePage page = load(limit);
+                    loaded.countDown();
+                    await(sendDone);
+                    return page;
+                }));
+
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+        cache.onMessageSent(sent(2));
+        sendDone.countDown();
+        assertEquals(List.of(1L), ids(fill.get(5, TimeUnit.SECONDS)));
+
+        assertEquals(List.of(2L, 1L), ids(cache.getLatest(CONVERSATION_ID, CAPACITY, this::load)));
+    }
+
+    @Test
+    void failedFillLetsTheNextReadFill() {
+        RecentMessageCache cache = newCache();
+        store(1);
+
+        assertThrows(IllegalStateException.class, () -> cache.getLatest(CONVERSATION_ID, CAPACITY, limit -> {
+            throw new IllegalStateException("database down");
+        }));
+
+        cache.getLatest(CONVERSATION_ID, CAPACITY, this::load);
+        cache.getLatest(CONVERSATION_ID, CAPACITY, this::load);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void pageWithDecryptionFailuresIsNotBuffered() {
+        RecentMessageCache cache = newCache();
+        stored.add(message(1, MessageService.DECRYPTION_FAILED_BODY));
+        IntFunction<MessagePage> loader = this::load;
+
+        assertEquals(MessageService.DECRYPTION_FAILED_BODY,
+                cache.getLatest(CONVERSATION_ID, CAPACITY, loader).getMessages().get(0).getBody());
+        cache.getLatest(CONVERSATION_ID, CAPACITY, loader);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void expiredBufferIsRefilled() {
+        RecentMessageCache cache = newCache();
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 0L);
+        store(1);
+
+        cache.getLatest(CONVERSATION_ID, CAPACITY, this::load);
+        cache.getLatest(CONVERSATION_ID, CAPACITY, this::load);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void pagesLargerThanTheBufferBypassIt() {
+        RecentMessageCache cache = newCache();
+        store(1);
+
+        cache.getLatest(CONVERSATION_ID, CAPACITY + 1, this::load);
+        cache.getLatest(CONVERSATION_ID, CAPACITY + 1, this::load);
+        assertEquals(2, loads.get());
+        assertFalse(cache.getHitRate() > 0);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
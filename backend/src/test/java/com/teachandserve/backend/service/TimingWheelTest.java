@@ -0,0 +1,126 @@
+package com.teachandserve.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    private static final long TICK = 100;
+    private static final int SIZE = 8;
+
+    private final List<String> fired = new ArrayList<>();
+
+    private TimingWheel.Timeout timeout(String name) {
+        return new TimingWheel.Timeout(() -> fired.add(name));
+    }
+
+    @Test
+    void expiresAtTheRoundedUpTickAndNeverEarly() {
+        TimingWheel wheel = new TimingWheel(TICK, SIZE, 0);
+        TimingWheel.Timeout timeout = timeout("a");
+        wheel.schedule(timeout, 250);
+
+        wheel.advance(299);
+        assertTrue(fired.isEmpty());
+        assertTrue(wheel.isScheduled(timeout));
+
+        wheel.advance(300);
+        assertEquals(List.of("a"), fired);
+        assertFalse(wheel.isScheduled(timeout));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void timeoutMoreThanOneRotationAwayWaitsForItsTick() {
+        TimingWheel wheel = new TimingWheel(TICK, SIZE, 0);
+        // Tick 10 shares bucket 2 with tick 2
+        wheel.schedule(timeout("far"), 10 * TICK);
+
+        for (long now = TICK; now < 10 * TICK; now += TICK) {
+            wheel.advance(now);
+        }
+        assertTrue(fired.isEmpty());
+
+        wheel.advance(10 * TICK);
+        assertEquals(List.of("far"), fired);
+    }
+
+    @Test
+    void rescheduleAcrossRotationsMovesTheTimeout() {
+        TimingWheel wheel = new TimingWheel(TICK, SIZE, 0);
+        TimingWheel.Timeout timeout = timeout("a");
+        wheel.schedule(timeout, 3 * TICK);
+
+        // Keep pushing it back, past the end of the first rotation
+        for (long now = TICK; now <= 12 * TICK; now += TICK) {
+            wheel.advance(now);
+            wheel.schedule(timeout, 3 * TICK);
+        }
+        assertTrue(fired.isEmpty());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(14 * TICK);
+        assertTrue(fired.isEmpty());
+        wheel.advance(15 * TICK);
+        assertEquals(List.of("a"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void advancingPastSeveralRotationsExpiresEverythingDue() {
+        TimingWheel wheel = new TimingWheel(TICK, SIZE, 0);
+        wheel.schedule(timeout("near"), TICK);
+        wheel.schedule(timeout("far"), 20 * TICK);
+        wheel.schedule(timeout("later"), 40 * TICK);
+
+        wheel.advance(30 * TICK);
+        assertEquals(Set.of("near", "far"), Set.copyOf(fired));
+        assertEquals(1, wheel.size());
+
+        wheel.advance(40 * TICK);
+        assertTrue(fired.contains("later"));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancelledTimeoutDoesNotFire() {
+        TimingWheel wheel = new TimingWheel(TICK, SIZE, 0);
+        TimingWheel.Timeout first = timeout("first");
+        TimingWheel.Timeout second = timeout("second");
+        wheel.schedule(first, TICK);
+        wheel.schedule(second, TICK);
+
+        wheel.cancel(first);
+        wheel.cancel(first);
+        wheel.advance(TICK);
+
+        assertEquals(List.of("second"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheOthers() {
+        TimingWheel wheel = new TimingWheel(TICK, SIZE, 0);
+        wheel.schedule(new TimingWheel.Timeout(() -> {
+            throw new IllegalStateException("boom");
+        }), TICK);
+        wheel.schedule(timeout("ok"), TICK);
+
+        assertThrows(IllegalStateException.class, () -> wheel.advance(TICK));
+        assertEquals(List.of("ok"), fired);
+    }
+
+    @Test
+    void rejectsSizeThatIsNotAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(TICK, 6, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, SIZE, 0));
+    }
+}
@@ -19,9 +19,26 @@ const Messages = () => {
   const [shouldScroll, setShouldScroll] = useState(false);
   const [wsConnected, setWsConnected] = useState(false);
   const [error, setError] = useState(null);
+  // Bumped on every (re)connect, since subscriptions don't survive the old connection
+  const [connectionCount, setConnectionCount] = useState(0);
+  // Participant status (online/away/offline) by user id, and typing user ids by conversation id
+  const [presence, setPresence] = useState({});
+  const [typingUsers, setTypingUsers] = useState({});
 
   const subscriptionsRef = useRef([]);
   const markAsReadTimeoutRef = useRef(null);
+  // Sequence number of the last inbox delta applied to `conversations`
+  const inboxSeqRef = useRef(null);
+  // Latest conversations for WebSocket handlers, which are bound once per connection
+  const conversationsRef = useRef([]);
+  const selectedConversationIdRef = useRef(null);
+  // Delta sync cursor (GET /api/sync), taken before the initial load and advanced by each sync
+  const syncCursorRef = useRef(null);
+  const hasConnectedRef = useRef(false);
+  // Presence topic subscription ids by conversation id, for the connection they were made on
+  const presenceSubsRef = useRef({ connection: 0, ids: {} });
+  // Conversation and time of the last typing frame sent
+  const typingSentRef = useRef({ conversationId: null, at: 0 });
   const currentUserName = user?.firstName && user.firstName.trim().length > 0 ? user.firstName : user.email;
 
   // Initialize WebSocket connection
@@ -32,6 +49,12 @@ const Messages = () => {
         token,
         () => {
           setWsConnected(true);
+          setConnectionCount(count => count + 1);
+          // After a reconnect, fetch only what was missed while disconnected
+          if (hasConnectedRef.current) {
+            syncMissed();
+          }
+          hasConnectedRef.current = true;
           // Subscribe to user's conversation updates
           const subId = websocketService.subscribe(
             `/topic/users.${user.id}.conversations`,
@@ -58,12 +81,75 @@ const Messages = () => {
     };
   }, [user.id]);
 
+  useEffect(() => {
+    conversationsRef.current = conversations;
+  }, [conversations]);
+
+  // Follow presence and typing in every listed conversation; the server only announces
+  // our own presence where we subscribe, and sends a snapshot for each new subscription
+  const conversationIdsKey = conversations.map(c => c.id).join(',');
+  useEffect(() => {
+    if (!wsConnected) return;
+    const subs = presenceSubsRef.current;
+    if (subs.connection !== connectionCount) {
+      subs.connection = connectionCount;
+      subs.ids = {};
+    }
+    const wanted = new Set(conversationsRef.current.map(c => c.id));
+    Object.keys(subs.ids).forEach(key => {
+      if (!wanted.has(Number(key))) {
+        websocketService.unsubscribe(subs.ids[key]);
+        delete subs.ids[key];
+      }
+    });
+    wanted.forEach(conversationId => {
+      if (!subs.ids[conversationId]) {
+        const subId = websocketService.subscribe(
+          `/topic/conversations.${conversationId}.presence`,
+          handlePresenceUpdate
+        );
+        if (subId) subs.ids[conversationId] = subId;
+      }
+    });
+  }, [conversationIdsKey, wsConnected, connectionCount]);
+
+  useEffect(() => {
+    return () => {
+      Object.values(presenceSubsRef.current.ids).forEach(id => websocketService.unsubscribe(id));
+      presenceSubsRef.current.ids = {};
+    };
+  }, []);
+
+  // Report away while the tab is hidden
+  useEffect(() => {
+    if (!wsConnected) return;
+    const reportVisibility = () => {
+      if (websocketService.isConnected()) {
+        websocketService.send('/app/presence', { status: document.hidden ? 'away' : 'online' });
+      }
+    };
+    if (document.hidden) reportVisibility();
+    document.addEventListener('visibilitychange', reportVisibility);
+    return () => document.removeEventListener('visibilitychange', reportVisibility);
+  }, [wsConnected, connectionCount]);
+
+  useEffect(() => {
+    selectedConversationIdRef.current = selectedConversation?.id ?? null;
+  }, [selectedConversation?.id]);
+
   // Load conversations and matches on mount
   useEffect(() => {
     let mounted = true;
 
     const init = async () => {
         if (mounted) {
+            // Take the sync cursor first, so nothing between it and the load is missed later
+            try {
+                const response = await axios.get('/api/sync');
+                syncCursorRef.current = response.data.cursor;
+            } catch (error) {
+                console.error('Failed to get sync cursor:', error);
+            }
             await loadConversations();
         }
     };
@@ -94,9 +180,14 @@ const Messages = () => {
     }
 
 
+    const conversationId = selectedConversation.id;
     return () => {
       if (subId) websocketService.unsubscribe(subId);
       subscriptionsRef.current = subscriptionsRef.current.filter(id => id !== subId);
+      // Leaving the conversation ends our typing indicator there
+      if (typingSentRef.current.conversationId === conversationId) {
+        sendTyping(conversationId, false);
+      }
     };
   }, [selectedConversation?.id, wsConnected]); // Only re-run if ID or connection status changes
 
@@ -137,9 +228,153 @@ const Messages = () => {
     }
   };
 
-  const handleConversationUpdate = (update) => {
-    // Reload conversations when there's an update
-    loadConversations();
+  const handleConversationUpdate = (delta) => {
+    // Reload if we missed a delta (or can't tell), otherwise patch the list locally
+    const known = conversationsRef.current.some(c => c.id === delta.conversationId);
+    if (delta.seq == null || inboxSeqRef.current == null || delta.seq !== inboxSeqRef.current + 1
+        || (delta.type !== 'conversationCreated' && !known)) {
+      loadConversations();
+      return;
+    }
+    inboxSeqRef.current = delta.seq;
+
+    switch (delta.type) {
+      case 'messageAdded':
+        setConversations(prev => {
+          const convo = prev.find(c => c.id === delta.conversationId);
+          if (!convo) return prev;
+          const isNewer = !convo.lastMessage || convo.lastMessage.id < delta.messageId;
+          let unreadCount = convo.unreadCount;
+          if (delta.unreadCount != null) {
+            unreadCount = delta.unreadCount;
+          } else if (isNewer && delta.senderId !== user.id) {
+            unreadCount += 1;
+          }
+          const updated = isNewer
+            ? {
+                ...convo,
+                lastMessage: {
+                  id: delta.messageId,
+                  conversationId: delta.conversationId,
+                  senderId: delta.senderId,
+                  senderName: delta.senderName,
+                  body: delta.preview,
+                  createdAt: delta.createdAt,
+                  readBy: []
+                },
+                updatedAt: delta.createdAt,
+                unreadCount
+              }
+            : { ...convo, unreadCount };
+          // Most recently updated first, as returned by the API
+          return [updated, ...prev.filter(c => c.id !== convo.id)]
+            .sort((a, b) => new Date(b.updatedAt) - new Date(a.updatedAt));
+        });
+        break;
+      case 'readStateChanged':
+        setConversations(prev => prev.map(c =>
+          c.id === delta.conversationId ? { ...c, unreadCount: delta.unreadCount } : c
+        ));
+        break;
+      case 'conversationCreated':
+        setConversations(prev =>
+          prev.some(c => c.id === delta.conversationId) ? prev : [delta.conversation, ...prev]
+        );
+        break;
+      default:
+        loadConversations();
+    }
+  };
+
+  const handlePresenceUpdate = (update) => {
+    if (update.userId === user.id) return;
+    if (update.type === 'presence') {
+      setPresence(prev => prev[update.userId] === update.status
+        ? prev
+        : { ...prev, [update.userId]: update.status });
+    } else if (update.type === 'typing') {
+      setTypingUsers(prev => {
+        const current = prev[update.conversationId] || [];
+        const next = update.typing
+          ? (current.includes(update.userId) ? current : [...current, update.userId])
+          : current.filter(id => id !== update.userId);
+        return next === current ? prev : { ...prev, [update.conversationId]: next };
+      });
+    }
+  };
+
+  // Typing frames are repeated while typing, well within the server's typing timeout
+  const TYPING_REPEAT_MS = 3000;
+
+  const sendTyping = (conversationId, typing) => {
+    if (!websocketService.isConnected()) return;
+    websocketService.send(`/app/conversations.${conversationId}.typing`, { typing });
+    typingSentRef.current = typing
+      ? { conversationId, at: Date.now() }
+      : { conversationId: null, at: 0 };
+  };
+
+  const handleInputChange = (e) => {
+    const value = e.target.value;
+    setNewMessage(value);
+    if (!selectedConversation) return;
+    const sent = typingSentRef.current;
+    if (!value.trim()) {
+      if (sent.conversationId === selectedConversation.id) {
+        sendTyping(selectedConversation.id, false);
+      }
+    } else if (sent.conversationId !== selectedConversation.id || Date.now() - sent.at >= TYPING_REPEAT_MS) {
+      sendTyping(selectedConversation.id, true);
+    }
+  };
+
+  // Catch up after a reconnect: missed messages, read states and new conversations come
+  // from one (paged) sync request instead of reloading every open conversation
+  const syncMissed = async () => {
+    if (!syncCursorRef.current) {
+      loadConversations();
+      return;
+    }
+    try {
+      let changed = false;
+      let hasMore = true;
+      while (hasMore) {
+        const response = await axios.get('/api/sync', {
+          params: { since: syncCursorRef.current }
+        });
+        const { messages: missed, readStates, conversations: joined, cursor } = response.data;
+
+        // Append missed messages of the open conversation; a sync may repeat some we have
+        const open = missed.filter(m => m.conversationId === selectedConversationIdRef.current);
+        if (open.length > 0) {
+          setMessages(prev => {
+            const known = new Set(prev.map(msg => msg.id));
+            const added = open.filter(m => !known.has(m.id));
+            return added.length > 0 ? [...prev, ...added] : prev;
+          });
+          setShouldScroll(true);
+        }
+
+        changed = changed || missed.length > 0 || readStates.length > 0 || joined.length > 0;
+        syncCursorRef.current = cursor;
+        hasMore = response.data.hasMore;
+      }
+
+      // Previews, unread counts and the inbox sequence moved on: reload the list once
+      if (changed) {
+        loadConversations();
+      }
+    } catch (error) {
+      console.error('Failed to sync missed changes:', error);
+      // The cursor may be unusable (e.g. from an older server): take a fresh one before reloading
+      try {
+        const response = await axios.get('/api/sync');
+        syncCursorRef.current = response.data.cursor;
+      } catch (cursorError) {
+        syncCursorRef.current = null;
+      }
+      loadConversations();
+    }
   };
 
   const loadConversations = async () => {
@@ -150,6 +385,8 @@ const Messages = () => {
       // Load conversations from API
       const response = await axios.get('/api/conversations');
       const apiConversations = response.data || [];
+      const seq = response.headers['x-inbox-seq'];
+      inboxSeqRef.current = seq != null ? parseInt(seq, 10) : null;
 
       setConversations(apiConversations);
 
@@ -240,28 +477,35 @@ const Messages = () => {
       setMessages(prev => [...prev, optimisticMessage]);
       setShouldScroll(true);
       setNewMessage('');
+      // The server ends our typing indicator when the message is sent
+      typingSentRef.current = { conversationId: null, at: 0 };
 
-      // 3. Send to server
+      // 3. Send to server: a single SEND frame on the open WebSocket, or a REST call without one
       try {
-        const response = await axios.post(
-          `/api/conversations/${selectedConversation.id}/messages`,
-          { body: messageBody }
-        );
-
-        // 4. Replace optimistic message with real one from server
-        // Store the real message ID to prevent duplicate WebSocket messages
-        const realMessageId = response.data.id;
+        let savedMessage;
+        if (websocketService.isConnected()) {
+          const receipt = await websocketService.request(
+            `/app/conversations.${selectedConversation.id}.send`,
+            { body: messageBody }
+          );
+          savedMessage = { ...optimisticMessage, id: Number(receipt['message-id']) };
+        } else {
+          const response = await axios.post(
+            `/api/conversations/${selectedConversation.id}/messages`,
+            { body: messageBody }
+          );
+          savedMessage = response.data;
+        }
 
+        // 4. Replace optimistic message with the saved one, unless the WebSocket already delivered it
         setMessages(prev =>
-          prev
-            // First, filter out any message with the real ID (in case WebSocket delivered it already)
-            .filter(msg => msg.id !== realMessageId)
-            // Then replace the optimistic message
-            .map(msg =>
-              msg.isOptimistic && msg.id === optimisticMessage.id
-                ? { ...response.data, isOptimistic: false }
-                : msg
-            )
+          prev.some(msg => msg.id === savedMessage.id)
+            ? prev.filter(msg => msg.id !== optimisticMessage.id)
+            : prev.map(msg =>
+                msg.isOptimistic && msg.id === optimisticMessage.id
+                  ? { ...savedMessage, isOptimistic: false }
+                  : msg
+              )
         );
       } catch (serverError) {
         // 5. Rollback optimistic update on error
@@ -284,9 +528,15 @@ const Messages = () => {
     try {
       const lastMessageId = messages[messages.length - 1]?.id;
       if (lastMessageId) {
-        await axios.post(`/api/conversations/${selectedConversation.id}/read`, {
-          lastMessageId
-        });
+        if (websocketService.isConnected()) {
+          await websocketService.request(`/app/conversations.${selectedConversation.id}.read`, {
+            lastMessageId
+          });
+        } else {
+          await axios.post(`/api/conversations/${selectedConversation.id}/read`, {
+            lastMessageId
+          });
+        }
       }
     } catch (error) {
       console.error('Failed to mark messages as read:', error);
@@ -316,7 +566,20 @@ const Messages = () => {
     return otherParticipant?.name || otherParticipant?.email || 'Unknown';
   };
 
+  const getParticipantId = (conversation) => conversation?.participants?.[0]?.id;
+
+  const formatPresence = (status) => {
+    if (status === 'online') return 'Active now';
+    if (status === 'away') return 'Away';
+    return 'Offline';
+  };
+
   const activeParticipantName = selectedConversation ? getParticipantName(selectedConversation) : null;
+  const activeParticipantStatus = wsConnected && selectedConversation
+    ? presence[getParticipantId(selectedConversation)]
+    : null;
+  const activeParticipantTyping = wsConnected && selectedConversation
+    && (typingUsers[selectedConversation.id] || []).length > 0;
   const activeParticipantInitial = activeParticipantName ? activeParticipantName.charAt(0).toUpperCase() : '?';
 
   if (loading) {
@@ -357,6 +620,7 @@ const Messages = () => {
                 {conversations.map((convo) => {
                   const participant = getParticipantName(convo);
                   const participantInitial = participant ? participant.charAt(0).toUpperCase() : '?';
+                  const participantStatus = wsConnected ? presence[getParticipantId(convo)] : null;
                   return (
                     <div
                       key={convo.id}
@@ -366,12 +630,20 @@ const Messages = () => {
                       }`}
                     >
                       <div className="flex items-start space-x-3">
-                        <div className="flex-shrink-0">
+                        <div className="flex-shrink-0 relative">
                           <div className="w-12 h-12 bg-gray-900 rounded-full flex items-center justify-center">
                             <span className="text-white font-semibold text-lg">
                               {participantInitial}
                             </span>
                           </div>
+                          {(participantStatus === 'online' || participantStatus === 'away') && (
+                            <span
+                              className={`absolute bottom-0 right-0 w-3 h-3 rounded-full border-2 border-white ${
+                                participantStatus === 'online' ? 'bg-green-500' : 'bg-yellow-400'
+                              }`}
+                              title={formatPresence(participantStatus)}
+                            />
+                          )}
                         </div>
                         <div className="flex-1 min-w-0">
                           <div className="flex justify-between items-baseline">
@@ -429,7 +701,7 @@ const Messages = () => {
                       {activeParticipantName || 'Unknown'}
                     </h3>
                     <p className="text-xs text-gray-500">
-                      {wsConnected ? 'Active now' : 'Offline'}
+                      {activeParticipantTyping ? 'typing…' : formatPresence(activeParticipantStatus)}
                     </p>
                   </div>
                 </div>
@@ -489,7 +761,7 @@ const Messages = () => {
                 <input
                   type="text"
                   value={newMessage}
-                  onChange={(e) => setNewMessage(e.target.value)}
+                  onChange={handleInputChange}
                   placeholder="Type a message..."
                   className="flex-1 px-4 py-3 bg-gray-100 border-0 rounded-full focus:outline-none focus:ring-2 focus:ring-gray-500 text-sm"
                   disabled={sending}
@@ -8,6 +8,7 @@ import SockJS from 'sockjs-client';
  * - Auto-reconnect with exponential backoff
  * - Subscription management
  * - JWT authentication
+ * - Request/receipt sends to @MessageMapping destinations
  * - Fallback to polling if WebSocket fails
  */
 class WebSocketService {
@@ -19,6 +20,8 @@ class WebSocketService {
     this.maxReconnectAttempts = 5;
     this.reconnectDelay = 1000;
     this.token = null;
+    this.receiptCounter = 0;
+    this.pendingReceipts = {};
   }
 
   /**
@@ -49,6 +52,11 @@ class WebSocketService {
       onConnect: () => {
         this.connected = true;
         this.reconnectAttempts = 0;
+        // Failed requests are reported on this session's error queue, tagged with their receipt id
+        this.client.subscribe('/user/topic/errors', (message) => {
+          const error = JSON.parse(message.body);
+          this.settleReceipt(error.receipt, (pending) => pending.reject(new Error(error.error)));
+        });
         if (onConnect) onConnect();
       },
       onStompError: (frame) => {
@@ -154,6 +162,46 @@ class WebSocketService {
     }
   }
 
+  /**
+   * Send a message to an application destination and wait for the server to process it.
+   *
+   * @param {string} destination - Application destination (/app/...)
+   * @param {object} body - Message body
+   * @param {number} timeoutMs - How long to wait for the receipt
+   * @returns {Promise<object>} - Resolves with the RECEIPT frame headers, rejects with the server's error
+   */
+  request(destination, body, timeoutMs = 10000) {
+    if (!this.connected || !this.client) {
+      return Promise.reject(new Error('WebSocket not connected'));
+    }
+
+    const receiptId = `r-${++this.receiptCounter}`;
+    return new Promise((resolve, reject) => {
+      const timer = setTimeout(() => {
+        this.settleReceipt(receiptId, (pending) => pending.reject(new Error('Request timed out')));
+      }, timeoutMs);
+      this.pendingReceipts[receiptId] = { resolve, reject, timer };
+
+      this.client.watchForReceipt(receiptId, (frame) => {
+        this.settleReceipt(receiptId, (pending) => pending.resolve(frame.headers));
+      });
+      this.client.publish({
+        destination,
+        body: JSON.stringify(body),
+        headers: { receipt: receiptId }
+      });
+    });
+  }
+
+  settleReceipt(receiptId, settle) {
+    const pending = this.pendingReceipts[receiptId];
+    if (pending) {
+      clearTimeout(pending.timer);
+      delete this.pendingReceipts[receiptId];
+      settle(pending);
+    }
+  }
+
   /**
    * Disconnect from the WebSocket server.
    */